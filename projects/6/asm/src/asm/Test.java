@@ -1,9 +1,16 @@
 package asm;
 
 import asm.code.CodeTest;
+import asm.ir.ProgramTest;
+import asm.parser.LexerTest;
 import asm.parser.ParserTest;
 import asm.hack.HackTest;
+import asm.hack.LinkerTest;
+import asm.optimizer.PeepholeOptimizerTest;
 import asm.symbol.SymbolTableTest;
+import emu.EmulatorTest;
+import emu.JitEmulatorTest;
+import emu.ProfilerTest;
 
 /**
  * Test.java - 統合テストコントローラ
@@ -18,6 +25,10 @@ public class Test {
             System.out.println("\n\n===== Parser テスト実行 =====");
             ParserTest.main(args);
             
+            // Lexer テスト
+            System.out.println("\n\n===== Lexer テスト実行 =====");
+            LexerTest.main(args);
+            
             // Code テスト
             System.out.println("\n\n===== Code テスト実行 =====");
             CodeTest.main(args);
@@ -30,6 +41,30 @@ public class Test {
             System.out.println("\n\n===== Hack テスト実行 =====");
             HackTest.main(args);
             
+            // Linker テスト
+            System.out.println("\n\n===== Linker テスト実行 =====");
+            LinkerTest.main(args);
+            
+            // Program テスト
+            System.out.println("\n\n===== Program テスト実行 =====");
+            ProgramTest.main(args);
+            
+            // PeepholeOptimizer テスト
+            System.out.println("\n\n===== PeepholeOptimizer テスト実行 =====");
+            PeepholeOptimizerTest.main(args);
+            
+            // Emulator テスト
+            System.out.println("\n\n===== Emulator テスト実行 =====");
+            EmulatorTest.main(args);
+            
+            // JitEmulator テスト
+            System.out.println("\n\n===== JitEmulator テスト実行 =====");
+            JitEmulatorTest.main(args);
+            
+            // Profiler テスト
+            System.out.println("\n\n===== Profiler テスト実行 =====");
+            ProfilerTest.main(args);
+            
             System.out.println("\n\n===== 統合テスト完了 =====");
             System.out.println("全てのテストが完了しました");
             
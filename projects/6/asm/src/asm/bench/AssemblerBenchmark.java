@@ -0,0 +1,235 @@
+package asm.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import asm.code.Code;
+import asm.hack.Hack;
+import asm.parser.Parser;
+import asm.symbol.SymbolTable;
+
+/**
+ * AssemblerBenchmark.java - アセンブラの性能計測
+ *
+ * Parser、Code、SymbolTable の単体と、Hack の各アセンブル方式の全体を計測し、
+ * 次の値を表示します。
+ * - スループット (1秒あたりの命令数)
+ * - 1回あたりの割り当てバイト数と、計測中のGC回数・時間
+ * - 1回あたりの所要時間のパーセンタイル (p50/p90/p99/最大)
+ *
+ * 入力は ProgramGenerator で生成したプログラムと、引数で指定したアセンブリファイル
+ * (VMトランスレータで tools/OS/*.vm を変換した OS.asm など) です。
+ *
+ * 使用法: java -cp bin asm.bench.AssemblerBenchmark [オプション] [アセンブリファイル ...]
+ *   --instructions N    生成するプログラムの命令数 (既定 100000)
+ *   --label-density D   生成するプログラムの命令1つあたりのラベル数 (既定 0.05)
+ *   --warmup N          ウォームアップの回数 (既定 5)
+ *   --iterations N      計測の回数 (既定 20)
+ */
+public class AssemblerBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /**
+     * 計測する処理 (結果をチェックサムとして返し、最適化で消されないようにする)
+     */
+    private interface Operation {
+        long run() throws IOException;
+    }
+
+    private int warmup = 5;
+    private int iterations = 20;
+    private long checksum = 0;
+
+    public static void main(String[] args) throws IOException {
+        AssemblerBenchmark benchmark = new AssemblerBenchmark();
+        int instructions = 100000;
+        double labelDensity = 0.05;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--instructions":  instructions = Integer.parseInt(args[++i]); break;
+                case "--label-density": labelDensity = Double.parseDouble(args[++i]); break;
+                case "--warmup":        benchmark.warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations":    benchmark.iterations = Integer.parseInt(args[++i]); break;
+                default:                files.add(args[i]); break;
+            }
+        }
+
+        System.out.println("===== アセンブラ ベンチマーク =====");
+        System.out.println("ウォームアップ: " + benchmark.warmup + " 回, 計測: " + benchmark.iterations + " 回");
+
+        Path generated = Files.createTempFile("bench", ".asm");
+        try {
+            String source = new ProgramGenerator(instructions, labelDensity, instructions / 100, 42).generate();
+            Files.write(generated, source.getBytes());
+            benchmark.run("生成 (命令数 " + instructions + ", ラベル密度 " + labelDensity + ")", generated.toString());
+            for (String file : files) {
+                benchmark.run(new File(file).getName(), file);
+            }
+        } finally {
+            Files.deleteIfExists(generated);
+        }
+        System.out.println("\n(チェックサム: " + benchmark.checksum + ")");
+    }
+
+    /**
+     * 1つの入力について全ての計測を行う
+     */
+    private void run(String name, String inputFile) throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get(inputFile)), "UTF-8");
+        Path output = Files.createTempFile("bench", ".hack");
+        String outputFile = output.toString();
+        try {
+            // 単体計測用に、コマンドのフィールドとシンボルを先に取り出しておく
+            List<String> labels = new ArrayList<>();
+            List<String> symbols = new ArrayList<>();
+            List<String[]> fields = new ArrayList<>();
+            Parser parser = new Parser(inputFile);
+            while (parser.hasMoreCommands()) {
+                switch (parser.commandType()) {
+                    case Parser.L_COMMAND: labels.add(parser.symbol()); break;
+                    case Parser.A_COMMAND: symbols.add(parser.symbol()); break;
+                    case Parser.C_COMMAND: fields.add(new String[] {parser.comp(), parser.dest(), parser.jump()}); break;
+                }
+                parser.advance();
+            }
+            int instructions = symbols.size() + fields.size();
+            System.out.println("\n----- " + name + " -----");
+            System.out.println("命令数: " + instructions + ", ラベル数: " + labels.size() + ", ソース: " + source.length() + " 文字");
+            System.out.printf("%-24s %14s %14s %10s %10s %10s %10s %8s%n",
+                    "計測対象", "命令/秒", "割当B/回", "p50 ms", "p90 ms", "p99 ms", "最大 ms", "GC回数");
+
+            measure("Parser", instructions, () -> {
+                long sum = 0;
+                Parser p = new Parser(inputFile);
+                while (p.hasMoreCommands()) {
+                    sum += p.commandType();
+                    p.advance();
+                }
+                return sum;
+            });
+            measure("Code", fields.size(), () -> {
+                Code code = new Code();
+                long sum = 0;
+                for (String[] field : fields) {
+                    sum += Code.cInstruction(code.compBits(field[0]), code.destBits(field[1]), code.jumpBits(field[2]));
+                }
+                return sum;
+            });
+            measure("SymbolTable", labels.size() + symbols.size(), () -> {
+                SymbolTable table = new SymbolTable();
+                for (int i = 0; i < labels.size(); i++) {
+                    table.addEntry(labels.get(i), i);
+                }
+                long sum = 0;
+                for (String symbol : symbols) {
+                    if (!isNumber(symbol)) {
+                        sum += table.getOrAssign(symbol);
+                    }
+                }
+                return sum;
+            });
+            measure("Hack.assemble", instructions, () -> {
+                new Hack().assemble(inputFile, outputFile);
+                return new File(outputFile).length();
+            });
+            measure("Hack.assembleSinglePass", instructions, () -> {
+                new Hack().assembleSinglePass(inputFile, outputFile);
+                return new File(outputFile).length();
+            });
+            measure("Hack.assembleParallel", instructions, () -> {
+                new Hack().assembleParallel(inputFile, outputFile);
+                return new File(outputFile).length();
+            });
+            measure("Hack.assemble (メモリ)", instructions, () -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new Hack().assemble(source, out);
+                return out.size();
+            });
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * ウォームアップの後に計測し、1行にまとめて表示する
+     * 割り当てバイト数は計測スレッドの分だけを数えます (並列モードのワーカースレッドの分は含まない)。
+     * @param name 計測対象の名前
+     * @param operations 1回の処理で扱う命令 (または要素) の数
+     */
+    private void measure(String name, int operations, Operation operation) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            checksum += operation.run();
+        }
+        long[] times = new long[iterations];
+        long allocated = 0;
+        long gcCount = gcCount();
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += operation.run();
+            times[i] = System.nanoTime() - start;
+            allocated += allocatedBytes() - allocatedBefore;
+        }
+        gcCount = gcCount() - gcCount;
+
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-24s %14.0f %14d %10.3f %10.3f %10.3f %10.3f %8d%n",
+                name,
+                operations * 1e9 * iterations / total,
+                allocated / iterations,
+                percentile(times, 50), percentile(times, 90), percentile(times, 99), times[times.length - 1] / 1e6,
+                gcCount);
+    }
+
+    /**
+     * パーセンタイル (最近傍法) をミリ秒で返す
+     */
+    private static double percentile(long[] sortedTimes, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sortedTimes.length) - 1;
+        return sortedTimes[Math.max(0, index)] / 1e6;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * 割り当てバイト数を取得できるJVMならそのMXBeanを返す (取得できなければ null)
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(String symbol) {
+        return !symbol.isEmpty() && Character.isDigit(symbol.charAt(0));
+    }
+}
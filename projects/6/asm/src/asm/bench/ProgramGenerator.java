@@ -0,0 +1,106 @@
+package asm.bench;
+
+/**
+ * ProgramGenerator.java - ベンチマーク用のHackアセンブリプログラム生成
+ *
+ * 命令数とラベル密度を指定して、VMトランスレータの出力に近いプログラムを作ります。
+ * ラベル名は "Class.function$ret.N" 形式、変数は "Class.N" 形式で、
+ * A命令の参照先は前方/後方のラベル、変数、定数、事前定義シンボルを混ぜます。
+ * 同じ引数からは常に同じプログラムを生成します。
+ */
+public class ProgramGenerator {
+    // C命令のcomp/dest/jumpの候補 (VMトランスレータがよく出力するもの)
+    private static final String[] COMPS = {"D", "A", "M", "M+D", "D+M", "M-D", "D-M", "M-1", "M+1", "D&M", "D|M", "-M", "!M", "0", "-1"};
+    private static final String[] DESTS = {"D", "M", "A", "AM", "MD"};
+    private static final String[] JUMPS = {"JEQ", "JGT", "JLT", "JNE", "JMP"};
+    private static final String[] PREDEFINED = {"SP", "LCL", "ARG", "THIS", "THAT", "R13", "R14", "R15"};
+
+    private final int instructions;
+    private final double labelDensity;
+    private final int variables;
+    private long seed;
+
+    /**
+     * @param instructions 命令数 (ラベル定義を含まない)
+     * @param labelDensity 命令1つあたりのラベル定義の数 (0以上1以下)
+     * @param variables 変数の種類の数
+     * @param seed 乱数の種
+     */
+    public ProgramGenerator(int instructions, double labelDensity, int variables, long seed) {
+        if (labelDensity < 0 || labelDensity > 1) {
+            throw new IllegalArgumentException("ラベル密度は0以上1以下で指定してください: " + labelDensity);
+        }
+        this.instructions = instructions;
+        this.labelDensity = labelDensity;
+        this.variables = Math.max(1, variables);
+        this.seed = seed;
+    }
+
+    /**
+     * プログラムを生成する
+     * @return Hackアセンブリのソース
+     */
+    public String generate() {
+        int labelCount = Math.max(1, (int) (instructions * labelDensity));
+        StringBuilder source = new StringBuilder(instructions * 12);
+        source.append("// ").append(instructions).append(" instructions, ")
+              .append(labelCount).append(" labels\n");
+        int labelsWritten = 0;
+        for (int i = 0; i < instructions; i++) {
+            // ラベルは命令列に均等に配置する
+            while (labelsWritten < labelCount && (long) labelsWritten * instructions <= (long) i * labelCount) {
+                source.append('(').append(label(labelsWritten)).append(")\n");
+                labelsWritten++;
+            }
+            if (i % 2 == 0) {
+                appendAInstruction(source, labelCount);
+            } else {
+                appendCInstruction(source);
+            }
+        }
+        while (labelsWritten < labelCount) {
+            source.append('(').append(label(labelsWritten++)).append(")\n");
+        }
+        return source.toString();
+    }
+
+    private void appendAInstruction(StringBuilder source, int labelCount) {
+        int kind = next(10);
+        source.append('@');
+        if (kind < 4) {
+            source.append(label(next(labelCount)));
+        } else if (kind < 6) {
+            source.append("Class").append(next(variables) % 50).append('.').append(next(variables));
+        } else if (kind < 8) {
+            source.append(next(32768));
+        } else {
+            source.append(PREDEFINED[next(PREDEFINED.length)]);
+        }
+        source.append('\n');
+    }
+
+    private void appendCInstruction(StringBuilder source) {
+        int kind = next(10);
+        if (kind < 7) {
+            source.append(DESTS[next(DESTS.length)]).append('=').append(COMPS[next(COMPS.length)]);
+        } else {
+            source.append(kind == 9 ? "0" : "D").append(';').append(JUMPS[next(JUMPS.length)]);
+        }
+        if (kind == 0) {
+            source.append(" // comment");
+        }
+        source.append('\n');
+    }
+
+    private static String label(int index) {
+        return "Class" + (index % 50) + ".function" + (index % 300) + "$ret." + index;
+    }
+
+    /**
+     * 0以上 bound 未満の擬似乱数 (線形合同法)
+     */
+    private int next(int bound) {
+        seed = seed * 6364136223846793005L + 1442695040888963407L;
+        return (int) ((seed >>> 33) % bound);
+    }
+}
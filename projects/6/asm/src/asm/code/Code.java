@@ -11,90 +11,181 @@ public class Code {
      * @return 3ビットのバイナリコード (d1d2d3)
      */
     public String dest(String mnemonic) {
+        return toBinary(destBits(mnemonic), 3);
+    }
+    
+    /**
+     * compニーモニックをバイナリコードに変換
+     * @param mnemonic compニーモニック (例: "0", "1", "-1", "D", "A", "M", "!D", "!A", ...)
+     * @return 7ビットのバイナリコード (a c1c2c3c4c5c6)
+     */
+    public String comp(String mnemonic) {
+        return toBinary(compBits(mnemonic), 7);
+    }
+    
+    /**
+     * jumpニーモニックをバイナリコードに変換
+     * @param mnemonic jumpニーモニック (例: "JGT", "JEQ", "JGE", "JLT", ...)
+     * @return 3ビットのバイナリコード (j1j2j3)
+     */
+    public String jump(String mnemonic) {
+        return toBinary(jumpBits(mnemonic), 3);
+    }
+    
+    /**
+     * destニーモニックをビット値に変換
+     * @param mnemonic destニーモニック
+     * @return 3ビットの値 (d1d2d3)
+     */
+    public int destBits(String mnemonic) {
         if (mnemonic == null || mnemonic.isEmpty()) {
-            return "000"; // 宛先なし
+            return 0b000; // 宛先なし
         }
         
+        int bits = 0;
         // d1 (Aレジスタに書き込み)
-        boolean writeA = mnemonic.contains("A");
+        if (mnemonic.indexOf('A') != -1) bits |= 0b100;
         // d2 (Dレジスタに書き込み)
-        boolean writeD = mnemonic.contains("D");
+        if (mnemonic.indexOf('D') != -1) bits |= 0b010;
         // d3 (メモリに書き込み)
-        boolean writeM = mnemonic.contains("M");
-        
-        return (writeA ? "1" : "0") + 
-               (writeD ? "1" : "0") + 
-               (writeM ? "1" : "0");
+        if (mnemonic.indexOf('M') != -1) bits |= 0b001;
+        return bits;
     }
     
     /**
-     * compニーモニックをバイナリコードに変換
-     * @param mnemonic compニーモニック (例: "0", "1", "-1", "D", "A", "M", "!D", "!A", ...)
-     * @return 7ビットのバイナリコード (a c1c2c3c4c5c6)
+     * compニーモニックをビット値に変換
+     * 標準の表記に加えて、交換則で同じ計算になる表記 (M+D、A&D など) も同じビット値として受け付けます。
+     * @param mnemonic compニーモニック
+     * @return 7ビットの値 (a c1c2c3c4c5c6)
      */
-    public String comp(String mnemonic) {
+    public int compBits(String mnemonic) {
         if (mnemonic == null || mnemonic.isEmpty()) {
             throw new IllegalArgumentException("comp部分は必須です");
         }
         
-        // a=0のケース (Aレジスタ使用)
         switch (mnemonic) {
-            case "0":   return "0101010";
-            case "1":   return "0111111";
-            case "-1":  return "0111010";
-            case "D":   return "0001100";
-            case "A":   return "0110000";
-            case "!D":  return "0001101";
-            case "!A":  return "0110001";
-            case "-D":  return "0001111";
-            case "-A":  return "0110011";
-            case "D+1": return "0011111";
-            case "A+1": return "0110111";
-            case "D-1": return "0001110";
-            case "A-1": return "0110010";
-            case "D+A": return "0000010";
-            case "D-A": return "0010011";
-            case "A-D": return "0000111";
-            case "D&A": return "0000000";
-            case "D|A": return "0010101";
-        }
-        
-        // a=1のケース (Mを使用)
-        switch (mnemonic) {
-            case "M":   return "1110000";
-            case "!M":  return "1110001";
-            case "-M":  return "1110011";
-            case "M+1": return "1110111";
-            case "M-1": return "1110010";
-            case "D+M": return "1000010";
-            case "D-M": return "1010011";
-            case "M-D": return "1000111";
-            case "D&M": return "1000000";
-            case "D|M": return "1010101";
+            // a=0のケース (Aレジスタ使用)
+            case "0":   return 0b0101010;
+            case "1":   return 0b0111111;
+            case "-1":  return 0b0111010;
+            case "D":   return 0b0001100;
+            case "A":   return 0b0110000;
+            case "!D":  return 0b0001101;
+            case "!A":  return 0b0110001;
+            case "-D":  return 0b0001111;
+            case "-A":  return 0b0110011;
+            case "D+1": return 0b0011111;
+            case "A+1": return 0b0110111;
+            case "D-1": return 0b0001110;
+            case "A-1": return 0b0110010;
+            case "D+A": return 0b0000010;
+            case "D-A": return 0b0010011;
+            case "A-D": return 0b0000111;
+            case "D&A": return 0b0000000;
+            case "D|A": return 0b0010101;
+            // a=1のケース (Mを使用)
+            case "M":   return 0b1110000;
+            case "!M":  return 0b1110001;
+            case "-M":  return 0b1110011;
+            case "M+1": return 0b1110111;
+            case "M-1": return 0b1110010;
+            case "D+M": return 0b1000010;
+            case "D-M": return 0b1010011;
+            case "M-D": return 0b1000111;
+            case "D&M": return 0b1000000;
+            case "D|M": return 0b1010101;
+            // 交換則で同じ計算になる表記 (VMトランスレータが出力する M+D などを受け付ける)
+            case "A+D": return 0b0000010;
+            case "A&D": return 0b0000000;
+            case "A|D": return 0b0010101;
+            case "M+D": return 0b1000010;
+            case "M&D": return 0b1000000;
+            case "M|D": return 0b1010101;
         }
         
         throw new IllegalArgumentException("不正なcomp命令: " + mnemonic);
     }
     
     /**
-     * jumpニーモニックをバイナリコードに変換
-     * @param mnemonic jumpニーモニック (例: "JGT", "JEQ", "JGE", "JLT", ...)
-     * @return 3ビットのバイナリコード (j1j2j3)
+     * jumpニーモニックをビット値に変換
+     * @param mnemonic jumpニーモニック
+     * @return 3ビットの値 (j1j2j3)
      */
-    public String jump(String mnemonic) {
+    public int jumpBits(String mnemonic) {
         if (mnemonic == null || mnemonic.isEmpty()) {
-            return "000"; // ジャンプなし
+            return 0b000; // ジャンプなし
         }
         
         switch (mnemonic) {
-            case "JGT": return "001"; // 正の場合ジャンプ
-            case "JEQ": return "010"; // ゼロの場合ジャンプ
-            case "JGE": return "011"; // 正またはゼロの場合ジャンプ
-            case "JLT": return "100"; // 負の場合ジャンプ
-            case "JNE": return "101"; // 非ゼロの場合ジャンプ
-            case "JLE": return "110"; // 負またはゼロの場合ジャンプ
-            case "JMP": return "111"; // 無条件ジャンプ
-            default:    return "000"; // ジャンプなし
+            case "JGT": return 0b001; // 正の場合ジャンプ
+            case "JEQ": return 0b010; // ゼロの場合ジャンプ
+            case "JGE": return 0b011; // 正またはゼロの場合ジャンプ
+            case "JLT": return 0b100; // 負の場合ジャンプ
+            case "JNE": return 0b101; // 非ゼロの場合ジャンプ
+            case "JLE": return 0b110; // 負またはゼロの場合ジャンプ
+            case "JMP": return 0b111; // 無条件ジャンプ
+            default:    return 0b000; // ジャンプなし
+        }
+    }
+    
+    /**
+     * C命令の16ビット語を組み立てる
+     * 1 1 1 a c1c2c3c4c5c6 d1d2d3 j1j2j3
+     * @param comp compのビット値 (7ビット)
+     * @param dest destのビット値 (3ビット)
+     * @param jump jumpのビット値 (3ビット)
+     * @return 16ビットの命令語
+     */
+    public static int cInstruction(int comp, int dest, int jump) {
+        return 0b111 << 13 | comp << 6 | dest << 3 | jump;
+    }
+    
+    // ビット値からニーモニックへの逆引き表 (交換則で同じになる表記は先に挙げた方を使う)
+    private static final String[] COMP_MNEMONICS = new String[128];
+    private static final String[] DEST_MNEMONICS = {"", "M", "D", "MD", "A", "AM", "AD", "AMD"};
+    private static final String[] JUMP_MNEMONICS = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+    static {
+        Code code = new Code();
+        for (String mnemonic : new String[] {
+                "0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1",
+                "D+A", "D-A", "A-D", "D&A", "D|A",
+                "M", "!M", "-M", "M+1", "M-1", "D+M", "D-M", "M-D", "D&M", "D|M"}) {
+            COMP_MNEMONICS[code.compBits(mnemonic)] = mnemonic;
+        }
+    }
+
+    /**
+     * compのビット値をニーモニックに変換する (compBits の逆)
+     * @param bits 7ビットの値 (a c1c2c3c4c5c6)
+     * @return ニーモニック (標準の表にないビット値は null)
+     */
+    public static String compMnemonic(int bits) {
+        return COMP_MNEMONICS[bits & 0x7f];
+    }
+
+    /**
+     * destのビット値をニーモニックに変換する (宛先なしは空文字列)
+     */
+    public static String destMnemonic(int bits) {
+        return DEST_MNEMONICS[bits & 0x7];
+    }
+
+    /**
+     * jumpのビット値をニーモニックに変換する (ジャンプなしは空文字列)
+     */
+    public static String jumpMnemonic(int bits) {
+        return JUMP_MNEMONICS[bits & 0x7];
+    }
+
+    /**
+     * ビット値を指定桁数の "0"/"1" 文字列に変換
+     */
+    private static String toBinary(int bits, int width) {
+        char[] chars = new char[width];
+        for (int i = 0; i < width; i++) {
+            chars[width - 1 - i] = (bits & (1 << i)) != 0 ? '1' : '0';
         }
+        return new String(chars);
     }
 }
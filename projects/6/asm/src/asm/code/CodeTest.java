@@ -16,6 +16,8 @@ public class CodeTest {
         testDest();
         testComp();
         testJump();
+        testBits();
+        testCommutedComp();
         
         // 結果概要
         System.out.println("\n===== テスト結果概要 =====");
@@ -123,6 +125,70 @@ public class CodeTest {
         testCase("jump(\"XXX\")", code.jump("XXX"), "000");
     }
     
+    /**
+     * ビット値APIと命令語の組み立てのテスト
+     */
+    private static void testBits() {
+        System.out.println("\n----- ビット値APIのテスト -----");
+        Code code = new Code();
+        
+        testCase("destBits(\"AMD\")", code.destBits("AMD"), 0b111);
+        testCase("destBits(null)", code.destBits(null), 0b000);
+        testCase("compBits(\"D+M\")", code.compBits("D+M"), 0b1000010);
+        testCase("compBits(\"0\")", code.compBits("0"), 0b0101010);
+        testCase("jumpBits(\"JLE\")", code.jumpBits("JLE"), 0b110);
+        testCase("jumpBits(\"\")", code.jumpBits(""), 0b000);
+        
+        // D;JEQ → 1110001100000010
+        testCase("cInstruction(D;JEQ)",
+                Code.cInstruction(code.compBits("D"), code.destBits(""), code.jumpBits("JEQ")),
+                0b1110001100000010);
+        // M=D+M → 1111000010001000
+        testCase("cInstruction(M=D+M)",
+                Code.cInstruction(code.compBits("D+M"), code.destBits("M"), code.jumpBits(null)),
+                0b1111000010001000);
+    }
+    
+    /**
+     * 交換した表記のcompのテスト - 交換則で同じ計算になる表記は標準の表記と同じビット値にする
+     * (VMトランスレータは M=M+D のように出力する)。交換則が成り立たない表記は受け付けない
+     */
+    private static void testCommutedComp() {
+        System.out.println("\n----- 交換した表記のcompのテスト -----");
+        Code code = new Code();
+        
+        String[][] commuted = {
+            {"A+D", "D+A"}, {"A&D", "D&A"}, {"A|D", "D|A"},
+            {"M+D", "D+M"}, {"M&D", "D&M"}, {"M|D", "D|M"},
+        };
+        for (String[] pair : commuted) {
+            testCase("comp(\"" + pair[0] + "\")", code.comp(pair[0]), code.comp(pair[1]));
+            testCase("compBits(\"" + pair[0] + "\")", code.compBits(pair[0]), code.compBits(pair[1]));
+            testCase("compMnemonic は標準の表記 (" + pair[0] + ")", Code.compMnemonic(code.compBits(pair[0])), pair[1]);
+        }
+        // M=M+D → 1111000010001000 (M=D+M と同じ)
+        testCase("cInstruction(M=M+D)",
+                Code.cInstruction(code.compBits("M+D"), code.destBits("M"), code.jumpBits(null)),
+                0b1111000010001000);
+        
+        // 引き算は交換できない (A-M、M-A は表にない)、A と M の組み合わせもない
+        for (String mnemonic : new String[] {"A-M", "M-A", "A+M", "M+A", "1+D", "1+M"}) {
+            try {
+                code.compBits(mnemonic);
+                testCase("compBits(\"" + mnemonic + "\") 例外検出", "例外なし", "例外発生");
+            } catch (IllegalArgumentException e) {
+                testCase("compBits(\"" + mnemonic + "\") 例外検出", "例外発生", "例外発生");
+            }
+        }
+    }
+    
+    /**
+     * テストケース実行 (ビット値)
+     */
+    private static void testCase(String testName, int actual, int expected) {
+        testCase(testName, Integer.toBinaryString(actual), Integer.toBinaryString(expected));
+    }
+    
     /**
      * テストケース実行
      */
@@ -0,0 +1,192 @@
+package asm.hack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BatchAssembler.java - 複数ファイルの一括アセンブル
+ *
+ * 多数の .asm ファイルを1つのJVMでまとめてアセンブルします。
+ * ファイルごとに新しい Hack (シンボルテーブルは事前定義シンボルの共有の表に重ねたもの) を作るので、
+ * タスク間で状態を共有せず、作成の費用もほとんどかかりません。
+ * 同時に処理する (開いている) ファイルの数はスレッドプールの大きさで制限します。
+ * 1つのファイルの失敗は他のファイルに影響せず、ファイルごとの結果として報告します。
+ */
+public class BatchAssembler {
+    /**
+     * 1つのファイルのアセンブル方法 (Hack のどのメソッドを使うか)
+     */
+    public interface Mode {
+        void assemble(Hack assembler, String inputFile, String outputFile) throws IOException;
+    }
+
+    /**
+     * 1つのファイルの結果
+     */
+    public static class Result {
+        private final String inputFile;
+        private final String outputFile;
+        private final long elapsedNanos;
+        private final Exception error;
+
+        Result(String inputFile, String outputFile, long elapsedNanos, Exception error) {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.elapsedNanos = elapsedNanos;
+            this.error = error;
+        }
+
+        public String getInputFile() {
+            return inputFile;
+        }
+
+        public String getOutputFile() {
+            return outputFile;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * 失敗した場合の例外 (成功した場合は null)
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            if (isSuccess()) {
+                return String.format("成功: %s -> %s (%.1f ms)", inputFile, outputFile, elapsedNanos / 1e6);
+            }
+            return "失敗: " + inputFile + " - " + error;
+        }
+    }
+
+    private final int maxOpenFiles;
+    private Mode mode = (assembler, inputFile, outputFile) -> assembler.assemble(inputFile, outputFile);
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+    private String outputExtension = ".hack";
+
+    /**
+     * @param maxOpenFiles 同時にアセンブルするファイルの最大数
+     */
+    public BatchAssembler(int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("同時に処理するファイル数は1以上で指定してください: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * アセンブル方法を設定 (既定は二パス方式の assemble)
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * バイナリ形式で出力する場合のバイト順を設定
+     */
+    public void setByteOrder(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * 出力ファイルの拡張子を設定 (既定は .hack、.bin/.rom ならバイナリ形式)
+     */
+    public void setOutputExtension(String outputExtension) {
+        this.outputExtension = outputExtension;
+    }
+
+    /**
+     * ファイルをまとめてアセンブルする
+     * 出力ファイルは入力ファイルと同じディレクトリに、拡張子を置き換えて作成します。
+     * @param paths .asm ファイル、または .asm ファイルを含むディレクトリ
+     * @return ファイルごとの結果 (入力の順)
+     */
+    public List<Result> assemble(List<String> paths) throws IOException {
+        List<String> inputFiles = collect(paths);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxOpenFiles, Math.max(1, inputFiles.size())));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String inputFile : inputFiles) {
+                futures.add(executor.submit(() -> assembleFile(inputFile)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // assembleFile は例外を Result にまとめるので、ここには来ない
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("一括アセンブルが中断されました", e);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 1つのファイルをアセンブルする (タスクごとに新しい Hack を使う)
+     */
+    private Result assembleFile(String inputFile) {
+        String outputFile = outputFile(inputFile);
+        long start = System.nanoTime();
+        try {
+            Hack assembler = new Hack();
+            assembler.setByteOrder(byteOrder);
+            mode.assemble(assembler, inputFile, outputFile);
+            return new Result(inputFile, outputFile, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(inputFile, outputFile, System.nanoTime() - start, e);
+        }
+    }
+
+    private String outputFile(String inputFile) {
+        int dot = inputFile.lastIndexOf('.');
+        int separator = inputFile.lastIndexOf(File.separatorChar);
+        String base = dot > separator ? inputFile.substring(0, dot) : inputFile;
+        return base + outputExtension;
+    }
+
+    /**
+     * ディレクトリを展開して入力ファイルの一覧を作る (ディレクトリ内は名前順)
+     */
+    static List<String> collect(List<String> paths) throws IOException {
+        List<String> inputFiles = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> name.endsWith(".asm"));
+                if (children == null) {
+                    throw new IOException("ディレクトリを読み込めません: " + path);
+                }
+                Arrays.sort(children);
+                for (File child : children) {
+                    inputFiles.add(child.getPath());
+                }
+            } else {
+                inputFiles.add(path);
+            }
+        }
+        return inputFiles;
+    }
+}
@@ -0,0 +1,76 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * BinaryWriter.java - バイナリ形式 (.bin/.rom) の出力クラス
+ * 命令語を16ビットのまま (ビッグエンディアンまたはリトルエンディアン) 書き出します。
+ * テキスト形式の1語17バイトに対して1語2バイトになります。
+ */
+public class BinaryWriter implements WordWriter {
+    // 書き出し単位
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    // close時にチャネルも閉じるかどうか (呼び出し元から渡されたチャネルは閉じない)
+    private final boolean ownsChannel;
+    private final ByteBuffer buffer;
+
+    public BinaryWriter(String filename, ByteOrder order) throws IOException {
+        channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ownsChannel = true;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE).order(order);
+    }
+
+    /**
+     * 任意のチャネルに出力する (close ではチャネルを閉じずに書き出しのみ行う)
+     * @param channel 出力先のチャネル
+     * @param order バイト順
+     */
+    public BinaryWriter(WritableByteChannel channel, ByteOrder order) {
+        this.channel = channel;
+        ownsChannel = false;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE).order(order);
+    }
+
+    /**
+     * 1語を出力する (下位16ビットのみ)
+     * @param word 命令語
+     */
+    @Override
+    public void write(int word) throws IOException {
+        if (buffer.remaining() < 2) {
+            flush();
+        }
+        buffer.putShort((short) word);
+    }
+
+    /**
+     * バッファの内容をファイルに書き出す
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 出力ファイルを閉じる
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package asm.hack;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+import asm.ir.Program;
+
+/**
+ * DeadCodeEliminator.java - プログラム全体の到達不能コードの除去
+ *
+ * 結合した命令語をラベルの定義位置で領域に区切り、アドレス0を含む領域から次の順にたどります。
+ * - 領域内のA命令が参照するラベル (ジャンプ先に限らず、D=A などでデータとして読み込むものも含む) の領域
+ * - 領域の最後の命令が無条件ジャンプでなければ、直後の領域 (落ち込み)
+ * たどれなかった領域を取り除き、残った命令のラベル参照を新しいアドレスに付け替えます。
+ * call が積む戻りアドレスのようにデータとして読み込まれるラベルも、読み込む命令が残る限り保持されるので、
+ * 間接ジャンプの飛び先が消えることはありません。
+ *
+ * ラベル参照かどうかは再配置情報で判定するので、数値で書いたA命令はアドレスとして扱いません。
+ * 残る領域に数値のアドレス (0以外) へのジャンプがある場合は、アドレスをずらせないので何も除去しません。
+ */
+public final class DeadCodeEliminator {
+    // 無条件ジャンプの判定に使う命令のビット
+    private static final int C_INSTRUCTION = 0xe000;
+    private static final int COMP_MASK = 0x1fc0;
+    private static final int COMP_ZERO = 0x0a80;
+    private static final int JUMP_MASK = 0x0007;
+    private static final int JMP = 0x0007;
+    private static final int JEQ = 0x0002;
+
+    private final int[] words;
+    private final BitSet labelReferences;
+    private final BitSet regionStarts;
+
+    // 結果
+    private int[] addressMap;
+    private int removedRegions;
+    private boolean literalJump;
+
+    /**
+     * @param words 結合した命令語 (ROMアドレス順)
+     * @param labelReferences ラベルを参照するA命令の位置
+     * @param regionStarts ラベルの定義位置 (命令数と同じ位置を含んでもよい)
+     */
+    public DeadCodeEliminator(int[] words, BitSet labelReferences, BitSet regionStarts) {
+        this.words = words;
+        this.labelReferences = labelReferences;
+        this.regionStarts = regionStarts;
+    }
+
+    /**
+     * 中間表現のプログラムとそれをアセンブルした命令語から作る
+     * ラベルとして定義されたシンボルを参照するA命令をラベル参照、ラベルの定義位置を領域の先頭とします。
+     * @param program 中間表現のプログラム
+     * @param words program を Hack.assemble(Program) でアセンブルした命令語
+     */
+    public static DeadCodeEliminator forProgram(Program program, int[] words) {
+        int size = program.size();
+        boolean[] isLabel = new boolean[program.getSymbolCount()];
+        for (int i = 0; i < size; i++) {
+            if (program.getType(i) == Program.LABEL) {
+                isLabel[program.getValue(i)] = true;
+            }
+        }
+
+        BitSet labelReferences = new BitSet(words.length);
+        BitSet regionStarts = new BitSet(words.length + 1);
+        int romAddress = 0;
+        for (int i = 0; i < size; i++) {
+            byte type = program.getType(i);
+            if (type == Program.LABEL) {
+                regionStarts.set(romAddress);
+                continue;
+            }
+            if (type == Program.A_SYMBOL && isLabel[program.getValue(i)]) {
+                labelReferences.set(romAddress);
+            }
+            romAddress++;
+        }
+        return new DeadCodeEliminator(words, labelReferences, regionStarts);
+    }
+
+    /**
+     * 到達不能な領域を取り除く
+     * @return 残った命令語 (ラベル参照は新しいアドレスに付け替え済み)
+     */
+    public int[] eliminate() {
+        int n = words.length;
+        BitSet live = reachable();
+        addressMap = new int[n + 1];
+        if (literalJump) {
+            for (int i = 0; i <= n; i++) {
+                addressMap[i] = i;
+            }
+            removedRegions = 0;
+            return words.clone();
+        }
+
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            addressMap[i] = live.get(i) ? count++ : -1;
+        }
+        addressMap[n] = count;
+        int[] result = new int[count];
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            result[addressMap[i]] = labelReferences.get(i) ? addressMap[words[i]] : words[i];
+        }
+        return result;
+    }
+
+    /**
+     * アドレス0から到達できる命令の集合を求める
+     */
+    private BitSet reachable() {
+        int n = words.length;
+        BitSet live = new BitSet(n);
+        removedRegions = 0;
+        literalJump = false;
+        if (n == 0) {
+            return live;
+        }
+
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(0);
+        live.set(0, regionEnd(0));
+        while (!pending.isEmpty()) {
+            int start = pending.pop();
+            int end = regionEnd(start);
+            for (int i = start; i < end; i++) {
+                int target = -1;
+                if (labelReferences.get(i)) {
+                    target = words[i];
+                } else if (i + 1 < end && words[i] > 0 && words[i] < 0x8000 && isJump(words[i + 1])) {
+                    literalJump = true;
+                }
+                if (target >= 0 && target < n) {
+                    int region = regionStart(target);
+                    if (!live.get(region)) {
+                        live.set(region, regionEnd(region));
+                        pending.push(region);
+                    }
+                }
+            }
+            if (end < n && !isUnconditionalJump(words[end - 1]) && !live.get(end)) {
+                live.set(end, regionEnd(end));
+                pending.push(end);
+            }
+        }
+
+        for (int start = 0; start < n; start = regionEnd(start)) {
+            if (!live.get(start)) {
+                removedRegions++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * アドレスを含む領域の先頭
+     */
+    private int regionStart(int address) {
+        int start = regionStarts.previousSetBit(address);
+        return start < 0 ? 0 : start;
+    }
+
+    /**
+     * 領域の終わり (次のラベルの位置または命令数)
+     */
+    private int regionEnd(int start) {
+        int end = regionStarts.nextSetBit(start + 1);
+        return end < 0 || end > words.length ? words.length : end;
+    }
+
+    private static boolean isJump(int word) {
+        return (word & C_INSTRUCTION) == C_INSTRUCTION && (word & JUMP_MASK) != 0;
+    }
+
+    /**
+     * 0;JMP のように、常に分岐して次の命令に進まない命令か
+     */
+    private static boolean isUnconditionalJump(int word) {
+        if ((word & C_INSTRUCTION) != C_INSTRUCTION) {
+            return false;
+        }
+        int jump = word & JUMP_MASK;
+        return jump == JMP || ((word & COMP_MASK) == COMP_ZERO && (jump & JEQ) != 0);
+    }
+
+    /**
+     * 元のアドレスから新しいアドレスへの対応 (除去した命令は -1)
+     * 添字は命令数まで有効で、最後の要素は残った命令数です。
+     */
+    public int[] getAddressMap() {
+        return addressMap;
+    }
+
+    /**
+     * 除去した領域の数
+     */
+    public int getRemovedRegions() {
+        return removedRegions;
+    }
+
+    /**
+     * 数値のアドレスへのジャンプがあったため除去しなかったか
+     */
+    public boolean hasLiteralJump() {
+        return literalJump;
+    }
+
+    @Override
+    public String toString() {
+        int n = words.length;
+        int kept = addressMap == null ? n : addressMap[n];
+        return String.format("除去: %d 領域, %d -> %d 命令%s", removedRegions, n, kept,
+                literalJump ? " (数値のアドレスへのジャンプがあるため除去しない)" : "");
+    }
+}
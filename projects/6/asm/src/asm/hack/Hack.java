@@ -1,12 +1,29 @@
 package asm.hack;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
 
 // 必要なクラスのインポート
+import asm.parser.Lexer;
 import asm.parser.Parser;
 import asm.code.Code;
+import asm.ir.Program;
 import asm.symbol.SymbolTable;
 
 /**
@@ -16,8 +33,8 @@ import asm.symbol.SymbolTable;
 public class Hack {
     // シンボルテーブル
     private SymbolTable symbolTable;
-    // 次に割り当てられる変数アドレス (R15の後から開始)
-    private int nextVariableAddress = 16;
+    // バイナリ形式 (.bin/.rom) で出力する場合のバイト順
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 
     /**
      * コンストラクタ - 初期設定
@@ -27,10 +44,29 @@ public class Hack {
         symbolTable = new SymbolTable();
     }
 
+    /**
+     * バイナリ形式で出力する場合のバイト順を設定
+     * @param byteOrder バイト順 (既定はビッグエンディアン)
+     */
+    public void setByteOrder(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * 出力ファイルの拡張子に応じた出力先を開く
+     * .bin/.rom はバイナリ形式、それ以外はテキスト形式 (.hack)
+     */
+    private WordWriter openWriter(String outputFile) throws IOException {
+        if (RomReader.isBinary(outputFile)) {
+            return new BinaryWriter(outputFile, byteOrder);
+        }
+        return new HackWriter(outputFile);
+    }
+
     /**
      * アセンブルプロセスを実行
      * @param inputFile 入力Hackアセンブリファイル
-     * @param outputFile 出力バイナリファイル
+     * @param outputFile 出力ファイル (.hack はテキスト形式、.bin/.rom はバイナリ形式)
      */
     public void assemble(String inputFile, String outputFile) throws IOException {
         // 最初のパス - シンボルテーブルを構築 (ラベルのみ)
@@ -48,7 +84,7 @@ public class Hack {
         int romAddress = 0;
 
         while (parser.hasMoreCommands()) {
-            if (parser.instructionType().equals("L_COMMAND")) {
+            if (parser.commandType() == Parser.L_COMMAND) {
                 // ラベルをシンボルテーブルに追加
                 symbolTable.addEntry(parser.symbol(), romAddress);
             } else {
@@ -65,12 +101,11 @@ public class Hack {
     private void assembleCode(String inputFile, String outputFile) throws IOException {
         Parser parser = new Parser(inputFile);
         Code code = new Code();
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+        WordWriter writer = openWriter(outputFile);
 
         while (parser.hasMoreCommands()) {
-            String instruction = "";
-            
-            if (parser.instructionType().equals("A_COMMAND")) {
+            int type = parser.commandType();
+            if (type == Parser.A_COMMAND) {
                 // A命令処理
                 String symbol = parser.symbol();
                 int address;
@@ -79,52 +114,467 @@ public class Hack {
                     // 数値の場合
                     address = Integer.parseInt(symbol);
                 } catch (NumberFormatException e) {
-                    // シンボルの場合
-                    if (!symbolTable.contains(symbol)) {
-                        // 新しい変数としてシンボルテーブルに追加
-                        symbolTable.addEntry(symbol, nextVariableAddress);
-                        nextVariableAddress++;
-                    }
-                    address = symbolTable.getAddress(symbol);
+                    // シンボルの場合 (未登録なら新しい変数としてアドレスを割り当てる)
+                    address = symbolTable.getOrAssign(symbol);
                 }
                 
-                // 16ビットバイナリに変換
-                instruction = String.format("%16s", Integer.toBinaryString(address)).replace(' ', '0');
-            } else if (parser.instructionType().equals("C_COMMAND")) {
+                writer.write(address);
+            } else if (type == Parser.C_COMMAND) {
                 // C命令処理
-                // 1 + 1 1 1 + a c1c2c3c4c5c6 + d1d2d3 + j1j2j3
-                String dest = code.dest(parser.dest());
-                String comp = code.comp(parser.comp());
-                String jump = code.jump(parser.jump());
+                // 1 1 1 a c1c2c3c4c5c6 d1d2d3 j1j2j3
+                int comp = code.compBits(parser.comp());
+                int dest = code.destBits(parser.dest());
+                int jump = code.jumpBits(parser.jump());
                 
-                instruction = "111" + comp + dest + jump;
+                writer.write(Code.cInstruction(comp, dest, jump));
             }
             // L_COMMANDの場合は出力しない
             
-            if (!instruction.isEmpty()) {
-                writer.write(instruction);
-                writer.newLine();
-            }
-            
             parser.advance();
         }
         
         writer.close();
     }
 
+    /**
+     * シングルパスでアセンブルプロセスを実行
+     * ソースをメモリマップした Lexer で一度だけ走査し、命令をメモリ上の配列に保持します。
+     * シンボル参照は記録しておき、最後のラベルを読み終えた後にまとめて埋め戻します。
+     * 出力は assemble と同一になります。
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param outputFile 出力バイナリファイル
+     */
+    public void assembleSinglePass(String inputFile, String outputFile) throws IOException {
+        Lexer lexer = new Lexer(inputFile);
+        int[] words;
+        try {
+            words = encode(lexer);
+        } finally {
+            lexer.close();
+        }
+
+        WordWriter writer = openWriter(outputFile);
+        writer.write(words, words.length);
+        writer.close();
+    }
+
+    /**
+     * 字句解析器から読み込んだプログラムを命令語の配列にする (シングルパス)
+     * @param lexer 字句解析器
+     * @return 命令語の配列 (ROMアドレス順)
+     */
+    private int[] encode(Lexer lexer) {
+        Code code = new Code();
+
+        // 命令語の配列 (未解決のA命令は後で埋め戻す)
+        int[] words = new int[1024];
+        int romAddress = 0;
+        // 未解決シンボルの参照 (命令の位置とシンボル名)
+        int[] pendingIndexes = new int[256];
+        List<String> pendingSymbols = new ArrayList<>();
+
+        while (lexer.hasMoreCommands()) {
+            int type = lexer.instructionType();
+
+            if (type == Lexer.L_COMMAND) {
+                // ラベルは現在のROMアドレスを指す
+                symbolTable.addEntry(lexer.symbol(), romAddress);
+            } else {
+                if (romAddress == words.length) {
+                    words = Arrays.copyOf(words, romAddress * 2);
+                }
+
+                if (type == Lexer.A_COMMAND) {
+                    if (lexer.isNumber()) {
+                        words[romAddress] = lexer.number();
+                    } else {
+                        // シンボルは後で解決する
+                        // (同名ラベルが複数ある場合も二パス方式と同じく最後の定義を使うため、後方参照も保留する)
+                        if (pendingSymbols.size() == pendingIndexes.length) {
+                            pendingIndexes = Arrays.copyOf(pendingIndexes, pendingIndexes.length * 2);
+                        }
+                        pendingIndexes[pendingSymbols.size()] = romAddress;
+                        pendingSymbols.add(lexer.symbol());
+                    }
+                } else {
+                    words[romAddress] = Code.cInstruction(
+                            code.compBits(lexer.comp()), code.destBits(lexer.dest()), code.jumpBits(lexer.jump()));
+                }
+                romAddress++;
+            }
+            lexer.advance();
+        }
+
+        // 埋め戻し - この時点で全てのラベルが確定している
+        // 残ったシンボルは出現順に変数として割り当てる (二パス方式と同じ順序)
+        for (int i = 0; i < pendingSymbols.size(); i++) {
+            words[pendingIndexes[i]] = symbolTable.getOrAssign(pendingSymbols.get(i));
+        }
+        return Arrays.copyOf(words, romAddress);
+    }
+
+    // ----- 中間表現のアセンブル (テキストの .asm を経由しない) -----
+
+    /**
+     * 中間表現のプログラムを命令語の配列にする
+     * 字句解析もニーモニックの変換も行わず、ラベルの位置を決めてからシンボル参照を解決するだけです。
+     * シンボルは番号ごとに一度だけ引き、変数は出現順に割り当てるので、出力は .asm を書き出して
+     * assemble した場合と同一になります。
+     * @param program 中間表現のプログラム
+     * @return 命令語の配列 (ROMアドレス順)
+     */
+    public int[] assemble(Program program) {
+        int size = program.size();
+
+        // 第1パス: ラベルのアドレスを決める (同名のラベルは最後の定義を使う)
+        int romAddress = 0;
+        for (int i = 0; i < size; i++) {
+            if (program.getType(i) == Program.LABEL) {
+                symbolTable.addEntry(program.getSymbol(i), romAddress);
+            } else {
+                romAddress++;
+            }
+        }
+
+        // 第2パス: 命令語を並べる (解決したシンボルのアドレスは番号ごとに保持する)
+        int[] words = new int[romAddress];
+        int[] resolved = new int[program.getSymbolCount()];
+        Arrays.fill(resolved, -1);
+        romAddress = 0;
+        for (int i = 0; i < size; i++) {
+            switch (program.getType(i)) {
+                case Program.LABEL:
+                    break;
+                case Program.A_SYMBOL:
+                    int symbol = program.getValue(i);
+                    if (resolved[symbol] < 0) {
+                        resolved[symbol] = symbolTable.getOrAssign(program.getSymbolName(symbol));
+                    }
+                    words[romAddress++] = resolved[symbol];
+                    break;
+                default:
+                    words[romAddress++] = program.getValue(i);
+                    break;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * 中間表現のプログラムをアセンブルし、ファイルに書き出す
+     * @param program 中間表現のプログラム
+     * @param outputFile 出力ファイル (.hack はテキスト形式、.bin/.rom はバイナリ形式)
+     */
+    public void assemble(Program program, String outputFile) throws IOException {
+        int[] words = assemble(program);
+        WordWriter writer = openWriter(outputFile);
+        writer.write(words, words.length);
+        writer.close();
+    }
+
+    // ----- メモリ上でのアセンブル (一時ファイルを使わない) -----
+
+    /**
+     * メモリ上のソースをアセンブルし、出力先に書き出す
+     * @param source アセンブリコード (ASCII、コメントはUTF-8でも可)
+     * @param writer 出力先 (閉じるのは呼び出し元)
+     */
+    public void assemble(ByteBuffer source, WordWriter writer) throws IOException {
+        int[] words = encode(new Lexer(source));
+        writer.write(words, words.length);
+    }
+
+    /**
+     * 文字列のソースをアセンブルし、テキスト形式 (.hack) で出力ストリームに書き出す
+     * @param source アセンブリコード
+     * @param out 出力先 (書き出し後も閉じない)
+     */
+    public void assemble(CharSequence source, OutputStream out) throws IOException {
+        assemble(toBytes(source), Channels.newChannel(out));
+    }
+
+    /**
+     * Readerのソースをアセンブルし、テキスト形式 (.hack) で出力ストリームに書き出す
+     * @param source アセンブリコード (書き出し後も閉じない)
+     * @param out 出力先 (書き出し後も閉じない)
+     */
+    public void assemble(Reader source, OutputStream out) throws IOException {
+        assemble(readAll(source), out);
+    }
+
+    /**
+     * チャネルのソースをアセンブルし、テキスト形式 (.hack) でチャネルに書き出す
+     * @param source アセンブリコード (終端まで読む、閉じない)
+     * @param out 出力先 (閉じない)
+     */
+    public void assemble(ReadableByteChannel source, WritableByteChannel out) throws IOException {
+        assemble(readAll(source), out);
+    }
+
+    private void assemble(ByteBuffer source, WritableByteChannel out) throws IOException {
+        HackWriter writer = new HackWriter(out);
+        assemble(source, writer);
+        writer.close();
+    }
+
+    /**
+     * 文字列のソースをアセンブルし、命令語を順に返す
+     * 前方参照を解決するため全体をアセンブルしてから返します。
+     * 返すSpliteratorは SIZED/SUBSIZED なので、StreamSupport.intStream(..., true) で並列にも処理できます。
+     * @param source アセンブリコード
+     * @return 命令語 (ROMアドレス順)
+     */
+    public Spliterator.OfInt words(CharSequence source) {
+        return Arrays.spliterator(encode(new Lexer(toBytes(source))));
+    }
+
+    /**
+     * チャネルのソースをアセンブルし、命令語を順に返す
+     * @param source アセンブリコード (終端まで読む、閉じない)
+     * @return 命令語 (ROMアドレス順)
+     */
+    public Spliterator.OfInt words(ReadableByteChannel source) throws IOException {
+        return Arrays.spliterator(encode(new Lexer(readAll(source))));
+    }
+
+    /**
+     * 文字列のソースをアセンブルし、命令語のイテレータを返す
+     * @param source アセンブリコード
+     * @return 命令語 (ROMアドレス順)
+     */
+    public PrimitiveIterator.OfInt wordIterator(CharSequence source) {
+        return Spliterators.iterator(words(source));
+    }
+
+    private static ByteBuffer toBytes(CharSequence source) {
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(source));
+    }
+
+    private static CharSequence readAll(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] chars = new char[8192];
+        int n;
+        while ((n = reader.read(chars)) != -1) {
+            builder.append(chars, 0, n);
+        }
+        return builder;
+    }
+
+    private static ByteBuffer readAll(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 分割並列モードでアセンブルプロセスを実行 (共通のForkJoinPoolを使用)
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param outputFile 出力ファイル
+     */
+    public void assembleParallel(String inputFile, String outputFile) throws IOException {
+        assembleParallel(inputFile, outputFile, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 分割並列モードでアセンブルプロセスを実行
+     * ソースを行境界のチャンクに分けて並列に字句解析・符号化します。
+     * 変数は逐次のアセンブルと同じく初出順に16から割り当てるため、出力は assemble と同一になります。
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param outputFile 出力ファイル
+     * @param pool 使用するForkJoinPool
+     */
+    public void assembleParallel(String inputFile, String outputFile, ForkJoinPool pool) throws IOException {
+        WordWriter writer = openWriter(outputFile);
+        try {
+            SymbolTable resolved = new ParallelAssembler(symbolTable, pool).assemble(inputFile, writer);
+            // 解決済みの表は凍結されるので、以後の変更用に重ねた表に置き換える
+            symbolTable = new SymbolTable(resolved);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 差分モードでアセンブルプロセスを実行
+     * 前回のキャッシュと内容が同じ領域は符号化をやり直さず、キャッシュの命令語をそのまま出力します。
+     * ラベルや変数のアドレスが前回から変わった場合は全体をアセンブルし直します。
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param outputFile 出力ファイル
+     * @param cacheFile キャッシュファイル (なければ作成し、アセンブル後に更新する)
+     * @return 符号化し直した領域の数
+     */
+    public int assembleIncremental(String inputFile, String outputFile, String cacheFile) throws IOException {
+        IncrementalAssembler incremental = new IncrementalAssembler();
+        WordWriter writer = openWriter(outputFile);
+        try {
+            symbolTable = incremental.assemble(inputFile, writer, cacheFile);
+        } finally {
+            writer.close();
+        }
+        return incremental.getReencodedRegions();
+    }
+
+    /**
+     * 使用法を表示する
+     */
+    private static void printUsage() {
+        System.err.println("使用法: java Hack [--single-pass | --parallel | --cache <キャッシュファイル> | --eliminate-dead-code] [--little-endian] [--source-map] <入力アセンブリファイル> <出力ファイル (.hack/.bin/.rom/.hobj)>");
+        System.err.println("        java Hack --batch [--jobs <同時処理数>] [--single-pass | --parallel] [--little-endian] <入力ファイルまたはディレクトリ>...");
+    }
+
+    /**
+     * --jobs の値を読む (整数でない場合は 0)
+     */
+    private static int parseJobs(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * メインメソッド
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("使用法: java Hack <入力アセンブリファイル> <出力バイナリファイル>");
+        // オプション
+        //   --single-pass   シングルパスモードを使用
+        //   --parallel      分割並列モードを使用
+        //   --little-endian バイナリ形式をリトルエンディアンで出力
+        //   --cache <file>  差分モードを使用 (キャッシュファイルを指定)
+        //   --source-map    ソースマップ (出力ファイル名 + ".map") も出力
+        //   --eliminate-dead-code アドレス0から到達できないコードを除去 (Linker を使う)
+        //   --batch         一括モード (残りの引数は全て入力ファイルまたはディレクトリ)
+        //   --jobs <n>      一括モードで同時に処理するファイル数 (既定はCPU数)
+        boolean singlePass = false;
+        boolean parallel = false;
+        boolean littleEndian = false;
+        String cacheFile = null;
+        boolean sourceMap = false;
+        boolean eliminateDeadCode = false;
+        boolean batch = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            if (args[argIndex].equals("--single-pass")) {
+                singlePass = true;
+            } else if (args[argIndex].equals("--parallel")) {
+                parallel = true;
+            } else if (args[argIndex].equals("--little-endian")) {
+                littleEndian = true;
+            } else if (args[argIndex].equals("--cache") && argIndex + 1 < args.length) {
+                cacheFile = args[++argIndex];
+            } else if (args[argIndex].equals("--source-map")) {
+                sourceMap = true;
+            } else if (args[argIndex].equals("--eliminate-dead-code")) {
+                eliminateDeadCode = true;
+            } else if (args[argIndex].equals("--batch")) {
+                batch = true;
+            } else if (args[argIndex].equals("--jobs")) {
+                jobs = argIndex + 1 < args.length ? parseJobs(args[++argIndex]) : 0;
+                if (jobs < 1) {
+                    System.err.println("エラー: --jobs には1以上の整数を指定してください");
+                    printUsage();
+                    System.exit(1);
+                }
+            } else {
+                break;
+            }
+            argIndex++;
+        }
+        if (batch && (cacheFile != null || sourceMap || eliminateDeadCode)) {
+            // 一括モードはファイルごとにこれらの出力や処理を行わないので、指定されても無視せずに拒否する
+            System.err.println("エラー: --batch では --cache、--source-map、--eliminate-dead-code は使えません");
+            printUsage();
+            System.exit(1);
+        }
+        if (batch && argIndex < args.length) {
+            BatchAssembler batchAssembler = new BatchAssembler(jobs);
+            if (singlePass) {
+                batchAssembler.setMode((assembler, in, out) -> assembler.assembleSinglePass(in, out));
+            } else if (parallel) {
+                batchAssembler.setMode((assembler, in, out) -> assembler.assembleParallel(in, out));
+            }
+            if (littleEndian) {
+                batchAssembler.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+            }
+            try {
+                int failures = 0;
+                for (BatchAssembler.Result result : batchAssembler.assemble(Arrays.asList(args).subList(argIndex, args.length))) {
+                    System.out.println(result);
+                    if (!result.isSuccess()) {
+                        failures++;
+                    }
+                }
+                if (failures > 0) {
+                    System.err.println("失敗したファイル: " + failures);
+                    System.exit(1);
+                }
+            } catch (IOException e) {
+                System.err.println("エラー: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (batch || args.length - argIndex != 2) {
+            printUsage();
+            System.exit(1);
+        }
+        String inputFile = args[argIndex];
+        String outputFile = args[argIndex + 1];
+        // アセンブル方法は1つだけ選べる。.hobj の出力はどの方法も使わないので、指定されても無視せずに拒否する
+        int modes = (singlePass ? 1 : 0) + (parallel ? 1 : 0) + (cacheFile != null ? 1 : 0) + (eliminateDeadCode ? 1 : 0);
+        if (modes > 1) {
+            System.err.println("エラー: --single-pass、--parallel、--cache、--eliminate-dead-code は同時に使えません");
+            printUsage();
+            System.exit(1);
+        }
+        if (modes > 0 && outputFile.endsWith(".hobj")) {
+            System.err.println("エラー: .hobj の出力では --single-pass、--parallel、--cache、--eliminate-dead-code は使えません");
+            printUsage();
             System.exit(1);
         }
         
         try {
             Hack assembler = new Hack();
-            assembler.assemble(args[0], args[1]);
-            System.out.println("アセンブル完了: " + args[1]);
+            if (littleEndian) {
+                assembler.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+            }
+            int[] addressMap = null;
+            if (outputFile.endsWith(".hobj")) {
+                // オブジェクトモジュール (Linker で結合する)
+                ObjectModule.assemble(inputFile).write(outputFile);
+            } else if (eliminateDeadCode) {
+                // 1つのモジュールとして結合し、到達できない領域を除去する
+                Linker linker = new Linker();
+                linker.setEliminateDeadCode(true);
+                linker.link(Collections.singletonList(ObjectModule.assemble(inputFile)), outputFile,
+                        littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                addressMap = linker.getEliminator().getAddressMap();
+                System.out.println(linker.getEliminator());
+            } else if (singlePass) {
+                assembler.assembleSinglePass(inputFile, outputFile);
+            } else if (parallel) {
+                assembler.assembleParallel(inputFile, outputFile);
+            } else if (cacheFile != null) {
+                int regions = assembler.assembleIncremental(inputFile, outputFile, cacheFile);
+                System.out.println("再符号化した領域: " + regions);
+            } else {
+                assembler.assemble(inputFile, outputFile);
+            }
+            if (sourceMap) {
+                SourceMap map = SourceMap.forRom(inputFile);
+                (addressMap != null ? map.relocate(addressMap) : map).write(outputFile + ".map");
+            }
+            System.out.println("アセンブル完了: " + outputFile);
         } catch (IOException e) {
             System.err.println("エラー: " + e.getMessage());
             e.printStackTrace();
@@ -19,6 +19,13 @@ public class HackTest {
         
         testSimpleAssembly();
         testSymbolHandling();
+        testSinglePass();
+        testBinaryOutput();
+        testParallel();
+        testInMemory();
+        testIncremental();
+        testBatch();
+        testSourceMap();
         
         // 結果概要
         System.out.println("\n===== テスト結果概要 =====");
@@ -119,6 +126,367 @@ public class HackTest {
         }
     }
     
+    /**
+     * シングルパスモードのテスト - 二パス方式と同じ出力になるか
+     */
+    private static void testSinglePass() {
+        System.out.println("\n----- シングルパスモードのテスト -----");
+        
+        try {
+            String inputFile = "testSinglePass.asm";
+            String expectedFile = "testSinglePassExpected.hack";
+            String outputFile = "testSinglePass.hack";
+            writeTestSymbolFile(inputFile);
+            // 変数の割り当て順序も確認するため変数と前方参照を追加
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile),
+                    "@i\nM=1\n@LOOP\n0;JMP\n@j\nM=0\n@i\nD=M\n(LOOP)\n@END\n0;JMP\n".getBytes(),
+                    java.nio.file.StandardOpenOption.APPEND);
+            
+            new Hack().assemble(inputFile, expectedFile);
+            new Hack().assembleSinglePass(inputFile, outputFile);
+            
+            java.util.List<String> expected = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(expectedFile));
+            verifyOutputFile(outputFile, expected.toArray(new String[0]));
+            
+            cleanupFiles(inputFile, expectedFile, outputFile);
+            
+        } catch (IOException e) {
+            testFailed("シングルパステスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * バイナリ形式の出力と RomReader による読み込みのテスト
+     */
+    private static void testBinaryOutput() {
+        System.out.println("\n----- バイナリ形式出力のテスト -----");
+        
+        try {
+            String inputFile = "testBinary.asm";
+            String textFile = "testBinary.hack";
+            String bigEndianFile = "testBinary.bin";
+            String littleEndianFile = "testBinary.rom";
+            writeTestSymbolFile(inputFile);
+            
+            new Hack().assemble(inputFile, textFile);
+            new Hack().assemble(inputFile, bigEndianFile);
+            Hack littleEndian = new Hack();
+            littleEndian.setByteOrder(java.nio.ByteOrder.LITTLE_ENDIAN);
+            littleEndian.assembleSinglePass(inputFile, littleEndianFile);
+            
+            int[] expected = RomReader.read(textFile);
+            testCase("テキスト形式の語数", expected.length, 16);
+            testCase("バイナリ形式のサイズ", new File(bigEndianFile).length(), 32L);
+            testCase("ビッグエンディアンの先頭バイト",
+                    java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(bigEndianFile))[2], (byte) 0xFC); // D=M (0xFC10)
+            testCase("ビッグエンディアンの読み込み",
+                    java.util.Arrays.equals(RomReader.read(bigEndianFile), expected), true);
+            testCase("リトルエンディアンの読み込み",
+                    java.util.Arrays.equals(RomReader.read(littleEndianFile, java.nio.ByteOrder.LITTLE_ENDIAN), expected), true);
+            // @EQUAL (12)
+            testCase("読み込んだ語の値", RomReader.read(bigEndianFile)[4], 12);
+            
+            // 16桁でない行は読み込まない (短い行で配列があふれたり、長い行を切り詰めたりしない)
+            String badFile = "testBinaryBad.hack";
+            for (String text : new String[] {"0\n".repeat(10), "10000000000000000\n"}) {
+                java.nio.file.Files.write(java.nio.file.Paths.get(badFile), text.getBytes());
+                try {
+                    RomReader.read(badFile);
+                    testCase("16桁でない行 (" + text.length() + " バイト) を拒否", "例外なし", "IllegalArgumentException");
+                } catch (IllegalArgumentException e) {
+                    testCase("16桁でない行 (" + text.length() + " バイト) を拒否", "IllegalArgumentException", "IllegalArgumentException");
+                }
+            }
+            
+            cleanupFiles(inputFile, textFile, bigEndianFile, littleEndianFile, badFile);
+            
+        } catch (IOException e) {
+            testFailed("バイナリ形式テスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * 分割並列モードのテスト - 複数チャンクに分かれる大きさのプログラムで二パス方式と比較
+     */
+    private static void testParallel() {
+        System.out.println("\n----- 分割並列モードのテスト -----");
+        
+        try {
+            String inputFile = "testParallel.asm";
+            String expectedFile = "testParallel.expected.hack";
+            String outputFile = "testParallel.hack";
+            
+            // 約400KBのプログラム (前方/後方参照、変数、同名ラベルを含む)
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 6000; i++) {
+                content.append("(L").append(i).append(")\n");
+                content.append("@L").append((i * 7919) % 6000).append("\n");
+                content.append("D;JGT\n");
+                content.append("@var").append(i % 97).append("\n");
+                content.append("M=D+1 // コメント\n");
+                content.append("@").append(i).append("\n");
+                content.append("(DUP)\n");
+                content.append("@DUP\n");
+                content.append("0;JMP\n");
+            }
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile), content.toString().getBytes());
+            
+            new Hack().assemble(inputFile, expectedFile);
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+            new Hack().assembleParallel(inputFile, outputFile, pool);
+            pool.shutdown();
+            
+            byte[] expected = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(expectedFile));
+            byte[] actual = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(outputFile));
+            testCase("分割並列モードの出力", java.util.Arrays.equals(actual, expected), true);
+            testCase("出力サイズ", (long) actual.length, 6000L * 7 * 17);
+            
+            cleanupFiles(inputFile, expectedFile, outputFile);
+            
+        } catch (IOException e) {
+            testFailed("分割並列テスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * メモリ上でのアセンブルのテスト - ファイルを介した場合と同じ出力になるか
+     */
+    private static void testInMemory() {
+        System.out.println("\n----- メモリ上でのアセンブルのテスト -----");
+        
+        try {
+            String inputFile = "testInMemory.asm";
+            String expectedFile = "testInMemory.hack";
+            writeTestSymbolFile(inputFile);
+            new Hack().assemble(inputFile, expectedFile);
+            byte[] expected = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(expectedFile));
+            String source = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(inputFile)), "UTF-8");
+            
+            // CharSequence → OutputStream
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            new Hack().assemble(source, out);
+            testCase("CharSequenceからの出力", java.util.Arrays.equals(out.toByteArray(), expected), true);
+            
+            // Reader → OutputStream
+            out = new java.io.ByteArrayOutputStream();
+            new Hack().assemble(new java.io.StringReader(source), out);
+            testCase("Readerからの出力", java.util.Arrays.equals(out.toByteArray(), expected), true);
+            
+            // ReadableByteChannel → WritableByteChannel
+            out = new java.io.ByteArrayOutputStream();
+            new Hack().assemble(
+                    java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(source.getBytes("UTF-8"))),
+                    java.nio.channels.Channels.newChannel(out));
+            testCase("チャネルからの出力", java.util.Arrays.equals(out.toByteArray(), expected), true);
+            
+            // 命令語のSpliterator/Iterator
+            int[] expectedWords = RomReader.read(expectedFile);
+            int[] words = java.util.stream.StreamSupport.intStream(new Hack().words(source), false).toArray();
+            testCase("Spliteratorの命令語", java.util.Arrays.equals(words, expectedWords), true);
+            java.util.PrimitiveIterator.OfInt iterator = new Hack().wordIterator(source);
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.nextInt();
+                count++;
+            }
+            testCase("Iteratorの語数", count, expectedWords.length);
+            
+            cleanupFiles(inputFile, expectedFile);
+            
+        } catch (IOException e) {
+            testFailed("メモリ上でのアセンブルテスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * 差分モードのテスト - 変更した領域だけを符号化し直し、出力が二パス方式と一致するか
+     */
+    private static void testIncremental() {
+        System.out.println("\n----- 差分モードのテスト -----");
+        
+        try {
+            String inputFile = "testIncremental.asm";
+            String expectedFile = "testIncremental.expected.hack";
+            String outputFile = "testIncremental.hack";
+            String cacheFile = "testIncremental.cache";
+            cleanupFiles(cacheFile);
+            
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                content.append("(L").append(i).append(")\n");
+                content.append("@L").append((i * 7919) % 2000).append("\n");
+                content.append("D=A\n");
+                content.append("@var").append(i % 31).append("\n");
+                content.append("M=D\n");
+            }
+            String source = content.toString();
+            
+            // 初回はキャッシュがないので全ての領域を符号化する
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile), source.getBytes());
+            Hack assembler = new Hack();
+            int first = assembler.assembleIncremental(inputFile, outputFile, cacheFile);
+            testCase("初回は全領域を符号化", first > 1, true);
+            testCase("初回の出力", sameOutput(inputFile, expectedFile, outputFile), true);
+            
+            // 変更なし
+            testCase("変更なしでは符号化しない", new Hack().assembleIncremental(inputFile, outputFile, cacheFile), 0);
+            testCase("変更なしの出力", sameOutput(inputFile, expectedFile, outputFile), true);
+            
+            // 命令数の変わらない変更は、その領域だけを符号化し直す
+            int edit = source.indexOf("D=A", source.length() / 2);
+            source = source.substring(0, edit) + "D=M" + source.substring(edit + 3);
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile), source.getBytes());
+            testCase("変更した領域だけを符号化", new Hack().assembleIncremental(inputFile, outputFile, cacheFile), 1);
+            testCase("変更後の出力", sameOutput(inputFile, expectedFile, outputFile), true);
+            
+            // 命令の挿入でラベルのアドレスがずれた場合は全体をアセンブルし直す
+            source = source.substring(0, edit) + "D=D+1\n" + source.substring(edit);
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile), source.getBytes());
+            testCase("アドレスが変わると全体を符号化", new Hack().assembleIncremental(inputFile, outputFile, cacheFile), first);
+            testCase("挿入後の出力", sameOutput(inputFile, expectedFile, outputFile), true);
+            
+            // 壊れたキャッシュは無視する
+            java.nio.file.Files.write(java.nio.file.Paths.get(cacheFile), new byte[] {1, 2, 3});
+            testCase("壊れたキャッシュでは全体を符号化", new Hack().assembleIncremental(inputFile, outputFile, cacheFile), first);
+            testCase("壊れたキャッシュでの出力", sameOutput(inputFile, expectedFile, outputFile), true);
+            
+            cleanupFiles(inputFile, expectedFile, outputFile, cacheFile);
+            
+        } catch (IOException e) {
+            testFailed("差分モードテスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * 一括モードのテスト - ディレクトリ内の各ファイルを個別にアセンブルした場合と同じ出力になり、
+     * 失敗したファイルだけがエラーとして報告されるか
+     */
+    private static void testBatch() {
+        System.out.println("\n----- 一括モードのテスト -----");
+        
+        File dir = new File("testBatch");
+        try {
+            dir.mkdir();
+            int fileCount = 12;
+            for (int i = 0; i < fileCount; i++) {
+                writeTestSymbolFile(new File(dir, "prog" + i + ".asm").getPath());
+            }
+            java.nio.file.Files.write(new File(dir, "broken.asm").toPath(), "@1\nD=XYZ\n".getBytes());
+            writeTestSymbolFile("testBatch.asm");
+            new Hack().assemble("testBatch.asm", "testBatch.hack");
+            byte[] expected = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get("testBatch.hack"));
+            
+            java.util.List<BatchAssembler.Result> results = new BatchAssembler(3).assemble(java.util.Arrays.asList(dir.getPath()));
+            testCase("結果の数", results.size(), fileCount + 1);
+            int successes = 0;
+            boolean sameOutput = true;
+            for (BatchAssembler.Result result : results) {
+                if (result.isSuccess()) {
+                    successes++;
+                    byte[] actual = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(result.getOutputFile()));
+                    sameOutput &= java.util.Arrays.equals(actual, expected);
+                }
+            }
+            testCase("成功したファイル数", successes, fileCount);
+            testCase("個別のアセンブルと同じ出力", sameOutput, true);
+            BatchAssembler.Result broken = results.get(0);
+            testCase("失敗したファイル", broken.getInputFile().endsWith("broken.asm"), true);
+            testCase("失敗の理由", broken.getError() instanceof IllegalArgumentException, true);
+            
+        } catch (IOException e) {
+            testFailed("一括モードテスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+            cleanupFiles("testBatch.asm", "testBatch.hack");
+        }
+    }
+    
+    /**
+     * ソースマップのテスト - VMコマンドの .asm の行からROMアドレスの範囲を引けるか
+     */
+    private static void testSourceMap() {
+        System.out.println("\n----- ソースマップのテスト -----");
+        
+        try {
+            String inputFile = "testSourceMap.asm";
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile), (
+                    "// function Main.main 0\n"     // 1
+                  + "(Main.main)\n"                  // 2
+                  + "// push constant 7\n"          // 3
+                  + "@7\n"                           // 4  ROM 0
+                  + "D=A\n"                          // 5  ROM 1
+                  + "// label LOOP\n"               // 6
+                  + "(LOOP)\n"                       // 7
+                  + "// goto LOOP\n"                // 8
+                  + "\n"                             // 9
+                  + "@LOOP\n"                        // 10 ROM 2
+                  + "0;JMP\n").getBytes());          // 11 ROM 3
+            
+            // VMトランスレータが出力するマップ (開始位置は .asm の行)
+            SourceMap vmMap = new SourceMap();
+            vmMap.add(1, 1, "Main.vm", 1, "Main.main");
+            vmMap.add(3, 3, "Main.vm", 2, "Main.main");
+            vmMap.add(6, 6, "Main.vm", 3, "Main.main");
+            vmMap.add(8, 8, "Main.vm", 4, "Main.main");
+            vmMap.write(inputFile + ".map");
+            
+            SourceMap map = SourceMap.read(inputFile + ".map");
+            testCase("読み込んだエントリ数", map.size(), 4);
+            SourceMap rom = SourceMap.forRom(inputFile);
+            testCase("ROM 1 は push の行", rom.getLine(rom.find(1)), 2);
+            testCase("ROM 2 は goto の行", rom.getLine(rom.find(2)), 4);
+            testCase("ROM 3 の .asm の行", rom.getAsmLine(rom.find(3)), 8);
+            testCase("ROM 3 のファイル", rom.getFile(rom.find(3)), "Main.vm");
+            testCase("ROM 3 の関数", rom.getFunction(rom.find(3)), "Main.main");
+            testCase("範囲外", rom.find(-1), -1);
+            testCase("JSON", rom.toJson(),
+                    "{\"files\":[\"Main.vm\"],\"functions\":[\"Main.main\"],"
+                  + "\"entries\":[[0,1,0,1,0],[0,3,0,2,0],[2,6,0,3,0],[2,8,0,4,0]]}");
+            
+            // VMトランスレータのマップがない場合は .asm の各命令の行
+            cleanupFiles(inputFile + ".map");
+            SourceMap asmOnly = SourceMap.forRom(inputFile);
+            testCase("命令ごとのエントリ数", asmOnly.size(), 4);
+            testCase("ROM 2 の .asm の行", asmOnly.getLine(asmOnly.find(2)), 10);
+            
+            // 単独の '\r' は行の区切りとして数えない (Lexer と同じ)
+            java.nio.file.Files.write(java.nio.file.Paths.get(inputFile),
+                    "// a\rb\n@1\r\nD=A\n".getBytes());
+            SourceMap crMap = SourceMap.forAssembly(inputFile);
+            testCase("単独の CR を含む命令数", crMap.size(), 2);
+            testCase("単独の CR の後の ROM 0 の行", crMap.getLine(crMap.find(0)), 2);
+            testCase("単独の CR の後の ROM 1 の行", crMap.getLine(crMap.find(1)), 3);
+            
+            cleanupFiles(inputFile);
+            
+        } catch (IOException e) {
+            testFailed("ソースマップテスト", "例外なし", "例外発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * 二パス方式で expectedFile にアセンブルし、outputFile と同じ内容か確認する
+     */
+    private static boolean sameOutput(String inputFile, String expectedFile, String outputFile) throws IOException {
+        new Hack().assemble(inputFile, expectedFile);
+        byte[] expected = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(expectedFile));
+        byte[] actual = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(outputFile));
+        return java.util.Arrays.equals(actual, expected);
+    }
+    
     /**
      * テストアセンブリファイル (シンプル) 作成
      */
@@ -0,0 +1,114 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HackWriter.java - テキスト形式 (.hack) の出力クラス
+ * 16ビット語ごとに "0"/"1" 16文字と改行の17バイトを出力します。
+ * 全ての語の行を事前に計算した表からバイトバッファへ直接コピーし、
+ * 大きなブロック単位で FileChannel (または任意のチャネル) に書き出します。
+ */
+public class HackWriter implements WordWriter {
+    // 1行のバイト数 (16桁 + 改行)
+    private static final int LINE_LENGTH = 17;
+    // 書き出し単位
+    private static final int BUFFER_SIZE = LINE_LENGTH * 4096;
+
+    // 65536語分の行の表 (最初の使用時に作成)
+    private static byte[] lineTable;
+
+    private final WritableByteChannel channel;
+    // close時にチャネルも閉じるかどうか (呼び出し元から渡されたチャネルは閉じない)
+    private final boolean ownsChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] table = lineTable();
+
+    public HackWriter(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ownsChannel = true;
+    }
+
+    /**
+     * 任意のチャネルに出力する (close ではチャネルを閉じずに書き出しのみ行う)
+     * @param channel 出力先のチャネル
+     */
+    public HackWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        ownsChannel = false;
+    }
+
+    /**
+     * 全ての16ビット語の行を持つ表を返す
+     */
+    private static synchronized byte[] lineTable() {
+        if (lineTable == null) {
+            byte[] lines = new byte[65536 * LINE_LENGTH];
+            for (int word = 0; word < 65536; word++) {
+                int offset = word * LINE_LENGTH;
+                for (int bit = 0; bit < 16; bit++) {
+                    lines[offset + bit] = (byte) ((word & (0x8000 >>> bit)) != 0 ? '1' : '0');
+                }
+                lines[offset + 16] = '\n';
+            }
+            lineTable = lines;
+        }
+        return lineTable;
+    }
+
+    /**
+     * 1語を出力する
+     * @param word 命令語
+     */
+    @Override
+    public void write(int word) throws IOException {
+        if ((word & ~0xFFFF) != 0) {
+            // 16ビットに収まらない値はこれまでと同じく全桁をそのまま出力する
+            writeBytes((Integer.toBinaryString(word) + "\n").getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (buffer.remaining() < LINE_LENGTH) {
+            flush();
+        }
+        buffer.put(table, word * LINE_LENGTH, LINE_LENGTH);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * バッファの内容をファイルに書き出す
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 出力ファイルを閉じる
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package asm.hack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import asm.symbol.SymbolTable;
+
+/**
+ * IncrementalAssembler.java - キャッシュによる差分アセンブル
+ *
+ * ソースをラベル定義の行で区切った領域に分け、領域ごとに内容のハッシュ値、命令語、
+ * ラベル、参照シンボルをキャッシュファイルに保存します。
+ * 次回のアセンブルでは内容が変わった領域だけを字句解析し、
+ * 全てのラベルと変数のアドレスが前回と同じであれば、変わった領域だけを符号化し直します。
+ * アドレスが変わった場合は自動的に全体をアセンブルし直します。
+ */
+class IncrementalAssembler {
+    // キャッシュファイルの識別子と版
+    private static final int MAGIC = 0x48434348; // "HCCH"
+    private static final int VERSION = 1;
+    // 領域はこの行数以上になってから、次のラベル定義の行で区切る
+    private static final int MIN_REGION_LINES = 256;
+
+    // 直前のアセンブルで符号化し直した領域の数と、全領域の数
+    private int reencodedRegions;
+    private int totalRegions;
+
+    /**
+     * ソースの1つの領域
+     */
+    private static class Region {
+        final long hash;
+        final int length;
+        Segment segment;
+        // 今回字句解析したかどうか
+        boolean lexed;
+
+        Region(long hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    /**
+     * ファイルをアセンブルする
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param writer 出力先
+     * @param cacheFile キャッシュファイル (なければ作成する)
+     * @return 解決後のシンボルテーブル
+     */
+    SymbolTable assemble(String inputFile, WordWriter writer, String cacheFile) throws IOException {
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // 前回の領域を内容のハッシュ値で引けるようにする
+        List<Region> previous = load(cacheFile);
+        Map<Long, Region> cached = new HashMap<>();
+        for (Region region : previous) {
+            cached.put(key(region.hash, region.length), region);
+        }
+
+        // 今回の領域 - 内容が同じ領域は前回の結果を使い、変わった領域だけ字句解析する
+        List<Region> regions = new ArrayList<>();
+        List<int[]> bounds = split(source);
+        for (int[] bound : bounds) {
+            long hash = hash(source, bound[0], bound[1]);
+            int length = bound[1] - bound[0];
+            Region old = cached.get(key(hash, length));
+            Region region = new Region(hash, length);
+            if (old != null) {
+                region.segment = old.segment;
+            } else {
+                region.segment = new Segment(source.slice(bound[0], length));
+                region.segment.lex();
+                region.lexed = true;
+            }
+            regions.add(region);
+        }
+
+        // 全てのラベルと変数のアドレスが前回と同じか確認する
+        SymbolTable table = resolve(regions);
+        boolean incremental = !previous.isEmpty() && resolved(previous).equals(addresses(regions, table));
+
+        reencodedRegions = 0;
+        totalRegions = regions.size();
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            if (!region.lexed && !incremental) {
+                // アドレスが変わったので全体をアセンブルし直す
+                int[] bound = bounds.get(i);
+                region.segment = new Segment(source.slice(bound[0], bound[1] - bound[0]));
+                region.segment.lex();
+                region.lexed = true;
+            }
+            if (region.lexed) {
+                region.segment.patch(table);
+                reencodedRegions++;
+            }
+            writer.write(region.segment.words, region.segment.count);
+        }
+
+        save(cacheFile, regions);
+        return table;
+    }
+
+    int getReencodedRegions() {
+        return reencodedRegions;
+    }
+
+    int getTotalRegions() {
+        return totalRegions;
+    }
+
+    /**
+     * ラベルを領域の順に登録し、変数を初出順に割り当てる
+     */
+    private static SymbolTable resolve(List<Region> regions) {
+        SymbolTable table = new SymbolTable();
+        int romAddress = 0;
+        for (Region region : regions) {
+            Segment segment = region.segment;
+            segment.base = romAddress;
+            for (int i = 0; i < segment.labels.size(); i++) {
+                table.addEntry(segment.labels.get(i), romAddress + segment.labelOffsets[i]);
+            }
+            romAddress += segment.count;
+        }
+        for (Region region : regions) {
+            for (String symbol : region.segment.firstUses) {
+                table.getOrAssign(symbol);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 前回の領域から解決したアドレスの一覧
+     */
+    private static Map<String, Integer> resolved(List<Region> regions) {
+        return addresses(regions, resolve(regions));
+    }
+
+    /**
+     * 領域が定義・参照する全てのシンボルのアドレスの一覧
+     */
+    private static Map<String, Integer> addresses(List<Region> regions, SymbolTable table) {
+        Map<String, Integer> addresses = new LinkedHashMap<>();
+        for (Region region : regions) {
+            for (String label : region.segment.labels) {
+                addresses.put(label, table.get(label));
+            }
+            for (String symbol : region.segment.firstUses) {
+                addresses.put(symbol, table.get(symbol));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * ソースを領域に分ける
+     * MIN_REGION_LINES 行以上たまったら、次のラベル定義の行の直前で区切ります。
+     * ラベル定義で区切るので、行の追加や削除があってもその後の区切りはすぐに元と揃います。
+     * @return 各領域の [開始位置, 終了位置)
+     */
+    private static List<int[]> split(ByteBuffer source) {
+        List<int[]> bounds = new ArrayList<>();
+        int limit = source.limit();
+        int regionStart = 0;
+        int lines = 0;
+        int position = 0;
+        while (position < limit) {
+            int lineStart = position;
+            int first = lineStart;
+            while (first < limit && (source.get(first) == ' ' || source.get(first) == '\t')) {
+                first++;
+            }
+            if (lines >= MIN_REGION_LINES && first < limit && source.get(first) == '(') {
+                bounds.add(new int[] {regionStart, lineStart});
+                regionStart = lineStart;
+                lines = 0;
+            }
+            while (position < limit && source.get(position) != '\n') {
+                position++;
+            }
+            position++;
+            lines++;
+        }
+        if (regionStart < limit) {
+            bounds.add(new int[] {regionStart, limit});
+        }
+        return bounds;
+    }
+
+    /**
+     * 64ビット FNV-1a ハッシュ
+     */
+    private static long hash(ByteBuffer source, int from, int to) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            hash ^= source.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Long key(long hash, int length) {
+        return hash ^ ((long) length << 32) ^ length;
+    }
+
+    /**
+     * キャッシュファイルを読み込む (存在しない、または形式が違う場合は空)
+     */
+    private static List<Region> load(String cacheFile) {
+        List<Region> regions = new ArrayList<>();
+        if (!new File(cacheFile).exists()) {
+            return regions;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return regions;
+            }
+            int regionCount = in.readInt();
+            for (int r = 0; r < regionCount; r++) {
+                Region region = new Region(in.readLong(), in.readInt());
+                Segment segment = new Segment(null);
+                int labelCount = in.readInt();
+                for (int i = 0; i < labelCount; i++) {
+                    segment.addLabel(in.readUTF(), in.readInt());
+                }
+                int useCount = in.readInt();
+                for (int i = 0; i < useCount; i++) {
+                    segment.firstUses.add(in.readUTF());
+                }
+                segment.count = in.readInt();
+                segment.words = new int[segment.count];
+                for (int i = 0; i < segment.count; i++) {
+                    segment.words[i] = in.readInt();
+                }
+                region.segment = segment;
+                regions.add(region);
+            }
+            return regions;
+        } catch (IOException e) {
+            // 壊れたキャッシュは使わずに全体をアセンブルする
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * キャッシュファイルを書き出す
+     */
+    private static void save(String cacheFile, List<Region> regions) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(regions.size());
+            for (Region region : regions) {
+                Segment segment = region.segment;
+                out.writeLong(region.hash);
+                out.writeInt(region.length);
+                out.writeInt(segment.labels.size());
+                for (int i = 0; i < segment.labels.size(); i++) {
+                    out.writeUTF(segment.labels.get(i));
+                    out.writeInt(segment.labelOffsets[i]);
+                }
+                out.writeInt(segment.firstUses.size());
+                for (String symbol : segment.firstUses) {
+                    out.writeUTF(symbol);
+                }
+                out.writeInt(segment.count);
+                for (int i = 0; i < segment.count; i++) {
+                    out.writeInt(segment.words[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import asm.symbol.SymbolTable;
+
+/**
+ * Linker.java - オブジェクトモジュールの結合
+ *
+ * ObjectModule を指定した順に並べ、次の順に1つのプログラムにします。
+ * 1. 命令数の累積和で各モジュールのROM先頭アドレスを決め、公開ラベルを登録する
+ *    (別のモジュールが同じ名前のラベルを定義している場合は、両方のモジュール名を示して結合しない。
+ *    別々に変換した .asm は TRUE0 などの内部ラベルが重なり、後の定義に飛んでしまうため)
+ * 2. 各モジュールの参照シンボルを先頭のモジュールから初出順に解決する (ラベル以外は16から変数を割り当てる)
+ * 3. 命令語を連結し、再配置情報の位置に解決したアドレスを埋め込む
+ * ソースを同じ順に連結して Hack でアセンブルした場合と同じ出力になります。
+ * シンボルの解決はモジュールごとに1回だけ行い、再配置は配列の添字だけで済むので、結合は命令数に比例して高速です。
+ * setEliminateDeadCode(true) とすると、最後に DeadCodeEliminator でアドレス0から到達できない領域を取り除きます。
+ */
+public class Linker {
+    // 直前の結合で解決したシンボルテーブル
+    private SymbolTable symbolTable;
+    // 到達不能コードを除去するか
+    private boolean eliminateDeadCode = false;
+    // 直前の結合で使った除去処理 (除去しない場合は null)
+    private DeadCodeEliminator eliminator;
+
+    /**
+     * 到達不能コードを除去するかを設定する
+     */
+    public void setEliminateDeadCode(boolean eliminateDeadCode) {
+        this.eliminateDeadCode = eliminateDeadCode;
+    }
+
+    /**
+     * モジュールを結合する
+     * @param modules 結合するモジュール (この順にROMに配置する)
+     * @return 命令語の配列 (ROMアドレス順)
+     * @throws IllegalArgumentException 別々のモジュールが同じ名前のラベルを定義している場合
+     */
+    public int[] link(List<ObjectModule> modules) {
+        symbolTable = new SymbolTable();
+        eliminator = null;
+
+        // 1. ラベル
+        int[] bases = new int[modules.size()];
+        Set<String> labels = new LinkedHashSet<>();
+        Map<String, ObjectModule> definitions = new HashMap<>();
+        BitSet regionStarts = new BitSet();
+        int romAddress = 0;
+        for (int m = 0; m < modules.size(); m++) {
+            ObjectModule module = modules.get(m);
+            bases[m] = romAddress;
+            for (int i = 0; i < module.labels.length; i++) {
+                ObjectModule definition = definitions.putIfAbsent(module.labels[i], module);
+                if (definition != null && definition != module) {
+                    throw new IllegalArgumentException("ラベル " + module.labels[i] + " が複数のモジュールで定義されています: "
+                            + definition.getName() + ", " + module.getName());
+                }
+                symbolTable.addEntry(module.labels[i], romAddress + module.labelOffsets[i]);
+                if (eliminateDeadCode) {
+                    labels.add(module.labels[i]);
+                    regionStarts.set(romAddress + module.labelOffsets[i]);
+                }
+            }
+            romAddress += module.words.length;
+        }
+
+        // 2. シンボルの解決 (変数は初出順に割り当てる)
+        int[][] addresses = new int[modules.size()][];
+        boolean[][] isLabel = new boolean[modules.size()][];
+        for (int m = 0; m < modules.size(); m++) {
+            String[] symbols = modules.get(m).symbols;
+            addresses[m] = new int[symbols.length];
+            isLabel[m] = new boolean[symbols.length];
+            for (int i = 0; i < symbols.length; i++) {
+                addresses[m][i] = symbolTable.getOrAssign(symbols[i]);
+                isLabel[m][i] = labels.contains(symbols[i]);
+            }
+        }
+
+        // 3. 連結と再配置
+        int[] words = new int[romAddress];
+        BitSet labelReferences = new BitSet(romAddress);
+        for (int m = 0; m < modules.size(); m++) {
+            ObjectModule module = modules.get(m);
+            System.arraycopy(module.words, 0, words, bases[m], module.words.length);
+            for (int i = 0; i < module.relocationIndexes.length; i++) {
+                int symbol = module.relocationSymbols[i];
+                words[bases[m] + module.relocationIndexes[i]] = addresses[m][symbol];
+                if (isLabel[m][symbol]) {
+                    labelReferences.set(bases[m] + module.relocationIndexes[i]);
+                }
+            }
+        }
+        if (!eliminateDeadCode) {
+            return words;
+        }
+
+        // 4. 到達不能コードの除去 (除去したラベルは表から取り除く)
+        eliminator = new DeadCodeEliminator(words, labelReferences, regionStarts);
+        int[] live = eliminator.eliminate();
+        int[] addressMap = eliminator.getAddressMap();
+        for (String label : labels) {
+            int address = addressMap[symbolTable.get(label)];
+            if (address < 0) {
+                symbolTable.remove(label);
+            } else {
+                symbolTable.addEntry(label, address);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * モジュールを結合してファイルに書き出す (バイナリ形式はビッグエンディアン)
+     * @param modules 結合するモジュール
+     * @param outputFile 出力ファイル (.hack はテキスト形式、.bin/.rom はバイナリ形式)
+     */
+    public void link(List<ObjectModule> modules, String outputFile) throws IOException {
+        link(modules, outputFile, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * モジュールを結合してファイルに書き出す
+     * @param modules 結合するモジュール
+     * @param outputFile 出力ファイル (.hack はテキスト形式、.bin/.rom はバイナリ形式)
+     * @param byteOrder バイナリ形式のバイト順 (テキスト形式では無視)
+     */
+    public void link(List<ObjectModule> modules, String outputFile, ByteOrder byteOrder) throws IOException {
+        int[] words = link(modules);
+        WordWriter writer = RomReader.isBinary(outputFile)
+                ? new BinaryWriter(outputFile, byteOrder)
+                : new HackWriter(outputFile);
+        try {
+            writer.write(words, words.length);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 直前の結合で除去した結果を返す (除去しなかった場合は null)
+     * ソースマップの付け替えには getAddressMap() を使います。
+     */
+    public DeadCodeEliminator getEliminator() {
+        return eliminator;
+    }
+
+    /**
+     * 直前の結合で解決したシンボルテーブルを返す
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * 入力ファイルをモジュールとして読み込む
+     * .asm はその場でアセンブルし (複数のファイルは並列に処理する)、.hobj はそのまま読み込みます。
+     * @param inputFiles .asm または .hobj ファイル
+     * @return モジュール (入力の順)
+     */
+    public static List<ObjectModule> load(List<String> inputFiles) throws IOException {
+        try {
+            return Arrays.asList(inputFiles.parallelStream().map(inputFile -> {
+                try {
+                    return inputFile.endsWith(".asm") ? ObjectModule.assemble(inputFile) : ObjectModule.read(inputFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toArray(ObjectModule[]::new));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * メインメソッド
+     * 使用法: java Linker [--eliminate-dead-code] <出力ファイル (.hack/.bin/.rom)> <入力ファイル (.asm/.hobj)>...
+     */
+    public static void main(String[] args) {
+        int argIndex = 0;
+        boolean eliminateDeadCode = false;
+        if (args.length > 0 && args[0].equals("--eliminate-dead-code")) {
+            eliminateDeadCode = true;
+            argIndex++;
+        }
+        if (args.length - argIndex < 2) {
+            System.err.println("使用法: java Linker [--eliminate-dead-code] <出力ファイル (.hack/.bin/.rom)> <入力ファイル (.asm/.hobj)>...");
+            System.exit(1);
+        }
+        String outputFile = args[argIndex];
+        List<String> inputFiles = new ArrayList<>(Arrays.asList(args).subList(argIndex + 1, args.length));
+        try {
+            long start = System.nanoTime();
+            List<ObjectModule> modules = load(inputFiles);
+            long loaded = System.nanoTime();
+            Linker linker = new Linker();
+            linker.setEliminateDeadCode(eliminateDeadCode);
+            linker.link(modules, outputFile);
+            long linked = System.nanoTime();
+            System.out.printf("リンク完了: %s (モジュール %d, 読み込み %.1f ms, 結合 %.1f ms)%n",
+                    outputFile, modules.size(), (loaded - start) / 1e6, (linked - loaded) / 1e6);
+            if (linker.getEliminator() != null) {
+                System.out.println(linker.getEliminator());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
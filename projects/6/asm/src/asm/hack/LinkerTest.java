@@ -0,0 +1,267 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+import asm.symbol.SymbolTable;
+
+/**
+ * LinkerTest.java - ObjectModuleとLinkerクラスのテスト
+ */
+public class LinkerTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    // モジュールA - モジュールBのラベルと共有の変数を参照する
+    private static final String MODULE_A =
+            "@256\nD=A\n@SP\nM=D\n"
+          + "(Main.main)\n@counter\nM=1\n@Util.inc\n0;JMP\n"
+          + "(DUP)\n@DUP\n0;JMP\n";
+    // モジュールB - モジュールAのラベルを参照する
+    private static final String MODULE_B =
+            "(Util.inc)\n@counter\nM=M+1\n@limit\nD=M\n@Main.main\nD;JLT\n"
+          + "(Util.loop)\n@Util.loop\n0;JMP\n";
+    // モジュールC - モジュールAと同じ名前のラベル DUP を定義する
+    private static final String MODULE_C =
+            "(DUP)\n@DUP\n0;JMP\n";
+
+    // 到達不能コードの除去 - Unused とそこからだけ参照される Unused$L は除去し、
+    // データとして読み込む RET と、落ち込みで到達する FALL は残す
+    private static final String DEAD_A =
+            "@256\nD=A\n@SP\nM=D\n@Main.main\n0;JMP\n";
+    private static final String DEAD_UNUSED =
+            "(Unused)\n@R0\nM=1\n@Unused$L\n0;JMP\n"
+          + "(Unused$L)\n@Unused\n0;JMP\n";
+    private static final String DEAD_B =
+            "(Main.main)\n@RET\nD=A\n@R13\nM=D\n@Used\n0;JMP\n"
+          + "(RET)\n@END\n0;JMP\n"
+          + "(Used)\n@R1\nM=M+1\n@R2\nD=M\n@SKIP\nD;JGT\n"
+          + "(FALL)\n@R3\nM=1\n"
+          + "(SKIP)\n@R13\nA=M\n0;JMP\n"
+          + "(END)\n@END\n0;JMP\n";
+
+    public static void main(String[] args) {
+        System.out.println("===== Linker クラステスト開始 =====");
+
+        testLink();
+        testObjectFile();
+        testLoad();
+        testDeadCode();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 結合テスト - ソースを連結してアセンブルした場合と同じ命令語になるか
+     */
+    private static void testLink() {
+        System.out.println("\n----- 結合テスト -----");
+
+        ObjectModule a = ObjectModule.assemble("A", ByteBuffer.wrap(MODULE_A.getBytes()));
+        ObjectModule b = ObjectModule.assemble("B", ByteBuffer.wrap(MODULE_B.getBytes()));
+        testCase("モジュールAの命令数", a.size(), 10);
+        testCase("未解決の命令は0", a.words[4], 0);
+
+        Linker linker = new Linker();
+        int[] linked = linker.link(Arrays.asList(a, b));
+        testCase("連結してアセンブルした結果と一致", Arrays.equals(linked, assemble(MODULE_A + MODULE_B)), true);
+        testCase("モジュールをまたぐラベル", linked[6], 10);
+        testCase("モジュール内のラベル", linker.getSymbolTable().get("DUP"), 8);
+        testCase("共有の変数", linker.getSymbolTable().get("counter"), 16);
+        testCase("変数は初出順", linker.getSymbolTable().get("limit"), 17);
+
+        // 順序を入れ替えても連結した場合と一致する
+        int[] reversed = new Linker().link(Arrays.asList(b, a));
+        testCase("逆順の結合", Arrays.equals(reversed, assemble(MODULE_B + MODULE_A)), true);
+
+        // 別のモジュールが同じ名前のラベルを定義している場合は、両方のモジュール名を示して結合しない
+        ObjectModule c = ObjectModule.assemble("C", ByteBuffer.wrap(MODULE_C.getBytes()));
+        try {
+            new Linker().link(Arrays.asList(a, b, c));
+            testCase("同名ラベルの重複定義", "例外なし", "例外発生");
+        } catch (IllegalArgumentException e) {
+            testCase("同名ラベルの重複定義", "例外発生", "例外発生");
+            testCase("重複定義のモジュール名", e.getMessage().endsWith(": A, C"), true);
+        }
+    }
+
+    /**
+     * オブジェクトファイルテスト - 書き出して読み込んでも同じ結果になるか
+     */
+    private static void testObjectFile() {
+        System.out.println("\n----- オブジェクトファイルテスト -----");
+
+        try {
+            ObjectModule a = ObjectModule.assemble("A", ByteBuffer.wrap(MODULE_A.getBytes()));
+            ObjectModule b = ObjectModule.assemble("B", ByteBuffer.wrap(MODULE_B.getBytes()));
+            a.write("testLinkA.hobj");
+            b.write("testLinkB.hobj");
+            ObjectModule readA = ObjectModule.read("testLinkA.hobj");
+            testCase("モジュール名", readA.getName(), "testLinkA");
+            testCase("読み込んだモジュールの結合",
+                    Arrays.equals(new Linker().link(Arrays.asList(readA, ObjectModule.read("testLinkB.hobj"))),
+                                  new Linker().link(Arrays.asList(a, b))),
+                    true);
+
+            Files.write(Paths.get("testLinkBad.hobj"), "not an object".getBytes());
+            try {
+                ObjectModule.read("testLinkBad.hobj");
+                testCase("不正なオブジェクトファイル", "例外なし", "例外発生");
+            } catch (IOException e) {
+                testCase("不正なオブジェクトファイル", "例外発生", "例外発生");
+            }
+        } catch (IOException e) {
+            testCase("オブジェクトファイル", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            cleanupFiles("testLinkA.hobj", "testLinkB.hobj", "testLinkBad.hobj");
+        }
+    }
+
+    /**
+     * 読み込みテスト - .asm と .hobj を混ぜて読み込み、ファイルに結合できるか
+     */
+    private static void testLoad() {
+        System.out.println("\n----- 読み込みテスト -----");
+
+        try {
+            Files.write(Paths.get("testLinkA.asm"), MODULE_A.getBytes());
+            Files.write(Paths.get("testLinkB.asm"), MODULE_B.getBytes());
+            ObjectModule.assemble("testLinkB.asm").write("testLinkB.hobj");
+
+            List<ObjectModule> modules = Linker.load(Arrays.asList("testLinkA.asm", "testLinkB.hobj"));
+            testCase("読み込んだモジュール数", modules.size(), 2);
+            testCase("入力の順", modules.get(1).getName(), "testLinkB");
+
+            new Linker().link(modules, "testLink.hack");
+            Files.write(Paths.get("testLinkAll.asm"), (MODULE_A + MODULE_B).getBytes());
+            new Hack().assemble("testLinkAll.asm", "testLinkAll.hack");
+            testCase("結合したファイル",
+                    Arrays.equals(Files.readAllBytes(Paths.get("testLink.hack")),
+                                  Files.readAllBytes(Paths.get("testLinkAll.hack"))),
+                    true);
+        } catch (IOException e) {
+            testCase("読み込み", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            cleanupFiles("testLinkA.asm", "testLinkB.asm", "testLinkB.hobj", "testLink.hack",
+                         "testLinkAll.asm", "testLinkAll.hack");
+        }
+    }
+
+    /**
+     * 到達不能コードの除去テスト - 残したコードだけを連結してアセンブルした場合と同じ命令語になるか
+     */
+    private static void testDeadCode() {
+        System.out.println("\n----- 到達不能コードの除去テスト -----");
+
+        ObjectModule a = ObjectModule.assemble("A", ByteBuffer.wrap((DEAD_A + DEAD_UNUSED).getBytes()));
+        ObjectModule b = ObjectModule.assemble("B", ByteBuffer.wrap(DEAD_B.getBytes()));
+        Linker linker = new Linker();
+        linker.setEliminateDeadCode(true);
+        int[] linked = linker.link(Arrays.asList(a, b));
+        DeadCodeEliminator eliminator = linker.getEliminator();
+        testCase("除去後の命令数", linked.length, 27);
+        testCase("除去した領域の数", eliminator.getRemovedRegions(), 2);
+        testCase("残したコードだけをアセンブルした結果と一致",
+                Arrays.equals(linked, assemble(DEAD_A + DEAD_B)), true);
+        testCase("除去したラベルは未登録", linker.getSymbolTable().contains("Unused"), false);
+        testCase("除去したラベルは表から取り除く", linker.getSymbolTable().get("Unused$L"), SymbolTable.NOT_FOUND);
+        testCase("残したラベルのアドレス", linker.getSymbolTable().get("Main.main"), 6);
+        testCase("データとして読み込むラベル", linker.getSymbolTable().get("RET"), 12);
+        testCase("落ち込みで到達するラベル", linker.getSymbolTable().get("FALL"), 20);
+
+        int[] addressMap = eliminator.getAddressMap();
+        testCase("除去した命令のアドレス", addressMap[6], -1);
+        testCase("残した命令のアドレス", addressMap[12], 6);
+        testCase("末尾のアドレス", addressMap[33], 27);
+
+        // ファイルへの書き出しはバイト順を指定できる
+        try {
+            linker.link(Arrays.asList(a, b), "testLinkDead.rom", ByteOrder.LITTLE_ENDIAN);
+            testCase("リトルエンディアンの書き出し",
+                    Arrays.equals(RomReader.read("testLinkDead.rom", ByteOrder.LITTLE_ENDIAN), linked), true);
+        } catch (IOException e) {
+            testCase("書き出し", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            cleanupFiles("testLinkDead.rom");
+        }
+
+        // 除去しない場合は従来どおり
+        testCase("除去しない結合", new Linker().link(Arrays.asList(a, b)).length, 33);
+        testCase("除去しない結合の結果", new Linker().getEliminator(), null);
+
+        // ソースマップのアドレスの付け替え (除去した関数のエントリはなくなる)
+        SourceMap map = new SourceMap();
+        map.add(0, 1, "", 0, "");
+        map.add(6, 8, "A.vm", 1, "Unused");
+        map.add(12, 20, "B.vm", 1, "Main.main");
+        map.add(20, 30, "B.vm", 4, "Used");
+        SourceMap relocated = map.relocate(addressMap);
+        testCase("付け替えたエントリ数", relocated.size(), 3);
+        testCase("付け替えたアドレス", relocated.getStart(2), 14);
+        testCase("付け替えたアドレスの関数", relocated.getFunction(relocated.find(8)), "Main.main");
+
+        // 残るコードに数値のアドレスへのジャンプがあると何も除去しない
+        ObjectModule literal = ObjectModule.assemble("L", ByteBuffer.wrap(
+                (DEAD_A + "(Dead)\n@12\n0;JMP\n" + DEAD_UNUSED + DEAD_B).getBytes()));
+        linker = new Linker();
+        linker.setEliminateDeadCode(true);
+        linked = linker.link(Arrays.asList(literal));
+        testCase("除去するコードの数値のアドレスへのジャンプ", linker.getEliminator().hasLiteralJump(), false);
+        testCase("除去するコードの数値のアドレスへのジャンプの除去", linked.length, 27);
+        literal = ObjectModule.assemble("L", ByteBuffer.wrap(
+                (DEAD_A.replace("@Main.main\n0;JMP", "@12\n0;JMP") + DEAD_UNUSED + DEAD_B).getBytes()));
+        linked = linker.link(Arrays.asList(literal));
+        testCase("残るコードの数値のアドレスへのジャンプ", linker.getEliminator().hasLiteralJump(), true);
+        testCase("数値のアドレスへのジャンプがあれば除去しない",
+                Arrays.equals(linked, assemble(DEAD_A.replace("@Main.main\n0;JMP", "@12\n0;JMP") + DEAD_UNUSED + DEAD_B)),
+                true);
+    }
+
+    /**
+     * メモリ上で一度にアセンブルした命令語
+     */
+    private static int[] assemble(String source) {
+        return StreamSupport.intStream(new Hack().words(source), false).toArray();
+    }
+
+    private static void cleanupFiles(String... files) {
+        for (String file : files) {
+            new java.io.File(file).delete();
+        }
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package asm.hack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ObjectModule.java - 再配置可能なオブジェクトモジュール (.hobj)
+ *
+ * 1つの .asm ファイルを他のファイルと無関係にアセンブルした結果です。
+ * ROMアドレスにもRAMアドレスにも依存しない形で、次のものを持ちます。
+ * - 命令語 (シンボルを参照するA命令は 0 のまま)
+ * - 公開ラベル: モジュール内で定義したラベルと、モジュール先頭からの命令数
+ * - 参照シンボル: A命令が参照するシンボル名 (初出順)
+ * - 再配置情報: シンボルを埋め戻す命令の位置と、参照シンボルの番号
+ * 複数のモジュールを Linker で結合すると、ソースを連結して Hack でアセンブルした場合と同じ結果になります。
+ *
+ * ファイル形式 (DataOutputStream):
+ *   "HOBJ" 版 命令数 命令語... ラベル数 (名前 位置)... シンボル数 名前... 再配置数 (位置 番号)...
+ */
+public final class ObjectModule {
+    private static final int MAGIC = 0x484f424a; // "HOBJ"
+    private static final int VERSION = 1;
+
+    private final String name;
+    final int[] words;
+    final String[] labels;
+    final int[] labelOffsets;
+    final String[] symbols;
+    final int[] relocationIndexes;
+    final int[] relocationSymbols;
+
+    private ObjectModule(String name, int[] words, String[] labels, int[] labelOffsets,
+                         String[] symbols, int[] relocationIndexes, int[] relocationSymbols) {
+        this.name = name;
+        this.words = words;
+        this.labels = labels;
+        this.labelOffsets = labelOffsets;
+        this.symbols = symbols;
+        this.relocationIndexes = relocationIndexes;
+        this.relocationSymbols = relocationSymbols;
+    }
+
+    /**
+     * .asm ファイルをオブジェクトモジュールにアセンブルする
+     * @param inputFile 入力Hackアセンブリファイル
+     */
+    public static ObjectModule assemble(String inputFile) throws IOException {
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return assemble(moduleName(inputFile), source);
+    }
+
+    /**
+     * メモリ上のソースをオブジェクトモジュールにアセンブルする
+     * @param name モジュール名
+     * @param source アセンブリコード (ASCII)
+     */
+    public static ObjectModule assemble(String name, ByteBuffer source) {
+        Segment segment = new Segment(source);
+        segment.lex();
+
+        String[] symbols = segment.firstUses.toArray(new String[0]);
+        Map<String, Integer> symbolIndexes = new HashMap<>();
+        for (int i = 0; i < symbols.length; i++) {
+            symbolIndexes.put(symbols[i], i);
+        }
+        int relocationCount = segment.pendingSymbols.size();
+        int[] relocationSymbols = new int[relocationCount];
+        for (int i = 0; i < relocationCount; i++) {
+            relocationSymbols[i] = symbolIndexes.get(segment.pendingSymbols.get(i));
+        }
+        int[] words = new int[segment.count];
+        System.arraycopy(segment.words, 0, words, 0, segment.count);
+        int[] labelOffsets = new int[segment.labels.size()];
+        System.arraycopy(segment.labelOffsets, 0, labelOffsets, 0, labelOffsets.length);
+        int[] relocationIndexes = new int[relocationCount];
+        System.arraycopy(segment.pendingIndexes, 0, relocationIndexes, 0, relocationCount);
+        return new ObjectModule(name, words, segment.labels.toArray(new String[0]), labelOffsets,
+                symbols, relocationIndexes, relocationSymbols);
+    }
+
+    /**
+     * モジュール名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 命令数
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * .hobj ファイルに書き出す
+     * @param outputFile 出力ファイル
+     */
+    public void write(String outputFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(words.length);
+            for (int word : words) {
+                out.writeInt(word);
+            }
+            out.writeInt(labels.length);
+            for (int i = 0; i < labels.length; i++) {
+                out.writeUTF(labels[i]);
+                out.writeInt(labelOffsets[i]);
+            }
+            out.writeInt(symbols.length);
+            for (String symbol : symbols) {
+                out.writeUTF(symbol);
+            }
+            out.writeInt(relocationIndexes.length);
+            for (int i = 0; i < relocationIndexes.length; i++) {
+                out.writeInt(relocationIndexes[i]);
+                out.writeInt(relocationSymbols[i]);
+            }
+        }
+    }
+
+    /**
+     * .hobj ファイルを読み込む
+     * @param inputFile 入力ファイル
+     */
+    public static ObjectModule read(String inputFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("オブジェクトファイルではありません: " + inputFile);
+            }
+            int[] words = new int[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readInt();
+            }
+            int labelCount = in.readInt();
+            String[] labels = new String[labelCount];
+            int[] labelOffsets = new int[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                labels[i] = in.readUTF();
+                labelOffsets[i] = in.readInt();
+            }
+            String[] symbols = new String[in.readInt()];
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = in.readUTF();
+            }
+            int relocationCount = in.readInt();
+            int[] relocationIndexes = new int[relocationCount];
+            int[] relocationSymbols = new int[relocationCount];
+            for (int i = 0; i < relocationCount; i++) {
+                relocationIndexes[i] = in.readInt();
+                relocationSymbols[i] = in.readInt();
+                if (relocationIndexes[i] >= words.length || relocationSymbols[i] >= symbols.length) {
+                    throw new IOException("再配置情報が不正です: " + inputFile);
+                }
+            }
+            return new ObjectModule(moduleName(inputFile), words, labels, labelOffsets,
+                    symbols, relocationIndexes, relocationSymbols);
+        }
+    }
+
+    /**
+     * ファイル名から拡張子を除いたモジュール名
+     */
+    private static String moduleName(String file) {
+        String name = new File(file).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
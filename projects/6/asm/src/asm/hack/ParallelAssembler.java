@@ -0,0 +1,112 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import asm.symbol.SymbolTable;
+
+/**
+ * ParallelAssembler.java - 分割並列アセンブル
+ *
+ * ソースを行境界で複数のチャンクに分け、ForkJoinPool 上で次の順に処理します。
+ * 1. 各チャンクを並列に字句解析し、命令数とチャンク内のラベル、未解決のシンボル参照を集める
+ * 2. 命令数の累積和で各チャンクのROM先頭アドレスを決め、ラベルを先頭から順に登録する
+ * 3. 変数は先頭のチャンクから初出順に割り当てる (逐次のアセンブルと同じアドレスになる)
+ * 4. 各チャンクのシンボル参照を並列に埋め戻す
+ */
+class ParallelAssembler {
+    // これより小さいチャンクには分けない
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final SymbolTable symbolTable;
+    private final ForkJoinPool pool;
+
+    ParallelAssembler(SymbolTable symbolTable, ForkJoinPool pool) {
+        this.symbolTable = symbolTable;
+        this.pool = pool;
+    }
+
+    /**
+     * ファイルをアセンブルする
+     * @param inputFile 入力Hackアセンブリファイル
+     * @param writer 出力先
+     * @return 解決後のシンボルテーブル (凍結済み)
+     */
+    SymbolTable assemble(String inputFile, WordWriter writer) throws IOException {
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Segment[] chunks = split(source);
+
+        // 1. 並列に字句解析
+        forEach(chunks, Segment::lex);
+
+        // 2. 累積和でROM先頭アドレスを決め、ラベルを登録 (同名ラベルは後の定義が優先)
+        int romAddress = 0;
+        for (Segment segment : chunks) {
+            segment.base = romAddress;
+            for (int i = 0; i < segment.labels.size(); i++) {
+                symbolTable.addEntry(segment.labels.get(i), romAddress + segment.labelOffsets[i]);
+            }
+            romAddress += segment.count;
+        }
+
+        // 3. 変数を初出順に割り当てる
+        for (Segment segment : chunks) {
+            for (String symbol : segment.firstUses) {
+                symbolTable.getOrAssign(symbol);
+            }
+        }
+
+        // 4. 並列に埋め戻す (表は凍結し、チャンクごとに検索用の表を重ねる)
+        SymbolTable resolved = symbolTable.freeze();
+        forEach(chunks, chunk -> chunk.patch(new SymbolTable(resolved)));
+
+        for (Segment segment : chunks) {
+            writer.write(segment.words, segment.count);
+        }
+        return resolved;
+    }
+
+    /**
+     * 全てのチャンクに処理を並列に適用する
+     */
+    private void forEach(Segment[] chunks, Consumer<Segment> action) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Segment chunk : chunks) {
+            tasks.add(ForkJoinTask.adapt(() -> action.accept(chunk)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * ソースを行境界でチャンクに分割する
+     */
+    private Segment[] split(ByteBuffer source) {
+        int size = source.limit();
+        int chunkCount = Math.max(1, Math.min(pool.getParallelism() * 4, size / MIN_CHUNK_SIZE));
+        List<Segment> chunks = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= chunkCount && start < size; i++) {
+            int end = i == chunkCount ? size : (int) ((long) size * i / chunkCount);
+            // 次の改行の直後まで進める
+            while (end < size && source.get(end - 1) != '\n') {
+                end++;
+            }
+            if (end > start) {
+                chunks.add(new Segment(source.slice(start, end - start)));
+                start = end;
+            }
+        }
+        return chunks.toArray(new Segment[0]);
+    }
+}
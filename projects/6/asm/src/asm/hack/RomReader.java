@@ -0,0 +1,114 @@
+package asm.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RomReader.java - アセンブル結果の読み込みクラス
+ * テキスト形式 (.hack) とバイナリ形式 (.bin/.rom) のどちらも同じAPIで読み込みます。
+ * 形式はファイルの拡張子で判定します。
+ */
+public class RomReader {
+    private RomReader() {
+    }
+
+    /**
+     * バイナリ形式の拡張子かどうかを判定
+     * @param filename ファイル名
+     * @return .bin または .rom であればtrue
+     */
+    public static boolean isBinary(String filename) {
+        return filename.endsWith(".bin") || filename.endsWith(".rom");
+    }
+
+    /**
+     * ROMイメージを読み込む (バイナリ形式はビッグエンディアンとして読む)
+     * @param filename 入力ファイル
+     * @return 命令語の配列 (各要素は0〜65535)
+     */
+    public static int[] read(String filename) throws IOException {
+        return read(filename, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * ROMイメージを読み込む
+     * @param filename 入力ファイル
+     * @param order バイナリ形式のバイト順 (テキスト形式では無視)
+     * @return 命令語の配列 (各要素は0〜65535)
+     */
+    public static int[] read(String filename, ByteOrder order) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            // 一括で読み込む
+            while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+            }
+            bytes.flip();
+            return isBinary(filename) ? decodeBinary(bytes, order) : decodeText(bytes);
+        }
+    }
+
+    /**
+     * 16ビット語の列を展開する
+     */
+    private static int[] decodeBinary(ByteBuffer bytes, ByteOrder order) {
+        if (bytes.remaining() % 2 != 0) {
+            throw new IllegalArgumentException("バイナリROMのサイズが奇数です: " + bytes.remaining());
+        }
+        ShortBuffer shorts = bytes.order(order).asShortBuffer();
+        short[] raw = new short[shorts.remaining()];
+        shorts.get(raw);
+        int[] words = new int[raw.length];
+        for (int i = 0; i < raw.length; i++) {
+            words[i] = raw[i] & 0xFFFF;
+        }
+        return words;
+    }
+
+    /**
+     * "0"/"1" の行を展開する (空行は読み飛ばす、それ以外の行はちょうど16桁でなければならない)
+     */
+    private static int[] decodeText(ByteBuffer bytes) {
+        // 空行以外は16桁 + 改行なので、最後の改行のない行の分を足せば足りる
+        int[] words = new int[bytes.remaining() / 17 + 1];
+        int count = 0;
+        int word = 0;
+        int digits = 0;
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '0' || b == '1') {
+                word = (word << 1) | (b - '0');
+                digits++;
+            } else if (b == '\n') {
+                if (digits > 0) {
+                    words[count++] = checkedWord(word, digits);
+                }
+                word = 0;
+                digits = 0;
+            } else if (b != '\r') {
+                throw new IllegalArgumentException("不正な文字がHackファイルに含まれています: " + (char) b);
+            }
+        }
+        if (digits > 0) {
+            words[count++] = checkedWord(word, digits);
+        }
+        int[] result = new int[count];
+        System.arraycopy(words, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * 1行の桁数を確認する
+     */
+    private static int checkedWord(int word, int digits) {
+        if (digits != 16) {
+            throw new IllegalArgumentException("16桁でない行がHackファイルに含まれています: " + digits + " 桁");
+        }
+        return word;
+    }
+}
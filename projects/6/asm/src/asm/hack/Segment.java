@@ -0,0 +1,98 @@
+package asm.hack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import asm.code.Code;
+import asm.parser.Lexer;
+import asm.symbol.SymbolTable;
+
+/**
+ * Segment.java - ソースの一部分 (行境界で区切った範囲) の字句解析結果
+ * 分割並列アセンブルのチャンクや、差分アセンブルの領域として使います。
+ * ROMアドレスに依存しない形で、命令数・ラベル・シンボル参照を集めます。
+ */
+class Segment {
+    // 字句解析するバイト列 (キャッシュから復元した場合は null)
+    final ByteBuffer source;
+    // 命令語 (シンボル参照の位置は埋め戻し前)
+    int[] words = new int[256];
+    int count = 0;
+    // ROM先頭アドレス (累積和で決める)
+    int base;
+    // 範囲内のラベル (出現順)
+    final List<String> labels = new ArrayList<>();
+    int[] labelOffsets = new int[16];
+    // 未解決のシンボル参照 (命令の位置とシンボル名)
+    int[] pendingIndexes = new int[64];
+    final List<String> pendingSymbols = new ArrayList<>();
+    // 参照されたシンボル (初出順、重複なし)
+    final Set<String> firstUses = new LinkedHashSet<>();
+
+    Segment(ByteBuffer source) {
+        this.source = source;
+    }
+
+    /**
+     * 範囲を字句解析し、シンボル以外の命令を符号化する
+     */
+    void lex() {
+        Lexer lexer = new Lexer(source);
+        Code code = new Code();
+        while (lexer.hasMoreCommands()) {
+            int type = lexer.instructionType();
+            if (type == Lexer.L_COMMAND) {
+                addLabel(lexer.symbol(), count);
+            } else {
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                if (type == Lexer.A_COMMAND) {
+                    if (lexer.isNumber()) {
+                        words[count] = lexer.number();
+                    } else {
+                        String symbol = lexer.symbol();
+                        if (pendingSymbols.size() == pendingIndexes.length) {
+                            pendingIndexes = Arrays.copyOf(pendingIndexes, pendingIndexes.length * 2);
+                        }
+                        pendingIndexes[pendingSymbols.size()] = count;
+                        pendingSymbols.add(symbol);
+                        firstUses.add(symbol);
+                    }
+                } else {
+                    words[count] = Code.cInstruction(
+                            code.compBits(lexer.comp()), code.destBits(lexer.dest()), code.jumpBits(lexer.jump()));
+                }
+                count++;
+            }
+            lexer.advance();
+        }
+    }
+
+    /**
+     * ラベルを追加する
+     * @param label ラベル名
+     * @param offset 範囲の先頭からの命令数
+     */
+    void addLabel(String label, int offset) {
+        if (labels.size() == labelOffsets.length) {
+            labelOffsets = Arrays.copyOf(labelOffsets, labelOffsets.length * 2);
+        }
+        labelOffsets[labels.size()] = offset;
+        labels.add(label);
+    }
+
+    /**
+     * シンボル参照を埋め戻す
+     * @param table 解決済みのシンボルテーブル (この範囲専用)
+     */
+    void patch(SymbolTable table) {
+        for (int i = 0; i < pendingSymbols.size(); i++) {
+            words[pendingIndexes[i]] = table.get(pendingSymbols.get(i));
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package asm.hack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SourceMap.java - ソースマップ (ROMアドレス → .asm の行 → .vm のファイル・行・関数)
+ *
+ * 各エントリは開始位置から次のエントリの直前までの範囲を表し、開始位置の昇順に並べた
+ * プリミティブ配列で保持するので、二分探索で O(log n) で引けます。
+ * 開始位置は VMトランスレータが出力するマップでは .asm の行番号、アセンブル後のマップではROMアドレスです。
+ * 文字列 (ファイル名と関数名) は表に1回だけ格納し、エントリからは番号で参照します。
+ *
+ * ファイル形式 (DataOutputStream):
+ *   "HMAP" 版 ファイル名数 名前... 関数名数 名前... エントリ数 (開始 .asm行 ファイル番号 行 関数番号)...
+ */
+public class SourceMap {
+    private static final int MAGIC = 0x484d4150; // "HMAP"
+    private static final int VERSION = 1;
+
+    // エントリ (開始位置の昇順)
+    private int size = 0;
+    private int[] starts = new int[256];
+    private int[] asmLines = new int[256];
+    private int[] files = new int[256];
+    private int[] lines = new int[256];
+    private int[] functions = new int[256];
+
+    // ファイル名と関数名の表
+    private final List<String> fileNames = new ArrayList<>();
+    private final Map<String, Integer> fileIndexes = new HashMap<>();
+    private final List<String> functionNames = new ArrayList<>();
+    private final Map<String, Integer> functionIndexes = new HashMap<>();
+
+    /**
+     * エントリを追加する (開始位置は直前のエントリ以上であること)
+     * @param start 開始位置 (ROMアドレスまたは .asm の行番号)
+     * @param asmLine .asm の行番号 (1から)
+     * @param file .vm ファイル名 (ない場合は空文字列)
+     * @param line .vm の行番号 (1から、ない場合は0)
+     * @param function 関数名 (ない場合は空文字列)
+     */
+    public void add(int start, int asmLine, String file, int line, String function) {
+        if (size > 0 && start < starts[size - 1]) {
+            throw new IllegalArgumentException("開始位置は昇順で追加してください: " + start);
+        }
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            asmLines = Arrays.copyOf(asmLines, capacity);
+            files = Arrays.copyOf(files, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            functions = Arrays.copyOf(functions, capacity);
+        }
+        starts[size] = start;
+        asmLines[size] = asmLine;
+        files[size] = intern(file, fileNames, fileIndexes);
+        lines[size] = line;
+        functions[size] = intern(function, functionNames, functionIndexes);
+        size++;
+    }
+
+    private static int intern(String name, List<String> names, Map<String, Integer> indexes) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            indexes.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * 位置を含むエントリを探す
+     * 開始位置が同じエントリが複数ある場合 (命令を出力しないVMコマンドの後など) は最後のものを返します。
+     * @param address ROMアドレス (または .asm の行番号)
+     * @return エントリの番号 (最初のエントリより前の場合は -1)
+     */
+    public int find(int address) {
+        // address より大きい最初の開始位置を探し、その1つ前を返す
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= address) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int entry) {
+        return starts[entry];
+    }
+
+    public int getAsmLine(int entry) {
+        return asmLines[entry];
+    }
+
+    public String getFile(int entry) {
+        return fileNames.get(files[entry]);
+    }
+
+    public int getLine(int entry) {
+        return lines[entry];
+    }
+
+    public String getFunction(int entry) {
+        return functionNames.get(functions[entry]);
+    }
+
+    /**
+     * .asm の行番号で引くマップを、アセンブル後のROMアドレスで引くマップに変換する
+     * @param asmFile このマップが対応する .asm ファイル
+     * @return ROMアドレスを開始位置とするマップ
+     */
+    public SourceMap toRom(String asmFile) throws IOException {
+        int[] romAddresses = romAddressesByLine(asmFile);
+        SourceMap rom = new SourceMap();
+        for (int i = 0; i < size; i++) {
+            int line = Math.min(starts[i], romAddresses.length - 1);
+            rom.add(romAddresses[line], asmLines[i], getFile(i), lines[i], getFunction(i));
+        }
+        return rom;
+    }
+
+    /**
+     * .asm の行番号で引くマップの行番号を付け替える (.asm を最適化して行が減った場合など)
+     * @param lineMap 添字を元の行番号 (1から) とし、値を新しい行番号とする配列
+     * @return 行番号を付け替えたマップ
+     */
+    public SourceMap remapLines(int[] lineMap) {
+        SourceMap remapped = new SourceMap();
+        for (int i = 0; i < size; i++) {
+            remapped.add(remapLine(lineMap, starts[i]), remapLine(lineMap, asmLines[i]),
+                    getFile(i), lines[i], getFunction(i));
+        }
+        return remapped;
+    }
+
+    /**
+     * ROMアドレスで引くマップのアドレスを付け替える (到達不能コードを除去した場合など)
+     * 範囲の命令が全て除去されたエントリは取り除き、範囲の先頭だけが除去されたエントリは残った最初の命令から始めます。
+     * @param addressMap 添字を元のアドレスとし、値を新しいアドレス (除去した命令は -1) とする配列
+     *                   (最後の要素は命令数の位置に対応する)
+     * @return アドレスを付け替えたマップ
+     */
+    public SourceMap relocate(int[] addressMap) {
+        int last = addressMap.length - 1;
+        SourceMap relocated = new SourceMap();
+        for (int i = 0; i < size; i++) {
+            int start = Math.min(starts[i], last);
+            int end = i + 1 < size ? Math.min(starts[i + 1], last) : last;
+            int address = start;
+            while (address < end && addressMap[address] < 0) {
+                address++;
+            }
+            if (addressMap[address] >= 0 && (address < end || start == end)) {
+                relocated.add(addressMap[address], asmLines[i], getFile(i), lines[i], getFunction(i));
+            }
+        }
+        return relocated;
+    }
+
+    private static int remapLine(int[] lineMap, int line) {
+        int last = lineMap.length - 1;
+        // 元のファイルの末尾より後の行は、新しいファイルの末尾からの距離を保つ
+        return line <= last ? lineMap[line] : lineMap[last] + (line - last);
+    }
+
+    /**
+     * .asm ファイルのROMアドレスで引くマップを作る
+     * VMトランスレータが出力したマップ (.asm ファイル名 + ".map") があればそれを変換し、
+     * なければ各命令の .asm の行を記録します。
+     * @param asmFile .asm ファイル
+     */
+    public static SourceMap forRom(String asmFile) throws IOException {
+        File vmMap = new File(asmFile + ".map");
+        return vmMap.exists() ? read(vmMap.getPath()).toRom(asmFile) : forAssembly(asmFile);
+    }
+
+    /**
+     * .asm ファイルの各命令の行を記録したマップを作る (VMトランスレータのマップがない場合)
+     * @param asmFile .asm ファイル
+     * @return ROMアドレスを開始位置とし、ファイルを .asm 自身とするマップ
+     */
+    public static SourceMap forAssembly(String asmFile) throws IOException {
+        int[] romAddresses = romAddressesByLine(asmFile);
+        String name = new File(asmFile).getName();
+        SourceMap rom = new SourceMap();
+        for (int line = 1; line + 1 < romAddresses.length; line++) {
+            if (romAddresses[line + 1] > romAddresses[line]) {
+                rom.add(romAddresses[line], line, name, line, "");
+            }
+        }
+        return rom;
+    }
+
+    /**
+     * .asm の各行の先頭に対応するROMアドレスを求める
+     * 行は '\n' だけで区切ります (VMトランスレータの行数、アセンブラの字句解析と同じ。単独の '\r' は行末ではない)。
+     * @return 添字を行番号 (1から) とする配列 (最後の要素は命令の総数)
+     */
+    private static int[] romAddressesByLine(String asmFile) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(asmFile)), StandardCharsets.UTF_8);
+        int[] romAddresses = new int[1024];
+        int lineNumber = 1;
+        int romAddress = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            if (lineNumber + 1 >= romAddresses.length) {
+                romAddresses = Arrays.copyOf(romAddresses, romAddresses.length * 2);
+            }
+            romAddresses[lineNumber] = romAddress;
+            if (isInstruction(text.substring(start, end))) {
+                romAddress++;
+            }
+            lineNumber++;
+            start = end + 1;
+        }
+        romAddresses[lineNumber] = romAddress;
+        return Arrays.copyOf(romAddresses, lineNumber + 1);
+    }
+
+    /**
+     * 行が命令 (A命令またはC命令) かどうか (Parser と同じくコメントと空白を除いて判定する)
+     */
+    private static boolean isInstruction(String line) {
+        int comment = line.indexOf("//");
+        if (comment != -1) {
+            line = line.substring(0, comment);
+        }
+        line = line.trim();
+        return !line.isEmpty() && !(line.startsWith("(") && line.endsWith(")"));
+    }
+
+    /**
+     * ファイルに書き出す
+     */
+    public void write(String outputFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fileNames.size());
+            for (String name : fileNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(functionNames.size());
+            for (String name : functionNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(starts[i]);
+                out.writeInt(asmLines[i]);
+                out.writeInt(files[i]);
+                out.writeInt(lines[i]);
+                out.writeInt(functions[i]);
+            }
+        }
+    }
+
+    /**
+     * ファイルから読み込む
+     */
+    public static SourceMap read(String inputFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("ソースマップではありません: " + inputFile);
+            }
+            String[] fileTable = new String[in.readInt()];
+            for (int i = 0; i < fileTable.length; i++) {
+                fileTable[i] = in.readUTF();
+            }
+            String[] functionTable = new String[in.readInt()];
+            for (int i = 0; i < functionTable.length; i++) {
+                functionTable[i] = in.readUTF();
+            }
+            SourceMap map = new SourceMap();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int start = in.readInt();
+                int asmLine = in.readInt();
+                int file = in.readInt();
+                int line = in.readInt();
+                int function = in.readInt();
+                if (file >= fileTable.length || function >= functionTable.length) {
+                    throw new IOException("ソースマップが不正です: " + inputFile);
+                }
+                map.add(start, asmLine, fileTable[file], line, functionTable[function]);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * JSON形式の文字列にする
+     * {"files":[...],"functions":[...],"entries":[[開始,.asm行,ファイル番号,行,関数番号],...]}
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"files\":");
+        appendStrings(json, fileNames);
+        json.append(",\"functions\":");
+        appendStrings(json, functionNames);
+        json.append(",\"entries\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(starts[i]).append(',').append(asmLines[i]).append(',')
+                .append(files[i]).append(',').append(lines[i]).append(',').append(functions[i]).append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendStrings(StringBuilder json, List<String> strings) {
+        json.append('[');
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"');
+            for (char c : strings.get(i).toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+        json.append(']');
+    }
+
+    /**
+     * メインメソッド - ソースマップをJSONで表示する、またはROMアドレスを引く
+     * 使用法: java SourceMap <ソースマップ> [ROMアドレス...]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("使用法: java SourceMap <ソースマップ> [ROMアドレス...]");
+            System.exit(1);
+        }
+        try {
+            SourceMap map = read(args[0]);
+            if (args.length == 1) {
+                System.out.println(map.toJson());
+                return;
+            }
+            for (int i = 1; i < args.length; i++) {
+                int address = Integer.parseInt(args[i]);
+                int entry = map.find(address);
+                if (entry == -1) {
+                    System.out.println(address + ": 不明");
+                } else {
+                    System.out.println(address + ": " + map.getFile(entry) + ":" + map.getLine(entry)
+                            + " " + map.getFunction(entry) + " (.asm " + map.getAsmLine(entry) + "行目)");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package asm.hack;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * WordWriter.java - 命令語の出力先インターフェース
+ * テキスト形式 (.hack) とバイナリ形式 (.bin/.rom) の出力を共通に扱います
+ */
+public interface WordWriter extends Closeable {
+    /**
+     * 1語を出力する
+     * @param word 命令語
+     */
+    void write(int word) throws IOException;
+
+    /**
+     * 複数の語をまとめて出力する
+     * @param words 命令語の配列
+     * @param length 出力する語数
+     */
+    default void write(int[] words, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            write(words[i]);
+        }
+    }
+}
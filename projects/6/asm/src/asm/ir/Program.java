@@ -0,0 +1,269 @@
+package asm.ir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import asm.code.Code;
+import asm.parser.Lexer;
+
+/**
+ * Program.java - Hackアセンブリの中間表現
+ *
+ * テキストの .asm を経由せずに、VMトランスレータからアセンブラへ命令列を渡すための表現です。
+ * 各要素は種類と値の2つのプリミティブ配列に並べて保持します。
+ * - A_CONSTANT: 値は定数
+ * - A_SYMBOL:   値はシンボル番号 (変数またはラベルの参照)
+ * - C_INSTRUCTION: 値は16ビットの命令語 (dest/comp/jump を Code.cInstruction で詰めたもの)
+ * - LABEL:      値はシンボル番号 (ラベルの定義、ROMアドレスを進めない)
+ * シンボル名は番号ごとに1回だけ格納します。名前の検索は CharSequence のまま行うので、
+ * 組み立て中の StringBuilder で引いても、登録済みのシンボルなら文字列を作りません。
+ * テキストの .asm は writeAssembly で書き出せる表現の1つにすぎません。
+ */
+public final class Program {
+    // 要素の種類
+    public static final byte A_CONSTANT = 0;
+    public static final byte A_SYMBOL = 1;
+    public static final byte C_INSTRUCTION = 2;
+    public static final byte LABEL = 3;
+
+    // 要素 (種類と値)
+    private byte[] types = new byte[1024];
+    private int[] values = new int[1024];
+    private int size = 0;
+    private int instructionCount = 0;
+
+    // シンボル (番号 → 名前) と、名前から番号を引くオープンアドレス法の表 (値は番号 + 1、0は空き)
+    private String[] symbols = new String[256];
+    private int symbolCount = 0;
+    private int[] slots = new int[512];
+
+    // ----- 組み立て -----
+
+    /**
+     * 定数のA命令 (@値) を追加する
+     */
+    public void addConstant(int value) {
+        add(A_CONSTANT, value);
+        instructionCount++;
+    }
+
+    /**
+     * シンボルのA命令 (@シンボル) を追加する
+     */
+    public void addSymbol(CharSequence symbol) {
+        add(A_SYMBOL, symbolIndex(symbol));
+        instructionCount++;
+    }
+
+    /**
+     * C命令を追加する
+     * @param word 16ビットの命令語 (Code.cInstruction の結果)
+     */
+    public void addCompute(int word) {
+        add(C_INSTRUCTION, word);
+        instructionCount++;
+    }
+
+    /**
+     * ラベルの定義 ((シンボル)) を追加する
+     */
+    public void addLabel(CharSequence symbol) {
+        add(LABEL, symbolIndex(symbol));
+    }
+
+    private void add(byte type, int value) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        types[size] = type;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * テキストの .asm を字句解析して中間表現にする
+     * @param source アセンブリコード (ASCII)
+     */
+    public static Program parse(ByteBuffer source) {
+        Program program = new Program();
+        Code code = new Code();
+        Lexer lexer = new Lexer(source);
+        while (lexer.hasMoreCommands()) {
+            int type = lexer.instructionType();
+            if (type == Lexer.L_COMMAND) {
+                program.addLabel(lexer.symbol());
+            } else if (type == Lexer.A_COMMAND) {
+                if (lexer.isNumber()) {
+                    program.addConstant(lexer.number());
+                } else {
+                    program.addSymbol(lexer.symbol());
+                }
+            } else {
+                program.addCompute(Code.cInstruction(
+                        code.compBits(lexer.comp()), code.destBits(lexer.dest()), code.jumpBits(lexer.jump())));
+            }
+            lexer.advance();
+        }
+        return program;
+    }
+
+    // ----- 参照 -----
+
+    /**
+     * 要素の数 (ラベルを含む)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 命令の数 (ラベルを除く、ROMの語数)
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    public byte getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * 要素の値 (定数、シンボル番号、または命令語)
+     */
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * A_SYMBOL または LABEL の要素のシンボル名
+     */
+    public String getSymbol(int index) {
+        return symbols[values[index]];
+    }
+
+    /**
+     * シンボルの数
+     */
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    /**
+     * 番号のシンボル名
+     */
+    public String getSymbolName(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * シンボル名の番号を返す (未登録なら登録する)
+     */
+    public int symbolIndex(CharSequence symbol) {
+        int mask = slots.length - 1;
+        int hash = hash(symbol);
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            String name = symbols[slots[slot] - 1];
+            if (name.hashCode() == hash && name.contentEquals(symbol)) {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (symbolCount == symbols.length) {
+            symbols = Arrays.copyOf(symbols, symbolCount * 2);
+        }
+        symbols[symbolCount] = symbol.toString();
+        slots[slot] = ++symbolCount;
+        if (symbolCount * 2 > slots.length) {
+            rehash();
+        }
+        return symbolCount - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < symbolCount; i++) {
+            int slot = mix(symbols[i].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * String.hashCode と同じハッシュ値 (String ならキャッシュされた値を使う)
+     */
+    private static int hash(CharSequence symbol) {
+        if (symbol instanceof String) {
+            return symbol.hashCode();
+        }
+        int hash = 0;
+        for (int i = 0; i < symbol.length(); i++) {
+            hash = 31 * hash + symbol.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * ハッシュ値を攪拌する (SymbolTable と同じ)
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // ----- テキストへの書き出し -----
+
+    /**
+     * テキストの .asm として書き出す (1要素1行、コメントなし)
+     */
+    public void writeAssembly(Writer out) throws IOException {
+        for (int i = 0; i < size; i++) {
+            switch (types[i]) {
+                case A_CONSTANT:
+                    out.write('@');
+                    out.write(Integer.toString(values[i]));
+                    break;
+                case A_SYMBOL:
+                    out.write('@');
+                    out.write(symbols[values[i]]);
+                    break;
+                case LABEL:
+                    out.write('(');
+                    out.write(symbols[values[i]]);
+                    out.write(')');
+                    break;
+                default:
+                    out.write(mnemonic(values[i]));
+                    break;
+            }
+            out.write('\n');
+        }
+    }
+
+    /**
+     * C命令の命令語をニーモニック (dest=comp;jump) にする
+     */
+    static String mnemonic(int word) {
+        String comp = Code.compMnemonic(word >> 6);
+        if (comp == null) {
+            throw new IllegalArgumentException("不正なC命令: " + Integer.toBinaryString(word));
+        }
+        String dest = Code.destMnemonic(word >> 3);
+        String jump = Code.jumpMnemonic(word);
+        StringBuilder text = new StringBuilder(12);
+        if (!dest.isEmpty()) {
+            text.append(dest).append('=');
+        }
+        text.append(comp);
+        if (!jump.isEmpty()) {
+            text.append(';').append(jump);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package asm.ir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.StreamSupport;
+
+import asm.code.Code;
+import asm.hack.Hack;
+
+/**
+ * ProgramTest.java - Program (中間表現) のテスト
+ */
+public class ProgramTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    // ラベルの前方・後方参照、変数、定数、同名ラベルの再定義を含むプログラム
+    private static final String SOURCE =
+            "@R0\nD=M\n@i\nM=D\n"
+          + "(LOOP)\n@i\nD=M\n@END\nD;JEQ\n@sum\nM=D+M\n@i\nM=M-1\n@LOOP\n0;JMP\n"
+          + "(END)\n@END\n0;JMP\n"
+          + "(LOOP)\n@32767\nAMD=!A\n@sum\nD;JLE\n";
+
+    public static void main(String[] args) {
+        System.out.println("===== Program クラステスト開始 =====");
+
+        testBuild();
+        testAssemble();
+        testWriteAssembly();
+        testSymbols();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 組み立てテスト - 要素の種類と値
+     */
+    private static void testBuild() {
+        System.out.println("\n----- 組み立てテスト -----");
+
+        Program program = new Program();
+        program.addLabel("START");
+        program.addConstant(7);
+        program.addCompute(Code.cInstruction(new Code().compBits("A"), 0b010, 0));
+        program.addSymbol("START");
+        program.addCompute(Code.cInstruction(new Code().compBits("0"), 0, 0b111));
+
+        testCase("要素数 (ラベルを含む)", program.size(), 5);
+        testCase("命令数 (ラベルを除く)", program.getInstructionCount(), 4);
+        testCase("ラベルの種類", program.getType(0), Program.LABEL);
+        testCase("定数の値", program.getValue(1), 7);
+        testCase("C命令の値は命令語", program.getValue(2), 0xec10);
+        testCase("同じ名前は同じシンボル番号", program.getValue(3), program.getValue(0));
+        testCase("シンボル名", program.getSymbol(3), "START");
+        testCase("シンボル数", program.getSymbolCount(), 1);
+    }
+
+    /**
+     * アセンブルテスト - テキストをアセンブルした結果と同じ命令語になるか
+     */
+    private static void testAssemble() {
+        System.out.println("\n----- アセンブルテスト -----");
+
+        Program program = Program.parse(ByteBuffer.wrap(SOURCE.getBytes()));
+        int[] expected = assemble(SOURCE);
+        int[] words = new Hack().assemble(program);
+        testCase("テキストのアセンブルと一致", Arrays.equals(words, expected), true);
+        testCase("命令数", words.length, program.getInstructionCount());
+        testCase("変数は出現順に割り当てる (i)", words[2], 16);
+        testCase("変数は出現順に割り当てる (sum)", words[8], 17);
+        testCase("同名ラベルは後の定義", words[12], 16);
+        testCase("前方参照", words[6], 14);
+    }
+
+    /**
+     * 書き出しテスト - テキストに書き出して読み直すと同じプログラムになるか
+     */
+    private static void testWriteAssembly() {
+        System.out.println("\n----- 書き出しテスト -----");
+
+        try {
+            Program program = Program.parse(ByteBuffer.wrap(SOURCE.getBytes()));
+            StringWriter out = new StringWriter();
+            program.writeAssembly(out);
+            String text = out.toString();
+            testCase("ニーモニックの表記", text.contains("\nAMD=!A\n") && text.contains("\nM=D+M\n"), true);
+            testCase("ラベルとシンボル", text.startsWith("@R0\nD=M\n@i\nM=D\n(LOOP)\n"), true);
+            testCase("読み直した結果が一致", Arrays.equals(assemble(text), assemble(SOURCE)), true);
+
+            // 交換則で同じになる表記は標準の表記で書き出す
+            Program commuted = Program.parse(ByteBuffer.wrap("M=M+D\nD=A|D\n".getBytes()));
+            out = new StringWriter();
+            commuted.writeAssembly(out);
+            testCase("交換した表記は標準の表記にする", out.toString(), "M=D+M\nD=D|A\n");
+        } catch (IOException e) {
+            testCase("書き出し (例外: " + e.getMessage() + ")", false, true);
+        }
+    }
+
+    /**
+     * シンボルテスト - 名前の検索と表の拡張
+     */
+    private static void testSymbols() {
+        System.out.println("\n----- シンボルテスト -----");
+
+        Program program = new Program();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            name.setLength(0);
+            name.append("Sym.").append(i);
+            program.addSymbol(name);
+        }
+        testCase("表を拡張しても番号を保持", program.symbolIndex("Sym.0"), 0);
+        testCase("StringBuilder でも String でも同じ番号", program.symbolIndex(new StringBuilder("Sym.1999")), 1999);
+        testCase("登録済みの名前では増えない", program.getSymbolCount(), 2000);
+        testCase("未登録の名前は新しい番号", program.symbolIndex("Sym.2000"), 2000);
+    }
+
+    private static int[] assemble(String source) {
+        return StreamSupport.intStream(new Hack().words(source), false).toArray();
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
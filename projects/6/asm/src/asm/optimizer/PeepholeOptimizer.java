@@ -0,0 +1,212 @@
+package asm.optimizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PeepholeOptimizer.java - Hackアセンブリの覗き穴最適化
+ *
+ * VMトランスレータが出力した .asm を、アセンブルする前に短くします。
+ * 連続する数命令の窓を先頭から滑らせ、規則 (Rule) に一致した命令列を短い命令列に置き換えます。
+ * 置き換えができなくなるまで繰り返します。
+ *
+ * ラベル定義の行はジャンプ先になり得るので、窓はラベルをまたぎません。
+ * コメント行と空行は窓の判定では読み飛ばし、出力にはそのまま残します。
+ */
+public class PeepholeOptimizer {
+    // 有効な規則
+    private final List<Rule> rules = new ArrayList<>();
+    // 直前の最適化で削除した命令数
+    private int removedInstructions;
+    // 直前の最適化の行の対応 (元の行番号 → 出力の行番号、1から)
+    private int[] lineMap = new int[0];
+
+    /**
+     * 全ての規則を有効にして作成
+     */
+    public PeepholeOptimizer() {
+        this(Rule.names());
+    }
+
+    /**
+     * 指定した規則だけを有効にして作成
+     * @param ruleNames 規則の名前 (Rule.names() のいずれか)
+     */
+    public PeepholeOptimizer(Set<String> ruleNames) {
+        for (String name : ruleNames) {
+            rules.add(Rule.forName(name));
+        }
+    }
+
+    /**
+     * 1行 (元の行番号と内容)
+     */
+    private static class Line {
+        final int number;
+        String text;
+        // 比較用に空白とコメントを除いた命令 (命令でない行は null)
+        String instruction;
+        boolean label;
+        boolean deleted;
+
+        Line(int number, String text) {
+            this.number = number;
+            this.text = text;
+            String code = text;
+            int comment = code.indexOf("//");
+            if (comment != -1) {
+                code = code.substring(0, comment);
+            }
+            code = code.replaceAll("\\s", "");
+            if (code.startsWith("(") && code.endsWith(")")) {
+                label = true;
+            } else if (!code.isEmpty()) {
+                instruction = code;
+            }
+        }
+    }
+
+    /**
+     * 最適化する
+     * @param source 入力の各行
+     * @return 最適化した各行
+     */
+    public List<String> optimize(List<String> source) {
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < source.size(); i++) {
+            lines.add(new Line(i + 1, source.get(i)));
+        }
+
+        removedInstructions = 0;
+        // ラベルで区切った命令列 (ブロック) ごとに規則を適用する
+        List<Line> block = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.label) {
+                optimizeBlock(block);
+                block.clear();
+            } else if (line.instruction != null) {
+                block.add(line);
+            }
+        }
+        optimizeBlock(block);
+
+        List<String> result = new ArrayList<>();
+        lineMap = new int[lines.size() + 1];
+        int outputLine = 0;
+        for (Line line : lines) {
+            // 削除した行は次に残る行に対応させる
+            lineMap[line.number] = line.deleted ? outputLine + 1 : ++outputLine;
+        }
+        for (Line line : lines) {
+            if (!line.deleted) {
+                result.add(line.text);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 1つのブロックに規則を適用する (置き換えができなくなるまで繰り返す)
+     */
+    private void optimizeBlock(List<Line> block) {
+        List<Line> live = new ArrayList<>(block);
+        int index = 0;
+        while (index < live.size()) {
+            boolean rewritten = false;
+            for (Rule rule : rules) {
+                int window = rule.window();
+                if (index + window > live.size()) {
+                    continue;
+                }
+                String[] instructions = new String[window];
+                for (int i = 0; i < window; i++) {
+                    instructions[i] = live.get(index + i).instruction;
+                }
+                String[] replacement = rule.rewrite(instructions);
+                if (replacement == null) {
+                    continue;
+                }
+                // 置き換え後の命令は窓の先頭の行から順に入れ、残りの行は削除する
+                for (int i = 0; i < window; i++) {
+                    Line line = live.get(index + i);
+                    if (i < replacement.length) {
+                        if (!replacement[i].equals(line.instruction)) {
+                            line.text = replacement[i];
+                            line.instruction = replacement[i];
+                        }
+                    } else {
+                        line.deleted = true;
+                    }
+                }
+                live.subList(index + replacement.length, index + window).clear();
+                removedInstructions += window - replacement.length;
+                rewritten = true;
+                break;
+            }
+            if (rewritten) {
+                // 置き換えで前の命令と新しい一致ができることがあるので、少し戻って調べ直す
+                index = Math.max(0, index - (Rule.MAX_WINDOW - 1));
+            } else {
+                index++;
+            }
+        }
+    }
+
+    /**
+     * 直前の最適化で削除した命令数
+     */
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    /**
+     * 直前の最適化の行の対応
+     * @return 添字を元の行番号 (1から) とし、値を出力の行番号とする配列
+     */
+    public int[] getLineMap() {
+        return lineMap;
+    }
+
+    /**
+     * ファイルを最適化する
+     * @param inputFile 入力 .asm ファイル
+     * @param outputFile 出力 .asm ファイル (入力と同じでもよい)
+     */
+    public void optimize(String inputFile, String outputFile) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(inputFile), StandardCharsets.UTF_8);
+        Files.write(Paths.get(outputFile), optimize(lines), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * メインメソッド
+     * 使用法: java PeepholeOptimizer [--rules 規則,...] <入力 .asm> <出力 .asm>
+     */
+    public static void main(String[] args) {
+        Set<String> ruleNames = Rule.names();
+        int argIndex = 0;
+        if (args.length > 1 && args[0].equals("--rules")) {
+            ruleNames = new LinkedHashSet<>(Arrays.asList(args[1].split(",")));
+            argIndex = 2;
+        }
+        if (args.length - argIndex != 2) {
+            System.err.println("使用法: java PeepholeOptimizer [--rules 規則,...] <入力 .asm> <出力 .asm>");
+            System.err.println("規則: " + String.join(",", Rule.names()));
+            System.exit(1);
+        }
+        try {
+            PeepholeOptimizer optimizer = new PeepholeOptimizer(ruleNames);
+            optimizer.optimize(args[argIndex], args[argIndex + 1]);
+            System.out.println("最適化完了: " + args[argIndex + 1] + " (削除した命令: " + optimizer.getRemovedInstructions() + ")");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
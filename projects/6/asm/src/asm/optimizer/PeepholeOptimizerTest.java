@@ -0,0 +1,140 @@
+package asm.optimizer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PeepholeOptimizerTest.java - PeepholeOptimizerクラスのテスト
+ */
+public class PeepholeOptimizerTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    public static void main(String[] args) {
+        System.out.println("===== PeepholeOptimizer クラステスト開始 =====");
+
+        testRules();
+        testLabels();
+        testComments();
+        testRuleSelection();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 各規則のテスト
+     */
+    private static void testRules() {
+        System.out.println("\n----- 規則のテスト -----");
+
+        // push D の直後の pop D (VMトランスレータの push / pop の組み合わせ)
+        testCase("push/pop の打ち消し",
+                optimize("@SP", "A=M", "M=D", "@SP", "M=M+1", "@SP", "M=M-1", "A=M", "D=M"),
+                lines("@SP", "A=M", "M=D"));
+        testCase("sp-cancel",
+                optimize("M=D", "@SP", "M=M+1", "@SP", "M=M-1", "A=M", "M=-M"),
+                lines("M=D", "@SP", "A=M", "M=-M"));
+        testCase("store-reload", optimize("@R13", "M=D", "D=M", "@R14", "M=D"),
+                lines("@R13", "M=D", "@R14", "M=D"));
+        testCase("store-reload (MD=)", optimize("@R13", "MD=M+1", "D=M"), lines("@R13", "MD=M+1"));
+        testCase("dead-a-load", optimize("@R13", "@R14", "D=M"), lines("@R14", "D=M"));
+        testCase("dead-a-load (A=)", optimize("A=M", "@5", "D=A"), lines("@5", "D=A"));
+        testCase("redundant-a-load", optimize("@R13", "D=M", "@R13", "M=D+1"), lines("@R13", "D=M", "M=D+1"));
+        testCase("dead-d-store", optimize("@R13", "D=M", "D=A"), lines("@R13", "D=A"));
+        testCase("dead-m-store", optimize("@R13", "M=D", "M=1"), lines("@R13", "M=1"));
+
+        // 一致してはいけない例
+        testCase("Aを書き換える命令を挟む", optimize("@R13", "AM=M+1", "@R13", "D=M"), lines("@R13", "AM=M+1", "@R13", "D=M"));
+        testCase("ジャンプを挟む", optimize("@R13", "D;JGT", "@R13", "D=M"), lines("@R13", "D;JGT", "@R13", "D=M"));
+        testCase("Dを読む命令", optimize("@R13", "D=M", "D=D+A"), lines("@R13", "D=M", "D=D+A"));
+        testCase("Mを読む命令", optimize("@R13", "M=D", "M=M+1"), lines("@R13", "M=D", "M=M+1"));
+    }
+
+    /**
+     * ラベルのテスト - ジャンプ先をまたいで書き換えないか
+     */
+    private static void testLabels() {
+        System.out.println("\n----- ラベルのテスト -----");
+
+        testCase("ラベルをまたがない",
+                optimize("@SP", "M=M+1", "(LOOP)", "@SP", "M=M-1"),
+                lines("@SP", "M=M+1", "(LOOP)", "@SP", "M=M-1"));
+        testCase("ラベルの後は書き換える",
+                optimize("(LOOP)", "@R13", "@R14", "0;JMP"),
+                lines("(LOOP)", "@R14", "0;JMP"));
+    }
+
+    /**
+     * コメントのテスト - コメント行を読み飛ばして一致させ、出力に残すか、行の対応は正しいか
+     */
+    private static void testComments() {
+        System.out.println("\n----- コメントのテスト -----");
+
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        List<String> result = optimizer.optimize(lines(
+                "// push local 0", "@SP", "M=M+1", "// pop temp 0", "@SP", "M=M-1", "A=M", "D=M // 値"));
+        testCase("コメントを残す", result, lines("// push local 0", "@SP", "// pop temp 0", "A=M", "D=M // 値"));
+        testCase("削除した命令数", optimizer.getRemovedInstructions(), 3);
+        int[] lineMap = optimizer.getLineMap();
+        testCase("行の対応 (残った行)", lineMap[4], 3);
+        testCase("行の対応 (削除した行)", lineMap[5], 4);
+        testCase("行の対応 (末尾)", lineMap[8], 5);
+    }
+
+    /**
+     * 規則の選択のテスト
+     */
+    private static void testRuleSelection() {
+        System.out.println("\n----- 規則の選択のテスト -----");
+
+        PeepholeOptimizer onlyDeadA = new PeepholeOptimizer(Collections.singleton("dead-a-load"));
+        testCase("指定した規則だけを使う",
+                onlyDeadA.optimize(lines("@R13", "@R14", "D=M", "D=A")),
+                lines("@R14", "D=M", "D=A"));
+        testCase("規則の一覧", Rule.names().contains("sp-cancel"), true);
+        try {
+            new PeepholeOptimizer(Collections.singleton("no-such-rule"));
+            testCase("不明な規則", "例外なし", "例外発生");
+        } catch (IllegalArgumentException e) {
+            testCase("不明な規則", "例外発生", "例外発生");
+        }
+    }
+
+    private static List<String> optimize(String... source) {
+        return new PeepholeOptimizer().optimize(lines(source));
+    }
+
+    private static List<String> lines(String... lines) {
+        return Arrays.asList(lines);
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
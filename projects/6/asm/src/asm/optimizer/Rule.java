@@ -0,0 +1,206 @@
+package asm.optimizer;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Rule.java - 覗き穴最適化の書き換え規則
+ *
+ * 各規則は連続する window() 個の命令 (空白とコメントを除いた文字列) を受け取り、
+ * 同じ結果になる短い命令列を返します (一致しない場合は null)。
+ * どの規則もジャンプ命令の前後で制御の流れを変えず、ジャンプ先 (ラベル) をまたいだ窓は
+ * PeepholeOptimizer が渡さないので、窓の中だけを見て判断できます。
+ */
+public enum Rule {
+    /**
+     * スタックポインタの増減の打ち消し
+     * @SP / M=M+1 / @SP / M=M-1 → @SP (push の直後の pop で生じる)
+     */
+    SP_CANCEL("sp-cancel", 4) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (window[0].equals("@SP") && window[1].equals("M=M+1")
+                    && window[2].equals("@SP") && window[3].equals("M=M-1")) {
+                return new String[] {"@SP"};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * スタックトップへの格納の直後の再読み込み
+     * @SP / A=M / M=D / @SP / A=M → @SP / A=M / M=D
+     * (Aは *SP のまま変わらない。スタックポインタが自分自身を指すことはない)
+     */
+    SP_RELOAD("sp-reload", 5) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (window[0].equals("@SP") && window[1].equals("A=M") && window[2].equals("M=D")
+                    && window[3].equals("@SP") && window[4].equals("A=M")) {
+                return new String[] {window[0], window[1], window[2]};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * 格納した値の再読み込み
+     * M=D / D=M → M=D (MD=... / D=M も同様)
+     */
+    STORE_RELOAD("store-reload", 2) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (!isC(window[0]) || hasJump(window[0]) || !window[1].equals("D=M")) {
+                return null;
+            }
+            String dest = dest(window[0]);
+            if (dest.contains("M") && !dest.contains("A") && (dest.contains("D") || comp(window[0]).equals("D"))) {
+                return new String[] {window[0]};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * 使われないAレジスタへの読み込み
+     * @X / @Y → @Y、A=... / @Y → @Y
+     */
+    DEAD_A_LOAD("dead-a-load", 2) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (!isA(window[1])) {
+                return null;
+            }
+            if (isA(window[0]) || (dest(window[0]).equals("A") && !hasJump(window[0]))) {
+                return new String[] {window[1]};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * 同じ値のAレジスタへの再読み込み
+     * @X / (Aを書き換えない命令) / @X → @X / (命令)
+     */
+    REDUNDANT_A_LOAD("redundant-a-load", 3) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (isA(window[0]) && window[0].equals(window[2])
+                    && isC(window[1]) && !dest(window[1]).contains("A") && !hasJump(window[1])) {
+                return new String[] {window[0], window[1]};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * 読まれる前に上書きされるDレジスタへの格納
+     * D=x / D=y (yがDを読まない) → D=y
+     */
+    DEAD_D_STORE("dead-d-store", 2) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (isC(window[0]) && dest(window[0]).equals("D") && !hasJump(window[0])
+                    && isC(window[1]) && dest(window[1]).contains("D") && !comp(window[1]).contains("D")) {
+                return new String[] {window[1]};
+            }
+            return null;
+        }
+    },
+
+    /**
+     * 読まれる前に上書きされるメモリへの格納
+     * M=x / M=y (yがMを読まない) → M=y
+     */
+    DEAD_M_STORE("dead-m-store", 2) {
+        @Override
+        String[] rewrite(String[] window) {
+            if (isC(window[0]) && dest(window[0]).equals("M") && !hasJump(window[0])
+                    && isC(window[1]) && dest(window[1]).contains("M") && !comp(window[1]).contains("M")) {
+                return new String[] {window[1]};
+            }
+            return null;
+        }
+    };
+
+    // 規則の窓の最大の大きさ
+    static final int MAX_WINDOW = 5;
+
+    private final String name;
+    private final int window;
+
+    Rule(String name, int window) {
+        this.name = name;
+        this.window = window;
+    }
+
+    /**
+     * 規則の名前 (コマンドラインで指定する名前)
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 窓の大きさ (命令数)
+     */
+    int window() {
+        return window;
+    }
+
+    /**
+     * 窓の命令列を書き換える
+     * @param window window() 個の命令 (空白とコメントを除いたもの)
+     * @return 置き換える命令列 (window() 個以下)、一致しない場合は null
+     */
+    abstract String[] rewrite(String[] window);
+
+    /**
+     * 全ての規則の名前
+     */
+    public static Set<String> names() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Rule rule : values()) {
+            names.add(rule.name);
+        }
+        return names;
+    }
+
+    /**
+     * 名前から規則を返す
+     * @throws IllegalArgumentException 該当する規則がない場合
+     */
+    public static Rule forName(String name) {
+        for (Rule rule : values()) {
+            if (rule.name.equals(name)) {
+                return rule;
+            }
+        }
+        throw new IllegalArgumentException("不明な規則: " + name);
+    }
+
+    // ----- 命令の分解 -----
+
+    private static boolean isA(String instruction) {
+        return instruction.startsWith("@");
+    }
+
+    private static boolean isC(String instruction) {
+        return !isA(instruction);
+    }
+
+    private static String dest(String instruction) {
+        int equal = instruction.indexOf('=');
+        return isA(instruction) || equal == -1 ? "" : instruction.substring(0, equal);
+    }
+
+    private static String comp(String instruction) {
+        int equal = instruction.indexOf('=');
+        int semicolon = instruction.indexOf(';');
+        return instruction.substring(equal + 1, semicolon == -1 ? instruction.length() : semicolon);
+    }
+
+    private static boolean hasJump(String instruction) {
+        return instruction.indexOf(';') != -1;
+    }
+}
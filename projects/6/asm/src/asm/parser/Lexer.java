@@ -0,0 +1,330 @@
+package asm.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lexer.java - メモリマップによるアセンブリコード字句解析クラス
+ * ファイルを FileChannel.map でマップし、ASCIIバイト列を直接走査します。
+ * 各コマンドは行ごとのStringを作らず、バッファ内のオフセット/長さとして扱います。
+ * シンボルやニーモニックが必要な場合は内部表で共有されたStringを返します。
+ */
+public class Lexer implements Closeable {
+    // コマンドタイプ (Parser と共通)
+    public static final int A_COMMAND = Parser.A_COMMAND;
+    public static final int C_COMMAND = Parser.C_COMMAND;
+    public static final int L_COMMAND = Parser.L_COMMAND;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int limit;
+    // 次に走査するバイト位置
+    private int position = 0;
+
+    // 現在のコマンド [start, end) (コマンドがない場合は start = -1)
+    private int start = -1;
+    private int end = -1;
+    private int type = -1;
+    // C命令の '=' と ';' の位置 (ない場合は -1)
+    private int equalPos = -1;
+    private int semicolonPos = -1;
+
+    // トークンの共有表 (オープンアドレス法)
+    private String[] tokens = new String[256];
+    private int[] tokenHashes = new int[256];
+    private int tokenCount = 0;
+
+    public Lexer(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        limit = buffer.limit();
+        // 最初のコマンドを現在のコマンドに設定
+        advance();
+    }
+
+    /**
+     * メモリ上のバッファ (またはその一部) を字句解析する
+     * ByteBuffer.wrap(bytes, off, len) のように position が0でないバッファも、position から走査します。
+     * オフセットは position を0とした位置になります
+     * @param buffer ASCIIのアセンブリコード (position から limit まで)
+     */
+    public Lexer(ByteBuffer buffer) {
+        channel = null;
+        this.buffer = buffer.slice();
+        limit = this.buffer.limit();
+        advance();
+    }
+
+    public boolean hasMoreCommands() {
+        return start != -1;
+    }
+
+    /**
+     * 次のコマンドに進む
+     * コメント (//) と前後の空白を除き、空行を読み飛ばします
+     */
+    public void advance() {
+        start = -1;
+        while (position < limit) {
+            int lineStart = position;
+            int lineEnd = lineStart;
+            // 行末を探す
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            position = lineEnd + 1;
+
+            // コメント削除 (//)
+            for (int i = lineStart; i + 1 < lineEnd; i++) {
+                if (buffer.get(i) == '/' && buffer.get(i + 1) == '/') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+
+            // 空白削除 (String.trim と同じく ' ' 以下の文字を除く)
+            while (lineStart < lineEnd && (buffer.get(lineStart) & 0xff) <= ' ') {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && (buffer.get(lineEnd - 1) & 0xff) <= ' ') {
+                lineEnd--;
+            }
+
+            // 空行スキップ
+            if (lineStart < lineEnd) {
+                start = lineStart;
+                end = lineEnd;
+                classify();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 現在のコマンドの種類を判定し、C命令の区切り位置を記録する
+     */
+    private void classify() {
+        equalPos = -1;
+        semicolonPos = -1;
+        byte first = buffer.get(start);
+        if (first == '@') {
+            type = A_COMMAND;
+        } else if (first == '(' && buffer.get(end - 1) == ')') {
+            type = L_COMMAND;
+        } else {
+            type = C_COMMAND;
+            for (int i = start; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b == '=' && equalPos == -1) {
+                    equalPos = i;
+                } else if (b == ';' && semicolonPos == -1) {
+                    semicolonPos = i;
+                }
+            }
+        }
+    }
+
+    public int instructionType() {
+        return type;
+    }
+
+    // ----- オフセット/長さによるビュー -----
+
+    public byte byteAt(int offset) {
+        return buffer.get(offset);
+    }
+
+    public int symbolStart() {
+        return start + 1;
+    }
+
+    public int symbolEnd() {
+        return type == L_COMMAND ? end - 1 : end;
+    }
+
+    public int destStart() {
+        return start;
+    }
+
+    public int destEnd() {
+        return equalPos == -1 ? start : equalPos;
+    }
+
+    public int compStart() {
+        return equalPos == -1 ? start : equalPos + 1;
+    }
+
+    public int compEnd() {
+        return semicolonPos == -1 ? end : semicolonPos;
+    }
+
+    public int jumpStart() {
+        return semicolonPos == -1 ? end : semicolonPos + 1;
+    }
+
+    public int jumpEnd() {
+        return end;
+    }
+
+    // ----- 共有トークン -----
+
+    public String symbol() {
+        if (type == C_COMMAND) {
+            return "";
+        }
+        return token(symbolStart(), symbolEnd());
+    }
+
+    public String dest() {
+        if (type != C_COMMAND) {
+            return "";
+        }
+        return token(destStart(), destEnd());
+    }
+
+    public String comp() {
+        if (type != C_COMMAND) {
+            return "";
+        }
+        return token(compStart(), compEnd());
+    }
+
+    public String jump() {
+        if (type != C_COMMAND) {
+            return "";
+        }
+        return token(jumpStart(), jumpEnd());
+    }
+
+    /**
+     * A命令のシンボルが10進数の定数かどうか (Integer.parseInt が成功する形式か)
+     */
+    public boolean isNumber() {
+        return type == A_COMMAND && parseNumber(symbolStart(), symbolEnd()) != Long.MIN_VALUE;
+    }
+
+    /**
+     * A命令の定数値を返す (isNumber が true の場合のみ有効)
+     */
+    public int number() {
+        return (int) parseNumber(symbolStart(), symbolEnd());
+    }
+
+    /**
+     * [from, to) を10進数として解析する
+     * @return 値 (int に収まらない場合や数値でない場合は Long.MIN_VALUE)
+     */
+    private long parseNumber(int from, int to) {
+        if (from == to) {
+            return Long.MIN_VALUE;
+        }
+        boolean negative = false;
+        byte first = buffer.get(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            from++;
+            if (from == to) {
+                return Long.MIN_VALUE;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return Long.MIN_VALUE;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return value;
+    }
+
+    /**
+     * [from, to) のバイト列に対応する共有Stringを返す
+     * 同じ綴りのトークンには常に同じインスタンスを返し、初出のときだけStringを作成します
+     */
+    private String token(int from, int to) {
+        if (from == to) {
+            return "";
+        }
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + (buffer.get(i) & 0xff);
+        }
+        int mask = tokens.length - 1;
+        int slot = mix(hash) & mask;
+        while (tokens[slot] != null) {
+            if (tokenHashes[slot] == hash && sameBytes(tokens[slot], from, to)) {
+                return tokens[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (buffer.get(i) & 0xff);
+        }
+        String token = new String(chars);
+        tokens[slot] = token;
+        tokenHashes[slot] = hash;
+        tokenCount++;
+        if (tokenCount * 2 > tokens.length) {
+            growTokens();
+        }
+        return token;
+    }
+
+    private boolean sameBytes(String token, int from, int to) {
+        if (token.length() != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (token.charAt(i - from) != (buffer.get(i) & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growTokens() {
+        String[] oldTokens = tokens;
+        int[] oldHashes = tokenHashes;
+        tokens = new String[oldTokens.length * 2];
+        tokenHashes = new int[oldTokens.length * 2];
+        int mask = tokens.length - 1;
+        for (int i = 0; i < oldTokens.length; i++) {
+            if (oldTokens[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while (tokens[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                tokens[slot] = oldTokens[i];
+                tokenHashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * ファイルを閉じる
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package asm.parser;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class LexerTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    public static void main(String[] args) {
+        try {
+            // テストファイルの作成
+            createTestFile("lexerTest.asm");
+
+            // テスト実行
+            runTests("lexerTest.asm");
+            runBufferTests();
+
+            // 結果出力
+            System.out.println("\n===== テスト結果概要 =====");
+            System.out.println("実行: " + totalTests + " テスト");
+            System.out.println("成功: " + passedTests + " テスト");
+            System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+            if (passedTests == totalTests) {
+                System.out.println("全テスト成功！");
+            } else {
+                System.out.println("テスト失敗あり。上記エラーを確認してください。");
+            }
+
+            // テスト後のクリーンアップ
+            Files.deleteIfExists(Paths.get("lexerTest.asm"));
+        } catch (Exception e) {
+            System.err.println("テスト実行中にエラー発生: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void createTestFile(String filename) throws IOException {
+        try (FileWriter writer = new FileWriter(filename)) {
+            // テスト用アセンブリコード (コメント、空白、CRLFを含む)
+            writer.write("// テスト用コード\n");
+            writer.write("   @100   // 定数\r\n");
+            writer.write("\n");
+            writer.write("AMD=D+1;JGT\n");
+            writer.write("(LOOP)\n");
+            writer.write("@LOOP\n");
+            writer.write("0;JMP");
+        }
+        System.out.println("テスト用ファイル作成: " + filename);
+    }
+
+    private static void runTests(String filename) throws IOException {
+        System.out.println("===== Lexer テスト開始 =====");
+        Lexer lexer = new Lexer(filename);
+
+        // テスト1: A命令 (@100)
+        testCase("A命令の解析",
+            lexer.hasMoreCommands() &&
+            lexer.instructionType() == Lexer.A_COMMAND &&
+            lexer.isNumber() &&
+            lexer.number() == 100 &&
+            lexer.symbol().equals("100"));
+
+        // テスト2: C命令 (AMD=D+1;JGT)
+        lexer.advance();
+        testCase("C命令(dest+comp+jump)の解析",
+            lexer.instructionType() == Lexer.C_COMMAND &&
+            lexer.dest().equals("AMD") &&
+            lexer.comp().equals("D+1") &&
+            lexer.jump().equals("JGT"));
+
+        // テスト3: オフセットによるビュー
+        testCase("compのオフセット",
+            lexer.compEnd() - lexer.compStart() == 3 &&
+            lexer.byteAt(lexer.compStart()) == 'D');
+
+        // テスト4: L命令 ((LOOP))
+        lexer.advance();
+        String label = lexer.symbol();
+        testCase("L命令の解析",
+            lexer.instructionType() == Lexer.L_COMMAND &&
+            label.equals("LOOP"));
+
+        // テスト5: 同じ綴りのシンボルは同じインスタンス
+        lexer.advance();
+        testCase("シンボルの共有",
+            lexer.instructionType() == Lexer.A_COMMAND &&
+            !lexer.isNumber() &&
+            lexer.symbol() == label);
+
+        // テスト6: 改行なしの最終行
+        lexer.advance();
+        testCase("最終行の解析",
+            lexer.instructionType() == Lexer.C_COMMAND &&
+            lexer.dest().equals("") &&
+            lexer.comp().equals("0") &&
+            lexer.jump().equals("JMP"));
+
+        // テスト7: ファイル終端
+        lexer.advance();
+        testCase("ファイル終端の処理", !lexer.hasMoreCommands());
+
+        lexer.close();
+    }
+
+    private static void runBufferTests() {
+        System.out.println("\n===== バッファの一部の字句解析テスト =====");
+        // 範囲の前後にもコマンドがある配列の、"@7\nD=A\n" の部分だけを渡す
+        byte[] bytes = "@999\nM=0\n@7\nD=A\n@888\n".getBytes();
+        int offset = "@999\nM=0\n".length();
+        Lexer lexer = new Lexer(ByteBuffer.wrap(bytes, offset, "@7\nD=A\n".length()));
+
+        testCase("positionから走査",
+            lexer.hasMoreCommands() &&
+            lexer.instructionType() == Lexer.A_COMMAND &&
+            lexer.number() == 7);
+
+        lexer.advance();
+        testCase("範囲内の次のコマンド",
+            lexer.instructionType() == Lexer.C_COMMAND &&
+            lexer.dest().equals("D") &&
+            lexer.comp().equals("A"));
+
+        // オフセットは position を0とした位置
+        testCase("positionからのオフセット", lexer.destStart() == 3);
+
+        lexer.advance();
+        testCase("limitで終了", !lexer.hasMoreCommands());
+    }
+
+    private static void testCase(String testName, boolean condition) {
+        totalTests++;
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+
+        if (condition) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗ - 条件が満たされていません");
+        }
+    }
+}
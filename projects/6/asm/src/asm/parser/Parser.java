@@ -5,9 +5,19 @@ import java.io.FileReader;
 import java.io.IOException;
 
 public class Parser {
+    // コマンドタイプ
+    public static final int A_COMMAND = 0;
+    public static final int C_COMMAND = 1;
+    public static final int L_COMMAND = 2;
+
     BufferedReader reader;
     String currentCommand = null;
     String nextCommand = null;
+    // 現在のコマンドの種類 (advance時に一度だけ判定する)
+    int commandType = -1;
+    // C命令の '=' と ';' の位置 (ない場合は -1)
+    private int equalPos = -1;
+    private int semicolonPos = -1;
 
     public Parser(String filename) throws IOException {
         reader = new BufferedReader(new FileReader(filename));
@@ -45,72 +55,91 @@ public class Parser {
 
     public void advance() throws IOException {
         currentCommand = nextCommand;
+        classify();
         readNextCommand();
     }
+
+    // 現在のコマンドの種類を判定し、C命令の区切り位置を記録する
+    private void classify() {
+        equalPos = -1;
+        semicolonPos = -1;
+        if (currentCommand == null) {
+            commandType = -1;
+        } else if (currentCommand.charAt(0) == '@') {
+            commandType = A_COMMAND;
+        } else if (currentCommand.charAt(0) == '(' && currentCommand.endsWith(")")) {
+            commandType = L_COMMAND;
+        } else {
+            commandType = C_COMMAND;
+            equalPos = currentCommand.indexOf('=');
+            semicolonPos = currentCommand.indexOf(';');
+        }
+    }
     
     // デバッグ用メソッド
     public String getCurrentCommand() {
         return currentCommand;
     }
 
+    /**
+     * 現在のコマンドの種類を返す
+     * @return A_COMMAND, C_COMMAND, L_COMMAND のいずれか (コマンドがない場合は -1)
+     */
+    public int commandType() {
+        return commandType;
+    }
+
+    /**
+     * 現在のC命令の '=' の位置を返す (advance時に記録した値)
+     * @return currentCommand 内の位置 (C命令でないか '=' がない場合は -1)
+     */
+    public int getEqualPos() {
+        return equalPos;
+    }
+
+    /**
+     * 現在のC命令の ';' の位置を返す (advance時に記録した値)
+     * @return currentCommand 内の位置 (C命令でないか ';' がない場合は -1)
+     */
+    public int getSemicolonPos() {
+        return semicolonPos;
+    }
+
     public String instructionType() {
-        if (currentCommand.startsWith("@")) {
-            return "A_COMMAND";
-        } else if (currentCommand.startsWith("(") && currentCommand.endsWith(")")) {
-            return "L_COMMAND";
-        } else {
-            return "C_COMMAND";
+        switch (commandType) {
+            case A_COMMAND: return "A_COMMAND";
+            case L_COMMAND: return "L_COMMAND";
+            default:        return "C_COMMAND";
         }
     }
 
     public String symbol() {
-        if (instructionType().equals("A_COMMAND")) {
+        if (commandType == A_COMMAND) {
             return currentCommand.substring(1);
-        } else if (instructionType().equals("L_COMMAND")) {
+        } else if (commandType == L_COMMAND) {
             return currentCommand.substring(1, currentCommand.length() - 1);
         }
         return "";
     }
 
     public String dest() {
-        if (!instructionType().equals("C_COMMAND"))
-            return "";
-
-        int equalPos = currentCommand.indexOf('=');
-        if (equalPos == -1)
+        if (commandType != C_COMMAND || equalPos == -1)
             return "";
 
         return currentCommand.substring(0, equalPos);
     }
 
     public String comp() {
-        if (!instructionType().equals("C_COMMAND"))
+        if (commandType != C_COMMAND)
             return "";
 
-        int equalPos = currentCommand.indexOf('=');
-        int semicolonPos = currentCommand.indexOf(';');
-
-        if (equalPos == -1) {
-            if (semicolonPos == -1) {
-                return currentCommand;
-            } else {
-                return currentCommand.substring(0, semicolonPos);
-            }
-        } else {
-            if (semicolonPos == -1) {
-                return currentCommand.substring(equalPos + 1);
-            } else {
-                return currentCommand.substring(equalPos + 1, semicolonPos);
-            }
-        }
+        int start = equalPos == -1 ? 0 : equalPos + 1;
+        int end = semicolonPos == -1 ? currentCommand.length() : semicolonPos;
+        return currentCommand.substring(start, end);
     }
 
     public String jump() {
-        if (!instructionType().equals("C_COMMAND"))
-            return "";
-
-        int semicolonPos = currentCommand.indexOf(';');
-        if (semicolonPos == -1)
+        if (commandType != C_COMMAND || semicolonPos == -1)
             return "";
 
         return currentCommand.substring(semicolonPos + 1);
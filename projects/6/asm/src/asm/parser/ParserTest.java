@@ -69,7 +69,10 @@ public class ParserTest {
         testCase("A命令の解析", 
             parser.hasMoreCommands() && 
             parser.instructionType().equals("A_COMMAND") && 
-            parser.symbol().equals("100"));
+            parser.commandType() == Parser.A_COMMAND && 
+            parser.symbol().equals("100") && 
+            parser.getEqualPos() == -1 && 
+            parser.getSemicolonPos() == -1);
         
         // テスト2: C命令 (D=A)
         parser.advance();
@@ -83,9 +86,12 @@ public class ParserTest {
         testCase("C命令(dest+comp)の解析", 
             parser.hasMoreCommands() && 
             parser.instructionType().equals("C_COMMAND") && 
+            parser.commandType() == Parser.C_COMMAND && 
             parser.dest().equals("D") && 
             parser.comp().equals("A") && 
-            parser.jump().equals(""));
+            parser.jump().equals("") && 
+            parser.getEqualPos() == 1 && 
+            parser.getSemicolonPos() == -1);
         
         // @i をスキップ
         parser.advance();
@@ -118,6 +124,7 @@ public class ParserTest {
         testCase("L命令の解析", 
             parser.hasMoreCommands() && 
             parser.instructionType().equals("L_COMMAND") && 
+            parser.commandType() == Parser.L_COMMAND && 
             parser.symbol().equals("LOOP"));
         
         // @i, D=M, @LOOP をスキップ
@@ -143,14 +150,16 @@ public class ParserTest {
             parser.instructionType().equals("C_COMMAND") && 
             parser.dest().equals("") && 
             parser.comp().equals("D") && 
-            parser.jump().equals("JGT"));
+            parser.jump().equals("JGT") && 
+            parser.getEqualPos() == -1 && 
+            parser.getSemicolonPos() == 1);
         
         // テスト6: ファイル終端
         parser.advance();
         System.out.println("\nテスト6のデバッグ情報:");
         System.out.println("hasMoreCommands: " + parser.hasMoreCommands());
         
-        testCase("ファイル終端の処理", !parser.hasMoreCommands());
+        testCase("ファイル終端の処理", !parser.hasMoreCommands() && parser.commandType() == -1);
     }
 
     private static void testCase(String testName, boolean condition) {
@@ -1,24 +1,139 @@
 package asm.symbol;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * SymbolTable.java - シンボルテーブル管理クラス
  * Hackアセンブリのシンボルと対応するアドレスを管理します
+ *
+ * オープンアドレス法 (線形探索) のハッシュ表で、キーの文字列はバイト配列 (アリーナ) に
+ * 詰めて保持し、アドレスはプリミティブの int のまま格納します。
+ * ASCII以外の文字を含むシンボルはまれなので、通常のMapで扱います。
+ *
+ * 事前定義シンボルだけを持つ表は凍結 (変更不可) した共有インスタンスとして一度だけ作成します。
+ * new SymbolTable() はその配列を共有したまま作成され、最初の追加時にだけ複製します (コピーオンライト)。
+ * 凍結した表は変更されないので、複数のアセンブルから同時に利用できます。
  */
 public class SymbolTable {
-    // シンボルとアドレスのマップ
-    private Map<String, Integer> symbolTable;
-    
+    // 空きスロットを表す値
+    private static final int EMPTY = -1;
+    // 未登録のシンボルを表すアドレス
+    public static final int NOT_FOUND = -1;
+
+    // スロットの表 - 1スロットにつき4要素 (キーのハッシュ値、アリーナ内の位置、長さ、アドレス) を
+    // 並べて格納し、1回の探索で同じキャッシュラインに収まるようにする
+    private static final int HASH = 0;
+    private static final int OFFSET = 1;
+    private static final int LENGTH = 2;
+    private static final int ADDRESS = 3;
+    private static final int STRIDE = 4;
+    private int[] slots;
+    private int capacity;
+    private int size = 0;
+
+    // キーの文字列を詰めて格納するアリーナ
+    private byte[] arena = new byte[4096];
+    private int arenaSize = 0;
+    // ASCII以外の文字を含むシンボル
+    private Map<String, Integer> otherSymbols;
+
+    // 次に割り当てられる変数アドレス (R15の後から開始)
+    private int nextVariableAddress = 16;
+
+    // 凍結済み (変更不可) かどうか
+    private boolean frozen = false;
+    // 配列を凍結した表と共有しているかどうか (最初の変更時に複製する)
+    private boolean shared = false;
+
+    // 事前定義シンボルだけを持つ共有の表
+    private static final SymbolTable PREDEFINED = createPredefined();
+
     /**
-     * コンストラクタ - シンボルテーブルを初期化
+     * コンストラクタ - 事前定義シンボルを持つシンボルテーブルを作成
      */
     public SymbolTable() {
-        symbolTable = new HashMap<>();
-        initSymbolTable();
+        this(PREDEFINED);
+    }
+
+    /**
+     * コンストラクタ - 凍結した表を土台にシンボルテーブルを作成
+     * 土台の配列は最初の変更まで共有します
+     * @param base 凍結済みのシンボルテーブル
+     */
+    public SymbolTable(SymbolTable base) {
+        if (!base.frozen) {
+            throw new IllegalArgumentException("土台のシンボルテーブルは凍結されている必要があります");
+        }
+        slots = base.slots;
+        capacity = base.capacity;
+        size = base.size;
+        arena = base.arena;
+        arenaSize = base.arenaSize;
+        otherSymbols = base.otherSymbols;
+        nextVariableAddress = base.nextVariableAddress;
+        shared = true;
+    }
+
+    /**
+     * 空のシンボルテーブルを作成 (事前定義シンボルの表の作成用)
+     */
+    private SymbolTable(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * 事前定義シンボルの共有の表を作成
+     */
+    private static SymbolTable createPredefined() {
+        SymbolTable table = new SymbolTable(64);
+        table.initSymbolTable();
+        table.arena = Arrays.copyOf(table.arena, table.arenaSize);
+        return table.freeze();
+    }
+
+    /**
+     * 事前定義シンボルだけを持つ凍結済みの共有の表を返す
+     */
+    public static SymbolTable predefined() {
+        return PREDEFINED;
+    }
+
+    /**
+     * この表を凍結する (以後の変更は UnsupportedOperationException)
+     * 凍結した表は new SymbolTable(base) の土台として共有できます
+     * @return この表
+     */
+    public SymbolTable freeze() {
+        frozen = true;
+        return this;
     }
-    
+
+    /**
+     * 凍結済みかどうか
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * 変更の前に呼び出す - 凍結済みなら例外、共有中なら配列を複製する
+     */
+    private void ensureWritable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("凍結されたシンボルテーブルは変更できません");
+        }
+        if (shared) {
+            slots = slots.clone();
+            arena = Arrays.copyOf(arena, Math.max(4096, arena.length));
+            if (otherSymbols != null) {
+                otherSymbols = new HashMap<>(otherSymbols);
+            }
+            shared = false;
+        }
+    }
+
     /**
      * 初期シンボルテーブルをセットアップ
      */
@@ -35,31 +150,233 @@ public class SymbolTable {
         addEntry("THIS", 3);
         addEntry("THAT", 4);
     }
-    
+
     /**
      * シンボルテーブルにエントリを追加
      * @param symbol シンボル名
-     * @param address アドレス値
+     * @param address アドレス値 (0以上、負の値は NOT_FOUND と区別できないので受け付けない)
      */
     public void addEntry(String symbol, int address) {
-        symbolTable.put(symbol, address);
+        if (address < 0) {
+            throw new IllegalArgumentException("シンボルのアドレスが負です: " + symbol + " = " + address);
+        }
+        ensureWritable();
+        if (!isAscii(symbol)) {
+            otherSymbols().put(symbol, address);
+            return;
+        }
+        int hash = symbol.hashCode();
+        int slot = find(symbol, hash);
+        if (slots[slot + OFFSET] == EMPTY) {
+            insert(slot, symbol, hash, address);
+        } else {
+            slots[slot + ADDRESS] = address;
+        }
+    }
+
+    /**
+     * シンボルをテーブルから取り除く
+     * 線形探索の表なので、後ろに続く同じ塊のスロットを空いた位置に詰め直します (削除済みの印は使わない)。
+     * キーの文字列はアリーナに残ります。
+     * @param symbol 取り除くシンボル名
+     * @return 登録されていて取り除いた場合はtrue
+     */
+    public boolean remove(String symbol) {
+        ensureWritable();
+        if (!isAscii(symbol)) {
+            return otherSymbols != null && otherSymbols.remove(symbol) != null;
+        }
+        int slot = find(symbol, symbol.hashCode());
+        if (slots[slot + OFFSET] == EMPTY) {
+            return false;
+        }
+        int mask = capacity - 1;
+        int hole = slot / STRIDE;
+        for (int index = (hole + 1) & mask; slots[index * STRIDE + OFFSET] != EMPTY; index = (index + 1) & mask) {
+            // 本来の位置から見て空いた位置が手前にある (空いた位置に移しても探索で見つかる) スロットだけを詰める
+            int home = mix(slots[index * STRIDE + HASH]) & mask;
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                System.arraycopy(slots, index * STRIDE, slots, hole * STRIDE, STRIDE);
+                hole = index;
+            }
+        }
+        slots[hole * STRIDE + OFFSET] = EMPTY;
+        size--;
+        return true;
     }
-    
+
     /**
      * シンボルがテーブルに含まれているかを確認
      * @param symbol 確認するシンボル名
      * @return シンボルが含まれていればtrue、そうでなければfalse
      */
     public boolean contains(String symbol) {
-        return symbolTable.containsKey(symbol);
+        return get(symbol) != NOT_FOUND;
     }
-    
+
     /**
      * シンボルのアドレスを取得
      * @param symbol アドレスを取得するシンボル名
      * @return シンボルに対応するアドレス（存在しない場合はnull）
      */
     public Integer getAddress(String symbol) {
-        return symbolTable.get(symbol);
+        int address = get(symbol);
+        return address == NOT_FOUND ? null : address;
+    }
+
+    /**
+     * シンボルのアドレスをプリミティブ値で取得
+     * @param symbol アドレスを取得するシンボル名
+     * @return シンボルに対応するアドレス（存在しない場合は NOT_FOUND）
+     */
+    public int get(String symbol) {
+        // ASCII以外の文字を含むキーはアリーナ内のキーと一致しないので、見つからなければMapを確認する
+        int slot = find(symbol, symbol.hashCode());
+        if (slots[slot + OFFSET] != EMPTY) {
+            return slots[slot + ADDRESS];
+        }
+        if (otherSymbols != null) {
+            Integer address = otherSymbols.get(symbol);
+            if (address != null) {
+                return address;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * シンボルのアドレスを取得し、未登録なら次の変数アドレスを割り当てる
+     * 検索と登録を1回の探索で行います
+     * @param symbol シンボル名
+     * @return シンボルに対応するアドレス
+     */
+    public int getOrAssign(String symbol) {
+        int hash = symbol.hashCode();
+        int slot = find(symbol, hash);
+        if (slots[slot + OFFSET] != EMPTY) {
+            return slots[slot + ADDRESS];
+        }
+        ensureWritable();
+        if (!isAscii(symbol)) {
+            Integer address = otherSymbols().get(symbol);
+            if (address == null) {
+                address = nextVariableAddress++;
+                otherSymbols.put(symbol, address);
+            }
+            return address;
+        }
+        int address = nextVariableAddress++;
+        insert(slot, symbol, hash, address);
+        return address;
+    }
+
+    /**
+     * 登録されているシンボルの数を返す
+     */
+    public int size() {
+        return size + (otherSymbols == null ? 0 : otherSymbols.size());
+    }
+
+    /**
+     * シンボルのスロットを探す
+     * @return シンボルがあればそのスロットの先頭位置、なければ挿入先の空きスロットの先頭位置
+     */
+    private int find(String symbol, int hash) {
+        int length = symbol.length();
+        int mask = capacity - 1;
+        int index = mix(hash) & mask;
+        while (true) {
+            int slot = index * STRIDE;
+            int offset = slots[slot + OFFSET];
+            if (offset == EMPTY) {
+                return slot;
+            }
+            if (slots[slot + HASH] == hash && slots[slot + LENGTH] == length
+                    && keyEquals(symbol, offset, length)) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * アリーナ内のキーとシンボルを1文字ずつ比較する
+     * アリーナにはASCII文字 (0〜127) だけを格納するので、ASCII以外の文字はどのバイトとも一致しない
+     */
+    private boolean keyEquals(String symbol, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != symbol.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, String symbol, int hash, int address) {
+        int length = symbol.length();
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        for (int i = 0; i < length; i++) {
+            arena[arenaSize + i] = (byte) symbol.charAt(i);
+        }
+        slots[slot + HASH] = hash;
+        slots[slot + OFFSET] = arenaSize;
+        slots[slot + LENGTH] = length;
+        slots[slot + ADDRESS] = address;
+        arenaSize += length;
+        size++;
+        // 負荷率が1/2を超えたら拡張する
+        if (size * 2 > capacity) {
+            rehash();
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        slots = new int[capacity * STRIDE];
+        for (int i = OFFSET; i < slots.length; i += STRIDE) {
+            slots[i] = EMPTY;
+        }
+    }
+
+    private void rehash() {
+        int[] oldSlots = slots;
+        allocate(capacity * 2);
+        int mask = capacity - 1;
+        for (int old = 0; old < oldSlots.length; old += STRIDE) {
+            if (oldSlots[old + OFFSET] != EMPTY) {
+                int index = mix(oldSlots[old + HASH]) & mask;
+                while (slots[index * STRIDE + OFFSET] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                System.arraycopy(oldSlots, old, slots, index * STRIDE, STRIDE);
+            }
+        }
+    }
+
+    /**
+     * ハッシュ値を攪拌する (黄金比の乗算で上位ビットを下位に広げる)
+     * "$1a" のような短い名前は String.hashCode が連続した小さな値になり、そのままでは線形探査の塊ができる
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isAscii(String symbol) {
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, Integer> otherSymbols() {
+        if (otherSymbols == null) {
+            otherSymbols = new HashMap<>();
+        }
+        return otherSymbols;
     }
-} 
\ No newline at end of file
+}
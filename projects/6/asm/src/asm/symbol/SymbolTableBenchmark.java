@@ -0,0 +1,124 @@
+package asm.symbol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SymbolTableBenchmark.java - SymbolTableの性能比較
+ *
+ * 以前の HashMap<String, Integer> による実装 (contains と getAddress の2回検索) と、
+ * 現在の SymbolTable.getOrAssign (1回の探索) を比較します。
+ * VMトランスレータの出力に近い "Foo.bar$ret.1234" 形式のラベルを使います。
+ *
+ * 使用法: java -cp bin asm.symbol.SymbolTableBenchmark [ラベル数] [参照回数]
+ */
+public class SymbolTableBenchmark {
+    // 計測の繰り返し回数 (最初の数回はウォームアップ)
+    private static final int ROUNDS = 10;
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int labelCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int referenceCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        System.out.println("===== SymbolTable ベンチマーク =====");
+        System.out.println("ラベル数: " + labelCount + ", 参照回数: " + referenceCount);
+
+        // ラベルと参照列を作成 (参照の1割は変数)
+        String[] labels = new String[labelCount];
+        for (int i = 0; i < labelCount; i++) {
+            labels[i] = "Class" + (i % 50) + ".function" + (i % 300) + "$ret." + i;
+        }
+        String[] references = new String[referenceCount];
+        long seed = 42;
+        for (int i = 0; i < referenceCount; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int index = (int) ((seed >>> 33) % labelCount);
+            // 毎回新しいStringにして、パーサーが作る部分文字列と同じ条件にする
+            references[i] = i % 10 == 0 ? new String("var" + (index % 500)) : new String(labels[index]);
+        }
+
+        long hashMapBest = Long.MAX_VALUE;
+        long symbolTableBest = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            String[] hashMapReferences = copy(references);
+            long start = System.nanoTime();
+            checksum += runHashMap(labels, hashMapReferences);
+            long hashMapTime = System.nanoTime() - start;
+
+            String[] symbolTableReferences = copy(references);
+            start = System.nanoTime();
+            checksum += runSymbolTable(labels, symbolTableReferences);
+            long symbolTableTime = System.nanoTime() - start;
+
+            if (round >= WARMUP_ROUNDS) {
+                hashMapBest = Math.min(hashMapBest, hashMapTime);
+                symbolTableBest = Math.min(symbolTableBest, symbolTableTime);
+            }
+        }
+
+        int operations = labelCount + referenceCount;
+        System.out.printf("HashMap<String, Integer>: %8.1f ns/op%n", (double) hashMapBest / operations);
+        System.out.printf("SymbolTable:              %8.1f ns/op%n", (double) symbolTableBest / operations);
+        System.out.printf("速度比: %.2f 倍%n", (double) hashMapBest / symbolTableBest);
+        System.out.println("(チェックサム: " + checksum + ")");
+    }
+
+    /**
+     * 以前の実装と同じ手順 - 事前定義シンボルの登録、ラベル登録、contains + getAddress
+     */
+    private static long runHashMap(String[] labels, String[] references) {
+        Map<String, Integer> table = new HashMap<>();
+        for (int i = 0; i <= 15; i++) {
+            table.put("R" + i, i);
+        }
+        table.put("SCREEN", 16384);
+        table.put("KBD", 24576);
+        table.put("SP", 0);
+        table.put("LCL", 1);
+        table.put("ARG", 2);
+        table.put("THIS", 3);
+        table.put("THAT", 4);
+
+        for (int i = 0; i < labels.length; i++) {
+            table.put(labels[i], i);
+        }
+        int nextVariableAddress = 16;
+        long sum = 0;
+        for (String symbol : references) {
+            if (!table.containsKey(symbol)) {
+                table.put(symbol, nextVariableAddress);
+                nextVariableAddress++;
+            }
+            sum += table.get(symbol);
+        }
+        return sum;
+    }
+
+    /**
+     * 現在の実装 - ラベル登録、getOrAssign
+     */
+    private static long runSymbolTable(String[] labels, String[] references) {
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < labels.length; i++) {
+            table.addEntry(labels[i], i);
+        }
+        long sum = 0;
+        for (String symbol : references) {
+            sum += table.getOrAssign(symbol);
+        }
+        return sum;
+    }
+
+    /**
+     * ハッシュ値がキャッシュされていない新しいStringの配列を作る
+     */
+    private static String[] copy(String[] strings) {
+        String[] result = new String[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            result[i] = new String(strings[i]);
+        }
+        return result;
+    }
+}
@@ -14,6 +14,10 @@ public class SymbolTableTest {
         testAddEntry();
         testContains();
         testGetAddress();
+        testGetOrAssign();
+        testManySymbols();
+        testSharedBase();
+        testRemove();
         
         // 結果概要
         System.out.println("\n===== テスト結果概要 =====");
@@ -104,6 +108,147 @@ public class SymbolTableTest {
         
         // 存在しないシンボルの場合
         testCase("存在しないシンボル", table.getAddress("NOTEXIST"), null);
+        
+        // 各文字の下位8ビット、長さ、ハッシュ値が "ABCDE" と同じでも、ASCII以外の文字を含むシンボルは別のシンボル
+        String similar = "\u0a41\uf542\uf543\ufa44\u1045";
+        table.addEntry("ABCDE", 100);
+        testCase("ハッシュ値が同じ", similar.hashCode(), "ABCDE".hashCode());
+        testCase("ASCII以外の似たシンボルと取り違えない", table.getAddress(similar), null);
+        testCase("ASCII以外の似たシンボルの割り当て", table.getOrAssign(similar), 16);
+        testCase("元のシンボルは変わらない", table.getAddress("ABCDE"), 100);
+        
+        // 負のアドレスは NOT_FOUND と区別できないので登録しない
+        try {
+            table.addEntry("NEGATIVE", -1);
+            testCase("負のアドレスを拒否", "例外なし", "IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            testCase("負のアドレスを拒否", table.contains("NEGATIVE"), false);
+        }
+    }
+    
+    /**
+     * getOrAssignメソッドのテスト - 変数アドレスの割り当て
+     */
+    private static void testGetOrAssign() {
+        System.out.println("\n----- getOrAssignメソッドのテスト -----");
+        
+        SymbolTable table = new SymbolTable();
+        table.addEntry("LOOP", 4);
+        
+        // 既存のシンボルはそのままのアドレス
+        testCase("R3のアドレス", table.getOrAssign("R3"), 3);
+        testCase("LOOPのアドレス", table.getOrAssign("LOOP"), 4);
+        
+        // 新しいシンボルは16から順に割り当てる
+        testCase("iの割り当て", table.getOrAssign("i"), 16);
+        testCase("jの割り当て", table.getOrAssign("j"), 17);
+        testCase("iの再取得", table.getOrAssign("i"), 16);
+        testCase("jの登録確認", table.getAddress("j"), 17);
+        
+        // ASCII以外の文字を含むシンボル
+        testCase("変数の割り当て", table.getOrAssign("変数"), 18);
+        testCase("変数の存在", table.contains("変数"), true);
+        
+        // 存在しないシンボルのプリミティブ値
+        testCase("存在しないシンボル (get)", table.get("NOTEXIST"), SymbolTable.NOT_FOUND);
+    }
+    
+    /**
+     * removeメソッドのテスト - 取り除いた後も同じ塊の他のシンボルを検索できるか
+     */
+    private static void testRemove() {
+        System.out.println("\n----- removeメソッドのテスト -----");
+        
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            table.addEntry("$" + Integer.toString(i, 36), i);
+        }
+        int size = table.size();
+        boolean removed = true;
+        for (int i = 0; i < 1000; i += 2) {
+            removed &= table.remove("$" + Integer.toString(i, 36));
+        }
+        testCase("登録済みのシンボルを取り除く", removed, true);
+        testCase("取り除いた後のシンボル数", table.size(), size - 500);
+        boolean found = true;
+        for (int i = 0; i < 1000; i++) {
+            found &= table.contains("$" + Integer.toString(i, 36)) == (i % 2 == 1);
+        }
+        testCase("残したシンボルだけが見つかる", found, true);
+        testCase("取り除いたシンボルのアドレス", table.getAddress("$0"), null);
+        testCase("未登録のシンボルは取り除けない", table.remove("NOTEXIST"), false);
+        testCase("取り除いた後に再登録", table.getOrAssign("$0"), 16);
+        
+        table.addEntry("変数", 100);
+        testCase("ASCII以外の文字を含むシンボル", table.remove("変数") && !table.contains("変数"), true);
+        testCase("事前定義シンボルを取り除く", table.remove("R0"), true);
+        testCase("事前定義の表は変わらない", SymbolTable.predefined().contains("R0"), true);
+    }
+    
+    /**
+     * 大量のシンボルのテスト - 表の拡張後も正しく検索できるか
+     */
+    private static void testManySymbols() {
+        System.out.println("\n----- 大量シンボルのテスト -----");
+        
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 10000; i++) {
+            table.addEntry("Foo.bar$ret." + i, i + 100);
+        }
+        
+        testCase("シンボル数", table.size(), 10000 + 23);
+        testCase("最初のシンボル", table.get("Foo.bar$ret.0"), 100);
+        testCase("最後のシンボル", table.get("Foo.bar$ret.9999"), 10099);
+        testCase("事前定義シンボル", table.get("KBD"), 24576);
+        testCase("存在しないシンボル", table.contains("Foo.bar$ret.10000"), false);
+    }
+    
+    /**
+     * 凍結した共有の表と、それを土台にした表のテスト
+     */
+    private static void testSharedBase() {
+        System.out.println("\n----- 共有の事前定義シンボル表のテスト -----");
+        
+        SymbolTable predefined = SymbolTable.predefined();
+        testCase("共有の表は凍結済み", predefined.isFrozen(), true);
+        testCase("共有の表のSCREEN", predefined.get("SCREEN"), 16384);
+        try {
+            predefined.addEntry("LOOP", 10);
+            testCase("凍結した表への追加", "例外なし", "例外発生");
+        } catch (UnsupportedOperationException e) {
+            testCase("凍結した表への追加", "例外発生", "例外発生");
+        }
+        
+        // 土台を共有する2つの表は互いに影響しない
+        SymbolTable first = new SymbolTable();
+        SymbolTable second = new SymbolTable();
+        first.addEntry("LOOP", 10);
+        testCase("1つ目の表のLOOP", first.get("LOOP"), 10);
+        testCase("2つ目の表のLOOP", second.contains("LOOP"), false);
+        testCase("共有の表のLOOP", predefined.contains("LOOP"), false);
+        testCase("1つ目の表の変数", first.getOrAssign("i"), 16);
+        testCase("2つ目の表の変数", second.getOrAssign("j"), 16);
+        
+        // 事前定義シンボルの上書きは共有の表に影響しない
+        second.addEntry("R0", 100);
+        testCase("上書きしたR0", second.get("R0"), 100);
+        testCase("共有の表のR0", predefined.get("R0"), 0);
+        testCase("1つ目の表のR0", first.get("R0"), 0);
+        
+        // 独自の土台を凍結して共有する
+        SymbolTable base = new SymbolTable();
+        base.addEntry("Sys.init", 42);
+        base.freeze();
+        SymbolTable overlay = new SymbolTable(base);
+        overlay.addEntry("Main.main", 50);
+        testCase("独自の土台のシンボル", overlay.get("Sys.init"), 42);
+        testCase("土台に追加されない", base.contains("Main.main"), false);
+        try {
+            new SymbolTable(new SymbolTable());
+            testCase("凍結していない土台", "例外なし", "例外発生");
+        } catch (IllegalArgumentException e) {
+            testCase("凍結していない土台", "例外発生", "例外発生");
+        }
     }
     
     /**
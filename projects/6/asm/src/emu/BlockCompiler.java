@@ -0,0 +1,327 @@
+package emu;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BlockCompiler.java - ROMの一区間をJVMバイトコードに変換する
+ *
+ * 区間を基本ブロック (分岐先になり得る位置から、ジャンプ命令または次の分岐先の手前まで) に分け、
+ * 1つのメソッド run(short[] ram, int[] registers, int remaining) にまとめます。
+ * A、D、PC はローカル変数に置き、RAMは配列のまま参照します。
+ *
+ * メソッドの先頭で PC の値により各ブロックへ分岐します (tableswitch)。ブロックの先頭では残りの命令数を確かめ、
+ * 足りなければ PC を設定して戻ります (命令数の上限はブロック単位ではなく命令単位で正確に守られる)。
+ * ジャンプ先が定数 (直前の A命令) で区間内のブロックなら直接分岐し、それ以外はもう一度先頭の分岐を通ります。
+ * 区間外や停止の位置に出た場合は、PC を設定して呼び出し側 (JitEmulator) に戻ります。
+ */
+final class BlockCompiler {
+    // 生成するメソッドのローカル変数
+    private static final int RAM = 1, REGISTERS = 2, REMAINING = 3, A = 4, D = 5, PC = 6, VALUE = 7;
+    private static final int ADDRESS_MASK = Emulator.RAM_SIZE - 1;
+
+    // HotSpotがコンパイルするメソッドの大きさの上限 (-XX:HugeMethodLimit の既定値)
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    private static final String CLASS_NAME = "emu/CompiledBlocks";
+    private static final String INTERFACE_NAME = "emu/JitEmulator$CompiledCode";
+
+    private final int[] rom;
+    private final boolean[] leaders;
+    private final Bytecode code = new Bytecode();
+    // ブロックの先頭アドレス → ラベル
+    private final Map<Integer, Integer> blockLabels = new HashMap<>();
+    private int dispatch;
+    private int exit;
+
+    /**
+     * @param rom 解読済みのROM (Emulator.decode の値)
+     * @param leaders 各アドレスが分岐先になり得るか
+     */
+    BlockCompiler(int[] rom, boolean[] leaders) {
+        this.rom = rom;
+        this.leaders = leaders;
+    }
+
+    /**
+     * 区間 [start, end) を変換し、隠しクラスとして定義する
+     * @return 生成したコード
+     * @throws ReflectiveOperationException クラスの定義や生成に失敗した場合
+     */
+    JitEmulator.CompiledCode compile(int start, int end) throws ReflectiveOperationException {
+        byte[] classFile = generate(start, end);
+        Class<?> compiled = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+        return (JitEmulator.CompiledCode) compiled.getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * 区間 [start, end) のクラスファイルを生成する
+     */
+    byte[] generate(int start, int end) {
+        // 基本ブロックに分ける (停止の位置は変換せず、呼び出し側に任せる)
+        List<int[]> blocks = new ArrayList<>();
+        int address = start;
+        while (address < end) {
+            if (isHalt(rom[address])) {
+                address++;
+                continue;
+            }
+            int blockEnd = address;
+            while (true) {
+                boolean jump = isJump(rom[blockEnd]);
+                blockEnd++;
+                if (jump || blockEnd >= end || leaders[blockEnd] || isHalt(rom[blockEnd])) {
+                    break;
+                }
+            }
+            blocks.add(new int[] {address, blockEnd});
+            address = blockEnd;
+        }
+
+        int[] labels = new int[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            labels[i] = code.newLabel();
+            blockLabels.put(blocks.get(i)[0], labels[i]);
+        }
+        dispatch = code.newLabel();
+        exit = code.newLabel();
+        // 区間内の全アドレスの分岐表 (ブロックの先頭でない位置は呼び出し側に戻る)
+        int[] table = new int[end - start];
+        for (int i = 0; i < table.length; i++) {
+            Integer label = blockLabels.get(start + i);
+            table[i] = label != null ? label : exit;
+        }
+
+        // レジスタをローカル変数に読み込む
+        loadRegister(0, A);
+        loadRegister(1, D);
+        loadRegister(2, PC);
+        code.mark(dispatch);
+        code.iload(PC);
+        code.tableswitch(exit, start, table);
+
+        for (int i = 0; i < blocks.size(); i++) {
+            int[] block = blocks.get(i);
+            code.mark(labels[i]);
+            emitBlock(block[0], block[1]);
+        }
+
+        // レジスタを書き戻して残りの命令数を返す
+        code.mark(exit);
+        storeRegister(0, A);
+        storeRegister(1, D);
+        storeRegister(2, PC);
+        code.iload(REMAINING);
+        code.op(Bytecode.IRETURN);
+
+        if (code.length() > HUGE_METHOD_LIMIT) {
+            // JVMのインタプリタで実行されることになり、変換しない方が速い
+            throw new IllegalStateException("生成したメソッドが大きすぎます: " + code.length() + " バイト");
+        }
+        return code.toClassFile(CLASS_NAME, INTERFACE_NAME, "run", "([S[II)I", 8, 8);
+    }
+
+    private void loadRegister(int index, int local) {
+        code.aload(REGISTERS);
+        code.push(index);
+        code.op(Bytecode.IALOAD);
+        code.istore(local);
+    }
+
+    private void storeRegister(int index, int local) {
+        code.aload(REGISTERS);
+        code.push(index);
+        code.iload(local);
+        code.op(Bytecode.IASTORE);
+    }
+
+    /**
+     * 1つの基本ブロック [start, end) を出力する
+     */
+    private void emitBlock(int start, int end) {
+        int count = end - start;
+        // 残りの命令数が足りなければ、このブロックの先頭で止まる
+        int enough = code.newLabel();
+        code.iload(REMAINING);
+        code.push(count);
+        code.jump(Bytecode.IF_ICMPGE, enough);
+        code.push(start);
+        code.istore(PC);
+        code.jump(Bytecode.GOTO, exit);
+        code.mark(enough);
+        code.iload(REMAINING);
+        code.push(count);
+        code.op(Bytecode.ISUB);
+        code.istore(REMAINING);
+
+        // コンパイル時に分かっているAの値 (分からなければ -1)
+        int knownA = -1;
+        for (int address = start; address < end; address++) {
+            int instruction = rom[address];
+            if (instruction >= 0) {
+                code.push(instruction);
+                code.istore(A);
+                knownA = instruction;
+                continue;
+            }
+            int dest = (instruction >>> 3) & 0b111;
+            int jump = instruction & 0b111;
+            emitComp(instruction);
+            code.op(Bytecode.I2S);
+            if (dest == 0 && jump == 0) {
+                code.op(Bytecode.POP);
+                continue;
+            }
+            code.istore(VALUE);
+            // Mへの書き込みは命令の実行前のAを使う
+            if ((dest & 0b001) != 0) {
+                pushAddress();
+                code.iload(VALUE);
+                code.op(Bytecode.SASTORE);
+            }
+            if ((dest & 0b010) != 0) {
+                code.iload(VALUE);
+                code.istore(D);
+            }
+            if ((dest & 0b100) != 0) {
+                code.iload(VALUE);
+                code.istore(A);
+                knownA = -1;
+            }
+            if (jump == 0b111) {
+                emitTaken(knownA);
+            } else if (jump != 0) {
+                int notTaken = code.newLabel();
+                code.iload(VALUE);
+                code.jump(inverse(jump), notTaken);
+                emitTaken(knownA);
+                code.mark(notTaken);
+            }
+        }
+
+        // ジャンプせずにブロックの終わりに達した場合
+        if (!isUnconditionalJump(rom[end - 1])) {
+            if (!blockLabels.containsKey(end)) {
+                code.push(end);
+                code.istore(PC);
+                code.jump(Bytecode.GOTO, exit);
+            }
+            // 次のブロックはすぐ後に出力されるので、そのまま進む
+        }
+    }
+
+    /**
+     * ジャンプが成立した場合の分岐
+     */
+    private void emitTaken(int knownA) {
+        if (knownA >= 0) {
+            Integer label = blockLabels.get(knownA);
+            if (label != null) {
+                code.jump(Bytecode.GOTO, label);
+            } else {
+                code.push(knownA);
+                code.istore(PC);
+                code.jump(Bytecode.GOTO, exit);
+            }
+        } else {
+            code.iload(A);
+            code.push(0xffff);
+            code.op(Bytecode.IAND);
+            code.istore(PC);
+            code.jump(Bytecode.GOTO, dispatch);
+        }
+    }
+
+    /**
+     * comp の値をスタックに積む
+     */
+    private void emitComp(int instruction) {
+        switch ((instruction >>> 16) & 0xff) {
+            case Emulator.ZERO:      code.push(0); break;
+            case Emulator.ONE:       code.push(1); break;
+            case Emulator.MINUS_ONE: code.push(-1); break;
+            case Emulator.D:         code.iload(D); break;
+            case Emulator.A:         code.iload(A); break;
+            case Emulator.M:         pushM(); break;
+            case Emulator.NOT_D:     code.iload(D); not(); break;
+            case Emulator.NOT_A:     code.iload(A); not(); break;
+            case Emulator.NOT_M:     pushM(); not(); break;
+            case Emulator.NEG_D:     code.iload(D); code.op(Bytecode.INEG); break;
+            case Emulator.NEG_A:     code.iload(A); code.op(Bytecode.INEG); break;
+            case Emulator.NEG_M:     pushM(); code.op(Bytecode.INEG); break;
+            case Emulator.D_PLUS_1:  code.iload(D); code.push(1); code.op(Bytecode.IADD); break;
+            case Emulator.A_PLUS_1:  code.iload(A); code.push(1); code.op(Bytecode.IADD); break;
+            case Emulator.M_PLUS_1:  pushM(); code.push(1); code.op(Bytecode.IADD); break;
+            case Emulator.D_MINUS_1: code.iload(D); code.push(1); code.op(Bytecode.ISUB); break;
+            case Emulator.A_MINUS_1: code.iload(A); code.push(1); code.op(Bytecode.ISUB); break;
+            case Emulator.M_MINUS_1: pushM(); code.push(1); code.op(Bytecode.ISUB); break;
+            case Emulator.D_PLUS_A:  code.iload(D); code.iload(A); code.op(Bytecode.IADD); break;
+            case Emulator.D_PLUS_M:  code.iload(D); pushM(); code.op(Bytecode.IADD); break;
+            case Emulator.D_MINUS_A: code.iload(D); code.iload(A); code.op(Bytecode.ISUB); break;
+            case Emulator.D_MINUS_M: code.iload(D); pushM(); code.op(Bytecode.ISUB); break;
+            case Emulator.A_MINUS_D: code.iload(A); code.iload(D); code.op(Bytecode.ISUB); break;
+            case Emulator.M_MINUS_D: pushM(); code.iload(D); code.op(Bytecode.ISUB); break;
+            case Emulator.D_AND_A:   code.iload(D); code.iload(A); code.op(Bytecode.IAND); break;
+            case Emulator.D_AND_M:   code.iload(D); pushM(); code.op(Bytecode.IAND); break;
+            case Emulator.D_OR_A:    code.iload(D); code.iload(A); code.op(Bytecode.IOR); break;
+            case Emulator.D_OR_M:    code.iload(D); pushM(); code.op(Bytecode.IOR); break;
+            default: {
+                int comp = (instruction >>> 8) & 0x7f;
+                code.push(comp);
+                code.iload(D);
+                if ((comp & 0x40) != 0) {
+                    pushM();
+                } else {
+                    code.iload(A);
+                }
+                code.invokestatic("emu/Emulator", "alu", "(III)I");
+            }
+        }
+    }
+
+    private void pushAddress() {
+        code.aload(RAM);
+        code.iload(A);
+        code.push(ADDRESS_MASK);
+        code.op(Bytecode.IAND);
+    }
+
+    private void pushM() {
+        pushAddress();
+        code.op(Bytecode.SALOAD);
+    }
+
+    private void not() {
+        code.push(-1);
+        code.op(Bytecode.IXOR);
+    }
+
+    /**
+     * ジャンプしない場合に分岐する (条件を反転した) 命令
+     */
+    private static int inverse(int jump) {
+        switch (jump) {
+            case 0b001: return Bytecode.IFLE;  // JGT
+            case 0b010: return Bytecode.IFNE;  // JEQ
+            case 0b011: return Bytecode.IFLT;  // JGE
+            case 0b100: return Bytecode.IFGE;  // JLT
+            case 0b101: return Bytecode.IFEQ;  // JNE
+            default:    return Bytecode.IFGT;  // JLE
+        }
+    }
+
+    static boolean isHalt(int instruction) {
+        return instruction >= 0 && (instruction & Emulator.HALT) != 0;
+    }
+
+    static boolean isJump(int instruction) {
+        return instruction < 0 && (instruction & 0b111) != 0;
+    }
+
+    private static boolean isUnconditionalJump(int instruction) {
+        return instruction < 0 && (instruction & 0b111) == 0b111;
+    }
+}
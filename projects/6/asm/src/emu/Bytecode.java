@@ -0,0 +1,297 @@
+package emu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytecode.java - 最小限のクラスファイルの組み立て
+ *
+ * BlockCompiler が生成するクラス (引数なしのコンストラクタと、インタフェースを実装する1つのメソッドを持つ)
+ * だけを対象とします。分岐先はラベルで指定し、最後にオフセットを埋めます。
+ * クラスファイルのバージョンは49とし、StackMapTable を出力しません (型推論による検証を使う)。
+ */
+final class Bytecode {
+    // 命令
+    static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04, ICONST_2 = 0x05;
+    static final int SIPUSH = 0x11, LDC = 0x12, ILOAD = 0x15, ALOAD = 0x19;
+    static final int IALOAD = 0x2e, SALOAD = 0x35, ISTORE = 0x36, IASTORE = 0x4f, SASTORE = 0x56;
+    static final int POP = 0x57;
+    static final int IADD = 0x60, ISUB = 0x64, INEG = 0x74, IAND = 0x7e, IOR = 0x80, IXOR = 0x82;
+    static final int I2S = 0x93;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    static final int IF_ICMPGE = 0xa2, GOTO = 0xa7, TABLESWITCH = 0xaa, IRETURN = 0xac;
+    static final int INVOKESTATIC = 0xb8;
+
+    private static final int CLASS_VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    // 定数プール
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    // メソッドのコード
+    private byte[] code = new byte[4096];
+    private int length;
+    private int[] labelOffsets = new int[64];
+    private int labelCount;
+    // 未解決の分岐 (命令の位置、オフセットを書く位置、ラベル、4バイトかどうか)
+    private final List<int[]> fixups = new ArrayList<>();
+
+    // ----- コード -----
+
+    int length() {
+        return length;
+    }
+
+    int newLabel() {
+        if (labelCount == labelOffsets.length) {
+            labelOffsets = Arrays.copyOf(labelOffsets, labelCount * 2);
+        }
+        labelOffsets[labelCount] = -1;
+        return labelCount++;
+    }
+
+    void mark(int label) {
+        labelOffsets[label] = length;
+    }
+
+    void op(int opcode) {
+        u1(opcode);
+    }
+
+    void iload(int local) {
+        u1(ILOAD);
+        u1(local);
+    }
+
+    void istore(int local) {
+        u1(ISTORE);
+        u1(local);
+    }
+
+    void aload(int local) {
+        u1(ALOAD);
+        u1(local);
+    }
+
+    /**
+     * int 定数を積む (-32768〜32767 は sipush、それ以外は ldc)
+     */
+    void push(int value) {
+        if (value >= -1 && value <= 2) {
+            u1(ICONST_0 + value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            u1(LDC);
+            u1(integer(value));
+        }
+    }
+
+    /**
+     * 分岐命令 (goto と if 系)
+     */
+    void jump(int opcode, int label) {
+        fixups.add(new int[] {length, length + 1, label, 0});
+        u1(opcode);
+        u2(0);
+    }
+
+    /**
+     * tableswitch 命令
+     * @param low labels[0] に対応する値
+     * @param labels low から連続する値の分岐先
+     */
+    void tableswitch(int defaultLabel, int low, int[] labels) {
+        int start = length;
+        u1(TABLESWITCH);
+        while (length % 4 != 0) {
+            u1(0);
+        }
+        fixups.add(new int[] {start, length, defaultLabel, 1});
+        u4(0);
+        u4(low);
+        u4(low + labels.length - 1);
+        for (int label : labels) {
+            fixups.add(new int[] {start, length, label, 1});
+            u4(0);
+        }
+    }
+
+    void invokestatic(String owner, String name, String descriptor) {
+        u1(INVOKESTATIC);
+        u2(methodRef(owner, name, descriptor));
+    }
+
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void u4(int value) {
+        u2(value >> 16);
+        u2(value);
+    }
+
+    private void resolve() {
+        for (int[] fixup : fixups) {
+            int target = labelOffsets[fixup[2]];
+            if (target < 0) {
+                throw new IllegalStateException("位置が決まっていないラベル: " + fixup[2]);
+            }
+            int offset = target - fixup[0];
+            int at = fixup[1];
+            if (fixup[3] == 1) {
+                code[at] = (byte) (offset >> 24);
+                code[at + 1] = (byte) (offset >> 16);
+                code[at + 2] = (byte) (offset >> 8);
+                code[at + 3] = (byte) offset;
+            } else {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("分岐が遠すぎます: " + offset);
+                }
+                code[at] = (byte) (offset >> 8);
+                code[at + 1] = (byte) offset;
+            }
+        }
+    }
+
+    // ----- 定数プール -----
+
+    private int utf8(String value) {
+        return constant("U" + value, () -> {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        });
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, () -> {
+            pool.writeByte(7);
+            pool.writeShort(nameIndex);
+        });
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int classIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, () -> {
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + ":" + descriptor, () -> {
+            pool.writeByte(10);
+            pool.writeShort(classIndex);
+            pool.writeShort(nameAndType);
+        });
+    }
+
+    private int integer(int value) {
+        return constant("I" + value, () -> {
+            pool.writeByte(3);
+            pool.writeInt(value);
+        });
+    }
+
+    private interface Entry {
+        void write() throws IOException;
+    }
+
+    private int constant(String key, Entry entry) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            entry.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndexes.put(key, poolCount);
+        return poolCount++;
+    }
+
+    // ----- クラスファイル -----
+
+    /**
+     * 組み立てたコードを1つのメソッドとするクラスファイルを作る
+     * @param className クラス名 ("emu/Name" の形式)
+     * @param interfaceName 実装するインタフェース
+     */
+    byte[] toClassFile(String className, String interfaceName, String methodName, String descriptor,
+                       int maxStack, int maxLocals) {
+        resolve();
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int interfaceClass = classRef(interfaceName);
+        int codeName = utf8("Code");
+        int initName = utf8("<init>");
+        int initDescriptor = utf8("()V");
+        int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+        int name = utf8(methodName);
+        int methodDescriptor = utf8(descriptor);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + poolBytes.size() + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0);
+            out.writeShort(2);
+
+            // コンストラクタ: aload_0, invokespecial Object.<init>, return
+            byte[] init = {0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xb1};
+            writeMethod(out, initName, initDescriptor, codeName, 1, 1, init, init.length);
+            writeMethod(out, name, methodDescriptor, codeName, maxStack, maxLocals, code, length);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code, int length) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+}
@@ -0,0 +1,356 @@
+package emu;
+
+import java.io.IOException;
+
+import asm.hack.RomReader;
+
+/**
+ * Emulator.java - Hack CPUのヘッドレスエミュレータ
+ *
+ * ROMの各語は読み込み時に一度だけ解読し、実行時は解読済みの int[] を参照します。
+ * - A命令: 値そのもの (0〜32767)
+ * - C命令: 最上位ビットを立て、ALU演算の番号 (16〜23ビット)、comp の元のビット (8〜14ビット)、
+ *          dest (3〜5ビット)、jump (0〜2ビット) を詰めた値
+ * 実行ループは解読済みの値で分岐し、レジスタはローカル変数に置きます。
+ * RAMは32Kの short[] で、アドレスは下位15ビットで参照します (SCREEN と KBD もこの中にある)。
+ *
+ * 「@n / 0;JMP」で自分自身に戻る無限ループ (Hackプログラムの通常の終わり方) は停止として扱い、
+ * その位置に達した時点で実行を止めます。
+ */
+public class Emulator {
+    public static final int RAM_SIZE = 32768;
+    public static final int SCREEN = 16384;
+    public static final int KBD = 24576;
+    private static final int ADDRESS_MASK = RAM_SIZE - 1;
+
+    // 解読済みの語の種類
+    static final int C_INSTRUCTION = 0x80000000;
+    static final int HALT = 0x40000000;
+
+    // ALU演算の番号
+    static final int ZERO = 0, ONE = 1, MINUS_ONE = 2;
+    static final int D = 3, A = 4, M = 5;
+    static final int NOT_D = 6, NOT_A = 7, NOT_M = 8;
+    static final int NEG_D = 9, NEG_A = 10, NEG_M = 11;
+    static final int D_PLUS_1 = 12, A_PLUS_1 = 13, M_PLUS_1 = 14;
+    static final int D_MINUS_1 = 15, A_MINUS_1 = 16, M_MINUS_1 = 17;
+    static final int D_PLUS_A = 18, D_PLUS_M = 19;
+    static final int D_MINUS_A = 20, D_MINUS_M = 21, A_MINUS_D = 22, M_MINUS_D = 23;
+    static final int D_AND_A = 24, D_AND_M = 25, D_OR_A = 26, D_OR_M = 27;
+    // 上記以外のビットの組み合わせ (ALUの定義どおりに計算する)
+    static final int GENERIC = 28;
+
+    // 解読済みのROM (JitEmulator も参照する)
+    int[] rom = new int[0];
+    final short[] ram = new short[RAM_SIZE];
+    int a;
+    int d;
+    int pc;
+    long cycles;
+    boolean halted;
+    // 直前の interpret(..., true) がジャンプの成立で止まったかどうか
+    boolean jumped;
+
+    /**
+     * .hack (テキスト形式) または .bin/.rom (バイナリ形式) のファイルを読み込む
+     */
+    public void load(String romFile) throws IOException {
+        load(RomReader.read(romFile));
+    }
+
+    /**
+     * 命令語の配列をROMに読み込み、CPUをリセットする
+     * @param words 命令語 (16ビット)
+     */
+    public void load(int[] words) {
+        rom = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            rom[i] = decode(words[i] & 0xffff);
+        }
+        // 自分自身へのジャンプを停止として印を付ける
+        for (int i = 0; i + 1 < words.length; i++) {
+            if (rom[i] == i && (words[i + 1] & 0xffff) == 0b1110101010000111) {
+                rom[i] |= HALT;
+            }
+        }
+        reset();
+    }
+
+    /**
+     * 1語を解読する
+     */
+    static int decode(int word) {
+        if ((word & 0x8000) == 0) {
+            return word;
+        }
+        int comp = (word >>> 6) & 0x7f;
+        return C_INSTRUCTION | (operation(comp) << 16) | (comp << 8) | (word & 0x3f);
+    }
+
+    private static int operation(int comp) {
+        switch (comp) {
+            case 0b0101010: return ZERO;
+            case 0b0111111: return ONE;
+            case 0b0111010: return MINUS_ONE;
+            case 0b0001100: return D;
+            case 0b0110000: return A;
+            case 0b1110000: return M;
+            case 0b0001101: return NOT_D;
+            case 0b0110001: return NOT_A;
+            case 0b1110001: return NOT_M;
+            case 0b0001111: return NEG_D;
+            case 0b0110011: return NEG_A;
+            case 0b1110011: return NEG_M;
+            case 0b0011111: return D_PLUS_1;
+            case 0b0110111: return A_PLUS_1;
+            case 0b1110111: return M_PLUS_1;
+            case 0b0001110: return D_MINUS_1;
+            case 0b0110010: return A_MINUS_1;
+            case 0b1110010: return M_MINUS_1;
+            case 0b0000010: return D_PLUS_A;
+            case 0b1000010: return D_PLUS_M;
+            case 0b0010011: return D_MINUS_A;
+            case 0b1010011: return D_MINUS_M;
+            case 0b0000111: return A_MINUS_D;
+            case 0b1000111: return M_MINUS_D;
+            case 0b0000000: return D_AND_A;
+            case 0b1000000: return D_AND_M;
+            case 0b0010101: return D_OR_A;
+            case 0b1010101: return D_OR_M;
+            default:        return GENERIC;
+        }
+    }
+
+    /**
+     * ALUの定義 (zx nx zy ny f no) どおりに計算する
+     */
+    static int alu(int comp, int x, int y) {
+        if ((comp & 0b100000) != 0) x = 0;
+        if ((comp & 0b010000) != 0) x = ~x;
+        if ((comp & 0b001000) != 0) y = 0;
+        if ((comp & 0b000100) != 0) y = ~y;
+        int out = (comp & 0b000010) != 0 ? x + y : x & y;
+        if ((comp & 0b000001) != 0) out = ~out;
+        return out;
+    }
+
+    /**
+     * 最大 maxCycles 命令を実行する
+     * ROMの範囲外に出た場合と、停止 (自分自身へのジャンプ) に達した場合はそこで止まります。
+     * @return 実際に実行した命令数
+     */
+    public long run(long maxCycles) {
+        long executed = interpret(maxCycles, false);
+        cycles += executed;
+        return executed;
+    }
+
+    /**
+     * 解読済みのROMを解釈実行する (実行命令数の累計は呼び出し側で加える)
+     * @param untilJump true の場合、ジャンプが成立した時点で止まる
+     * @return 実際に実行した命令数
+     */
+    long interpret(long maxCycles, boolean untilJump) {
+        jumped = false;
+        final int[] rom = this.rom;
+        final short[] ram = this.ram;
+        final int size = rom.length;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long executed = 0;
+
+        while (executed < maxCycles && pc >= 0 && pc < size) {
+            int instruction = rom[pc];
+            if (instruction >= 0) {
+                if ((instruction & HALT) != 0) {
+                    halted = true;
+                    break;
+                }
+                a = instruction;
+                pc++;
+                executed++;
+                continue;
+            }
+
+            int value;
+            switch ((instruction >>> 16) & 0xff) {
+                case ZERO:      value = 0; break;
+                case ONE:       value = 1; break;
+                case MINUS_ONE: value = -1; break;
+                case D:         value = d; break;
+                case A:         value = a; break;
+                case M:         value = ram[a & ADDRESS_MASK]; break;
+                case NOT_D:     value = ~d; break;
+                case NOT_A:     value = ~a; break;
+                case NOT_M:     value = ~ram[a & ADDRESS_MASK]; break;
+                case NEG_D:     value = -d; break;
+                case NEG_A:     value = -a; break;
+                case NEG_M:     value = -ram[a & ADDRESS_MASK]; break;
+                case D_PLUS_1:  value = d + 1; break;
+                case A_PLUS_1:  value = a + 1; break;
+                case M_PLUS_1:  value = ram[a & ADDRESS_MASK] + 1; break;
+                case D_MINUS_1: value = d - 1; break;
+                case A_MINUS_1: value = a - 1; break;
+                case M_MINUS_1: value = ram[a & ADDRESS_MASK] - 1; break;
+                case D_PLUS_A:  value = d + a; break;
+                case D_PLUS_M:  value = d + ram[a & ADDRESS_MASK]; break;
+                case D_MINUS_A: value = d - a; break;
+                case D_MINUS_M: value = d - ram[a & ADDRESS_MASK]; break;
+                case A_MINUS_D: value = a - d; break;
+                case M_MINUS_D: value = ram[a & ADDRESS_MASK] - d; break;
+                case D_AND_A:   value = d & a; break;
+                case D_AND_M:   value = d & ram[a & ADDRESS_MASK]; break;
+                case D_OR_A:    value = d | a; break;
+                case D_OR_M:    value = d | ram[a & ADDRESS_MASK]; break;
+                default: {
+                    int comp = (instruction >>> 8) & 0x7f;
+                    int y = (comp & 0x40) != 0 ? ram[a & ADDRESS_MASK] : a;
+                    value = alu(comp, d, y);
+                }
+            }
+            value = (short) value;
+
+            // dest (Mへの書き込みは命令の実行前のAを使う)
+            if ((instruction & 0b001000) != 0) ram[a & ADDRESS_MASK] = (short) value;
+            if ((instruction & 0b010000) != 0) d = value;
+            if ((instruction & 0b100000) != 0) a = value;
+
+            boolean jump;
+            switch (instruction & 0b111) {
+                case 0b000: jump = false; break;
+                case 0b001: jump = value > 0; break;
+                case 0b010: jump = value == 0; break;
+                case 0b011: jump = value >= 0; break;
+                case 0b100: jump = value < 0; break;
+                case 0b101: jump = value != 0; break;
+                case 0b110: jump = value <= 0; break;
+                default:    jump = true; break;
+            }
+            executed++;
+            if (jump) {
+                // ジャンプ先は (dest で更新された後の) A
+                pc = a & 0xffff;
+                if (untilJump) {
+                    jumped = true;
+                    break;
+                }
+            } else {
+                pc++;
+            }
+        }
+
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        return executed;
+    }
+
+    /**
+     * 1命令だけ実行する
+     * @return 実行できた場合 true (停止やROMの範囲外では false)
+     */
+    public boolean step() {
+        return run(1) == 1;
+    }
+
+    /**
+     * CPUをリセットする (PC、A、D、実行命令数を0にする。RAMはそのまま)
+     */
+    public void reset() {
+        a = 0;
+        d = 0;
+        pc = 0;
+        cycles = 0;
+        halted = false;
+    }
+
+    /**
+     * RAMを全て0にする
+     */
+    public void clearRam() {
+        java.util.Arrays.fill(ram, (short) 0);
+    }
+
+    /**
+     * 停止 (自分自身へのジャンプ) に達したかどうか
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * RAMの値を読む
+     */
+    public int peek(int address) {
+        return ram[address & ADDRESS_MASK];
+    }
+
+    /**
+     * RAMに値を書く (キーボード入力 KBD の設定など)
+     */
+    public void poke(int address, int value) {
+        ram[address & ADDRESS_MASK] = (short) value;
+    }
+
+    /**
+     * RAMの配列そのもの (画面の読み出しなどでまとめて参照する場合)
+     */
+    public short[] getRam() {
+        return ram;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getD() {
+        return d;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * リセット後に実行した命令数
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * ROMの語数
+     */
+    public int getRomSize() {
+        return rom.length;
+    }
+
+    /**
+     * メインメソッド - プログラムを実行し、実行速度とRAMの先頭を表示する
+     * 使用法: java emu.Emulator <ROMファイル (.hack/.bin/.rom)> [最大命令数]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("使用法: java emu.Emulator <ROMファイル (.hack/.bin/.rom)> [最大命令数]");
+            System.exit(1);
+        }
+        long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 100_000_000L;
+        try {
+            Emulator emulator = new Emulator();
+            emulator.load(args[0]);
+            long start = System.nanoTime();
+            long executed = emulator.run(maxCycles);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("実行した命令: %d (%s), %.1f ms, %.1f M命令/秒%n",
+                    executed, emulator.isHalted() ? "停止" : "PC=" + emulator.getPC(),
+                    elapsed / 1e6, executed * 1e3 / Math.max(1, elapsed));
+            for (int i = 0; i < 16; i++) {
+                System.out.printf("RAM[%d] = %d%n", i, emulator.peek(i));
+            }
+        } catch (IOException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
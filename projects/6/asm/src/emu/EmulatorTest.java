@@ -0,0 +1,184 @@
+package emu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.StreamSupport;
+
+import asm.hack.Hack;
+
+/**
+ * EmulatorTest.java - Emulatorクラスのテスト
+ */
+public class EmulatorTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    public static void main(String[] args) {
+        System.out.println("===== Emulator クラステスト開始 =====");
+
+        testPrograms();
+        testAlu();
+        testRunControl();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * サンプルプログラムの実行テスト
+     */
+    private static void testPrograms() {
+        System.out.println("\n----- プログラムの実行テスト -----");
+
+        String inputFile = "testEmulator.asm";
+        String outputFile = "testEmulator.hack";
+        try {
+            // Max.asm と同じプログラムをファイル経由で読み込む
+            Files.write(Paths.get(inputFile), Arrays.asList(
+                    "@R0", "D=M", "@R1", "D=D-M", "@ITSR0", "D;JGT",
+                    "@R1", "D=M", "@OUTPUT_D", "0;JMP",
+                    "(ITSR0)", "@R0", "D=M",
+                    "(OUTPUT_D)", "@R2", "M=D",
+                    "(END)", "@END", "0;JMP"), StandardCharsets.UTF_8);
+            new Hack().assemble(inputFile, outputFile);
+            Emulator emulator = new Emulator();
+            emulator.load(outputFile);
+            emulator.poke(0, 3);
+            emulator.poke(1, -7);
+            emulator.run(1000);
+            testCase("Max (3, -7)", emulator.peek(2), 3);
+            emulator.reset();
+            emulator.poke(0, 12);
+            emulator.poke(1, 345);
+            emulator.run(1000);
+            testCase("Max (12, 345)", emulator.peek(2), 345);
+
+            // 1から100までの和
+            emulator = load(
+                    "@i", "M=1", "@sum", "M=0",
+                    "(LOOP)", "@i", "D=M", "@100", "D=D-A", "@END", "D;JGT",
+                    "@i", "D=M", "@sum", "M=D+M", "@i", "M=M+1", "@LOOP", "0;JMP",
+                    "(END)", "@END", "0;JMP");
+            emulator.run(100000);
+            testCase("1から100までの和", emulator.peek(17), 5050);
+            testCase("停止を検出", emulator.isHalted(), true);
+        } catch (IOException e) {
+            testCase("プログラムの実行", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            new File(inputFile).delete();
+            new File(outputFile).delete();
+        }
+    }
+
+    /**
+     * ALUとdest/jumpのテスト
+     */
+    private static void testAlu() {
+        System.out.println("\n----- ALUのテスト -----");
+
+        Emulator emulator = load("@7", "D=A", "@3", "D=D-A", "A=-1", "M=D", "@100", "AM=D+1", "D=!A");
+        emulator.run(100);
+        testCase("D-A", emulator.peek(32767), 4);
+        testCase("AM= (書き込みは元のAへ)", emulator.peek(100), 5);
+        testCase("AM= (Aの更新)", emulator.getA(), 5);
+        testCase("!A", emulator.getD(), -6);
+
+        // 16ビットでの桁あふれ
+        emulator = load("@32767", "D=A", "D=D+1", "@0", "M=D", "D=-D");
+        emulator.run(100);
+        testCase("桁あふれ", emulator.peek(0), -32768);
+        testCase("-(-32768)", emulator.getD(), -32768);
+
+        // 標準の表にないcompのビット (a=1 で zx nx zy ny f no が全て1、つまり !(!0 + !0) = 1)
+        int[] words = {0b1111111111010000};
+        emulator = new Emulator();
+        emulator.load(words);
+        emulator.run(1);
+        testCase("表にないcomp", emulator.getD(), 1);
+
+        // 各ジャンプ条件 (条件が成り立てば R0 を1にする)
+        String[] jumps = {"JGT", "JEQ", "JGE", "JLT", "JNE", "JLE"};
+        int[] values = {-1, 0, 1};
+        boolean[][] expected = {
+            {false, false, true}, {false, true, false}, {false, true, true},
+            {true, false, false}, {true, false, true}, {true, true, false},
+        };
+        StringBuilder actualResults = new StringBuilder();
+        StringBuilder expectedResults = new StringBuilder();
+        for (int j = 0; j < jumps.length; j++) {
+            for (int v = 0; v < values.length; v++) {
+                emulator = load("@" + (values[v] + 1), "D=A-1", "@TAKEN", "D;" + jumps[j],
+                        "@END", "0;JMP", "(TAKEN)", "@R0", "M=1", "(END)", "@END", "0;JMP");
+                emulator.run(100);
+                actualResults.append(emulator.peek(0));
+                expectedResults.append(expected[j][v] ? 1 : 0);
+            }
+        }
+        testCase("ジャンプ条件", actualResults.toString(), expectedResults.toString());
+    }
+
+    /**
+     * 実行の制御のテスト - 命令数の上限、1命令ずつの実行、ROMの範囲外
+     */
+    private static void testRunControl() {
+        System.out.println("\n----- 実行の制御のテスト -----");
+
+        // 終わらないループ (停止の形ではない)
+        Emulator emulator = load("(LOOP)", "@R0", "M=M+1", "@LOOP", "0;JMP");
+        testCase("命令数の上限", emulator.run(1000), 1000L);
+        testCase("上限までの実行結果", emulator.peek(0), 250);
+        testCase("停止ではない", emulator.isHalted(), false);
+        testCase("累計の命令数", emulator.getCycles(), 1000L);
+
+        emulator = load("@5", "D=A", "@R1", "M=D");
+        testCase("1命令の実行", emulator.step(), true);
+        testCase("1命令後のA", emulator.getA(), 5);
+        testCase("1命令後のPC", emulator.getPC(), 1);
+        testCase("ROMの範囲外で終了", emulator.run(100), 3L);
+        testCase("ROMの範囲外での実行", emulator.step(), false);
+        testCase("R1", emulator.peek(1), 5);
+    }
+
+    /**
+     * アセンブリをアセンブルしてエミュレータに読み込む
+     */
+    private static Emulator load(String... source) {
+        Hack hack = new Hack();
+        int[] words = StreamSupport.intStream(hack.words(String.join("\n", source) + "\n"), false).toArray();
+        Emulator emulator = new Emulator();
+        emulator.load(words);
+        return emulator;
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
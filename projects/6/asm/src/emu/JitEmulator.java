@@ -0,0 +1,164 @@
+package emu;
+
+import java.io.IOException;
+
+/**
+ * JitEmulator.java - ROMをJVMバイトコードに変換して実行するエミュレータ
+ *
+ * ROMを UNIT_SIZE 語ごとの区間に分け、解釈実行で何度も入った区間を BlockCompiler で
+ * 1つの隠しクラス (MethodHandles.Lookup.defineHiddenClass) に変換します。
+ * 変換済みの区間に入ると、区間内の分岐はJVMのコードの中で完結し、区間の外に出た時だけここに戻ります。
+ * 変換していない区間、分岐先として知られていない位置、停止の位置は Emulator の解釈実行で進めます。
+ *
+ * 分岐先になり得る位置は、アドレス0、ジャンプ命令の次、区間の先頭、いずれかの A命令が読み込む値です
+ * (関数の戻りアドレスのように、データとして読み込まれてから間接的にジャンプする位置を含む)。
+ */
+public class JitEmulator extends Emulator {
+    /**
+     * 変換の単位となる区間の語数
+     * 生成するメソッドがHotSpotのコンパイル対象の上限 (HugeMethodLimit、8000バイト) を超えない大きさにする。
+     * 超えるとメソッドがJVMのインタプリタで実行され、Emulator より遅くなる
+     */
+    static final int UNIT_SIZE = 128;
+
+    /**
+     * 変換した区間のコード
+     */
+    interface CompiledCode {
+        /**
+         * registers の PC から実行し、区間の外に出るか命令数が足りなくなったら戻る
+         * @param registers A、D、PC (実行後の値を書き戻す)
+         * @param remaining 実行してよい命令数
+         * @return 残りの命令数
+         */
+        int run(short[] ram, int[] registers, int remaining);
+    }
+
+    // 区間を変換するまでに解釈実行で入る回数
+    private int compileThreshold = 50;
+    private boolean[] leaders = new boolean[0];
+    private CompiledCode[] units = new CompiledCode[0];
+    // 区間ごとの解釈実行で入った回数 (変換に失敗した区間は負)
+    private int[] heat = new int[0];
+    private int compiledUnits;
+    private final int[] registers = new int[3];
+
+    /**
+     * 区間を変換するまでに解釈実行で入る回数を設定する (0 ならすぐに変換する)
+     */
+    public void setCompileThreshold(int compileThreshold) {
+        this.compileThreshold = compileThreshold;
+    }
+
+    @Override
+    public void load(int[] words) {
+        super.load(words);
+        int size = rom.length;
+        leaders = new boolean[size + 1];
+        for (int address = 0; address < size; address++) {
+            int instruction = rom[address];
+            if (address % UNIT_SIZE == 0) {
+                leaders[address] = true;
+            }
+            if (instruction >= 0) {
+                int value = instruction & ~HALT;
+                if (value < size) {
+                    leaders[value] = true;
+                }
+            } else if (BlockCompiler.isJump(instruction)) {
+                leaders[address + 1] = true;
+            }
+        }
+        int unitCount = (size + UNIT_SIZE - 1) / UNIT_SIZE;
+        units = new CompiledCode[unitCount];
+        heat = new int[unitCount];
+        compiledUnits = 0;
+    }
+
+    @Override
+    public long run(long maxCycles) {
+        final int size = rom.length;
+        long executed = 0;
+        while (executed < maxCycles && !halted && pc >= 0 && pc < size) {
+            int unit = pc / UNIT_SIZE;
+            CompiledCode code = units[unit];
+            if (code == null && heat[unit] >= 0 && ++heat[unit] > compileThreshold) {
+                code = compile(unit);
+            }
+            if (code != null && leaders[pc]) {
+                int budget = (int) Math.min(maxCycles - executed, Integer.MAX_VALUE);
+                registers[0] = a;
+                registers[1] = d;
+                registers[2] = pc;
+                int remaining = code.run(ram, registers, budget);
+                a = registers[0];
+                d = registers[1];
+                pc = registers[2];
+                if (remaining != budget) {
+                    executed += budget - remaining;
+                    continue;
+                }
+                // 命令数が足りずブロックに入れなかった場合は解釈実行で進める
+            }
+            long interpreted = interpret(maxCycles - executed, true);
+            if (interpreted == 0) {
+                break;
+            }
+            executed += interpreted;
+        }
+        cycles += executed;
+        return executed;
+    }
+
+    private CompiledCode compile(int unit) {
+        int start = unit * UNIT_SIZE;
+        int end = Math.min(start + UNIT_SIZE, rom.length);
+        try {
+            CompiledCode code = new BlockCompiler(rom, leaders).compile(start, end);
+            units[unit] = code;
+            compiledUnits++;
+            return code;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // 変換できない区間は解釈実行を続ける
+            heat[unit] = -1;
+            return null;
+        }
+    }
+
+    /**
+     * 変換した区間の数
+     */
+    public int getCompiledUnits() {
+        return compiledUnits;
+    }
+
+    /**
+     * メインメソッド - プログラムを解釈実行とバイトコード変換の両方で実行し、速度を比べる
+     * 使用法: java emu.JitEmulator <ROMファイル (.hack/.bin/.rom)> [最大命令数]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("使用法: java emu.JitEmulator <ROMファイル (.hack/.bin/.rom)> [最大命令数]");
+            System.exit(1);
+        }
+        long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 100_000_000L;
+        try {
+            Emulator[] emulators = {new Emulator(), new JitEmulator()};
+            String[] names = {"解釈実行", "バイトコード変換"};
+            for (int i = 0; i < emulators.length; i++) {
+                Emulator emulator = emulators[i];
+                emulator.load(args[0]);
+                long start = System.nanoTime();
+                long executed = emulator.run(maxCycles);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%s: %d 命令 (%s), %.1f ms, %.1f M命令/秒%n",
+                        names[i], executed, emulator.isHalted() ? "停止" : "PC=" + emulator.getPC(),
+                        elapsed / 1e6, executed * 1e3 / Math.max(1, elapsed));
+            }
+            System.out.println("変換した区間: " + ((JitEmulator) emulators[1]).getCompiledUnits());
+        } catch (IOException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
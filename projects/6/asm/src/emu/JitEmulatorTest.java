@@ -0,0 +1,172 @@
+package emu;
+
+import java.util.Arrays;
+import java.util.stream.StreamSupport;
+
+import asm.bench.ProgramGenerator;
+import asm.hack.Hack;
+
+/**
+ * JitEmulatorTest.java - JitEmulatorクラスのテスト
+ * 同じプログラムを Emulator (解釈実行) と JitEmulator で実行し、レジスタとRAMが一致することを確かめます。
+ */
+public class JitEmulatorTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    public static void main(String[] args) {
+        System.out.println("===== JitEmulator クラステスト開始 =====");
+
+        testPrograms();
+        testCycleLimit();
+        testGeneratedPrograms();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 手書きのプログラムのテスト
+     */
+    private static void testPrograms() {
+        System.out.println("\n----- プログラムの実行テスト -----");
+
+        // 1から1000までの和 (16ビットで桁あふれする)
+        int[] sum = assemble(
+                "@i", "M=1", "@sum", "M=0",
+                "(LOOP)", "@i", "D=M", "@1000", "D=D-A", "@END", "D;JGT",
+                "@i", "D=M", "@sum", "M=D+M", "@i", "M=M+1", "@LOOP", "0;JMP",
+                "(END)", "@END", "0;JMP");
+        JitEmulator jit = new JitEmulator();
+        jit.setCompileThreshold(0);
+        jit.load(sum);
+        jit.run(1_000_000);
+        testCase("ループの結果", jit.peek(17), (int) (short) 500500);
+        testCase("停止を検出", jit.isHalted(), true);
+        testCase("区間を変換", jit.getCompiledUnits(), 1);
+        testCase("解釈実行と一致", state(jit), state(interpret(sum, 1_000_000)));
+
+        // 戻りアドレスをデータとして読み込み、間接的にジャンプする (VMトランスレータの call/return と同じ形)
+        int[] call = assemble(
+                "@RET1", "D=A", "@R13", "M=D", "@R0", "M=M+1", "@FUNC", "0;JMP",
+                "(RET1)", "@RET2", "D=A", "@R13", "M=D", "@FUNC", "0;JMP",
+                "(RET2)", "@END", "0;JMP",
+                "(FUNC)", "@R1", "M=M+1", "@R13", "A=M", "0;JMP",
+                "(END)", "@END", "0;JMP");
+        jit = new JitEmulator();
+        jit.setCompileThreshold(0);
+        jit.load(call);
+        jit.run(1000);
+        testCase("間接ジャンプ", jit.peek(1), 2);
+        testCase("間接ジャンプ (解釈実行と一致)", state(jit), state(interpret(call, 1000)));
+
+        // 標準の表にないcompのビットと、SCREEN 以降のアドレス
+        int[] generic = {0b0111111111111111, 0b1111111111011000, 0b1110110000010000, 0b1110111010100000, 0b1110110010001000};
+        jit = new JitEmulator();
+        jit.setCompileThreshold(0);
+        jit.load(generic);
+        jit.run(100);
+        testCase("表にないcomp", state(jit), state(interpret(generic, 100)));
+    }
+
+    /**
+     * 命令数の上限のテスト - ブロックの途中で上限に達しても解釈実行と同じ位置で止まるか
+     */
+    private static void testCycleLimit() {
+        System.out.println("\n----- 命令数の上限のテスト -----");
+
+        int[] loop = assemble("(LOOP)", "@R0", "M=M+1", "@R1", "M=M-1", "@LOOP", "0;JMP");
+        boolean same = true;
+        for (int limit = 0; limit < 40; limit++) {
+            JitEmulator jit = new JitEmulator();
+            jit.setCompileThreshold(0);
+            jit.load(loop);
+            long executed = jit.run(limit);
+            same &= executed == limit && state(jit).equals(state(interpret(loop, limit)));
+        }
+        testCase("上限ごとの状態", same, true);
+
+        // 何回かに分けて実行しても同じ
+        JitEmulator jit = new JitEmulator();
+        jit.setCompileThreshold(0);
+        jit.load(loop);
+        for (int i = 0; i < 10; i++) {
+            jit.run(7);
+        }
+        jit.step();
+        testCase("分割実行", state(jit), state(interpret(loop, 71)));
+        testCase("累計の命令数", jit.getCycles(), 71L);
+    }
+
+    /**
+     * 生成したプログラムのテスト
+     * ProgramGenerator のプログラムは定数と計算した値の両方へジャンプし、RAM全体を読み書きする
+     */
+    private static void testGeneratedPrograms() {
+        System.out.println("\n----- 生成したプログラムのテスト -----");
+
+        int mismatches = 0;
+        for (long seed = 1; seed <= 20; seed++) {
+            int[] words = assemble(new ProgramGenerator(3000, 0.05, 40, seed).generate());
+            for (int threshold : new int[] {0, 3}) {
+                JitEmulator jit = new JitEmulator();
+                jit.setCompileThreshold(threshold);
+                jit.load(words);
+                jit.run(200_000);
+                if (!state(jit).equals(state(interpret(words, 200_000)))) {
+                    mismatches++;
+                }
+            }
+        }
+        testCase("解釈実行との不一致", mismatches, 0);
+    }
+
+    private static Emulator interpret(int[] words, long cycles) {
+        Emulator emulator = new Emulator();
+        emulator.load(words);
+        emulator.run(cycles);
+        return emulator;
+    }
+
+    /**
+     * レジスタと停止状態、RAM全体の内容
+     */
+    private static String state(Emulator emulator) {
+        return "A=" + emulator.getA() + " D=" + emulator.getD() + " PC=" + emulator.getPC()
+                + " halted=" + emulator.isHalted() + " cycles=" + emulator.getCycles()
+                + " ram=" + Arrays.hashCode(emulator.getRam());
+    }
+
+    private static int[] assemble(String... source) {
+        Hack hack = new Hack();
+        return StreamSupport.intStream(hack.words(String.join("\n", source) + "\n"), false).toArray();
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package emu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import asm.hack.SourceMap;
+
+/**
+ * Profiler.java - Hackプログラムの実行命令数をVMの関数とコマンドに割り当てる
+ *
+ * ソースマップ (Hack --source-map で出力する .hack.map) で各ROMアドレスをVMのファイル・行・関数に対応させ、
+ * .vm の行からコマンドの種類 ("push local"、"call"、"eq" など) を求めます。
+ * VMファイルに属さないコード (ファイル名が空) は、関数名が空ならブートストラップ、空でなければ
+ * VMトランスレータの共通ルーチンで、関数名の位置にルーチンが実装するコマンドの種類が入っています。
+ *
+ * 2つの方式があります。
+ * - 計数 (profile): 解釈実行をジャンプが成立するまでの直線区間ごとに進め、全ての命令を数える。
+ *   call コマンド (とブートストラップ) の命令から関数の先頭へのジャンプを call、return コマンドの命令からのジャンプを
+ *   return として呼び出しの木をたどる (関数の先頭のラベルへの goto/if-goto は呼び出しではない)。
+ *   共通ルーチンの return ($$RETURN) へのジャンプでは戻らず、ルーチンの最後のジャンプで戻る
+ * - 標本 (sample): JitEmulator で一定の命令数ごとに止め、その時点のPCを記録する。
+ *   呼び出しの履歴はRAM上のフレーム (LCL、LCL-5 の戻りアドレス、LCL-4 の呼び出し元のLCL) をたどって求める
+ *
+ * どちらも呼び出しの木に命令数を積み、関数ごとの自己/累積の命令数、コマンドの種類ごとの命令数、
+ * flamegraph 用の collapsed stack 形式 ("A;B;C 命令数") を出力できます。
+ */
+public class Profiler {
+    // ブートストラップ (VMファイルに属さないコード) の関数名
+    static final String BOOTSTRAP = "(bootstrap)";
+    // 共通ルーチン (VMトランスレータの --shared-compare など) の行の表示名
+    static final String SHARED = "(shared)";
+    // 標本の呼び出し履歴をたどる深さの上限
+    private static final int MAX_DEPTH = 1024;
+
+    private final SourceMap map;
+    private final File vmDirectory;
+    private final Map<String, List<String>> vmSources = new HashMap<>();
+
+    // ROMアドレスごとの情報 (load で作る)
+    private int[] entries = new int[0];
+    private String[] commands = new String[0];
+    private int[] functionIds = new int[0];
+    private boolean[] returns = new boolean[0];
+    // call コマンドまたはブートストラップの命令 (ここから関数の先頭へのジャンプが呼び出し)
+    private boolean[] calls = new boolean[0];
+    // VMトランスレータの共通ルーチンの命令
+    private boolean[] routines = new boolean[0];
+    // 関数の先頭のアドレスなら関数の番号、そうでなければ -1
+    private int[] functionEntries = new int[0];
+    private final List<String> functionNames = new ArrayList<>();
+    private final Map<String, Integer> functionIndexes = new HashMap<>();
+
+    // 結果
+    private long[] addressCycles = new long[0];
+    private Frame root = new Frame(-1, null);
+    private long totalCycles;
+    private long samples;
+
+    /**
+     * 呼び出しの木の節点 (根から節点までの関数の並びが1つの呼び出し履歴)
+     */
+    private static final class Frame {
+        final int function;
+        final Frame parent;
+        final Map<Integer, Frame> children = new LinkedHashMap<>();
+        long self;
+
+        Frame(int function, Frame parent) {
+            this.function = function;
+            this.parent = parent;
+        }
+
+        Frame child(int function) {
+            Frame child = children.get(function);
+            if (child == null) {
+                child = new Frame(function, this);
+                children.put(function, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * @param map ROMアドレスで引くソースマップ
+     * @param vmDirectory マップのファイル名 (.vm) を探すディレクトリ
+     */
+    public Profiler(SourceMap map, File vmDirectory) {
+        this.map = map;
+        this.vmDirectory = vmDirectory;
+    }
+
+    /**
+     * 命令を数えながら実行する (解釈実行)
+     * @param emulator プログラムを読み込んだエミュレータ
+     * @param maxCycles 最大命令数
+     * @return 実行した命令数
+     */
+    public long profile(Emulator emulator, long maxCycles) {
+        prepare(emulator.getRomSize());
+        int size = emulator.getRomSize();
+        // 直線区間の始点と終点の差分 (最後に累積和をとって命令ごとの回数にする)
+        long[] difference = new long[size + 1];
+        Frame frame = root.child(functionAt(emulator.getPC()));
+        long executed = 0;
+        while (executed < maxCycles && !emulator.isHalted()) {
+            int start = emulator.getPC();
+            if (start < 0 || start >= size) {
+                break;
+            }
+            long count = emulator.interpret(maxCycles - executed, true);
+            if (count == 0) {
+                break;
+            }
+            executed += count;
+            difference[start]++;
+            difference[start + (int) count]--;
+            frame.self += count;
+
+            int last = start + (int) count - 1;
+            int target = emulator.getPC();
+            if (emulator.jumped) {
+                if (returns[last] && !(target >= 0 && target < size && routines[target])) {
+                    if (frame.parent != root) {
+                        frame = frame.parent;
+                    }
+                } else if (calls[last] && target >= 0 && target < size && functionEntries[target] >= 0) {
+                    frame = frame.child(functionEntries[target]);
+                }
+            }
+        }
+        emulator.cycles += executed;
+
+        long running = 0;
+        for (int address = 0; address < size; address++) {
+            running += difference[address];
+            addressCycles[address] = running;
+        }
+        totalCycles = executed;
+        samples = executed;
+        return executed;
+    }
+
+    /**
+     * 一定の命令数ごとにPCと呼び出し履歴を記録しながら実行する (JitEmulator を使うと高速)
+     * 各標本はその間隔の命令数として数えます。
+     * @param emulator プログラムを読み込んだエミュレータ
+     * @param maxCycles 最大命令数
+     * @param interval 標本の間隔 (命令数)
+     * @return 実行した命令数
+     */
+    public long sample(Emulator emulator, long maxCycles, int interval) {
+        prepare(emulator.getRomSize());
+        int size = emulator.getRomSize();
+        long executed = 0;
+        int[] stack = new int[MAX_DEPTH];
+        while (executed < maxCycles) {
+            long count = emulator.run(Math.min(interval, maxCycles - executed));
+            if (count == 0) {
+                break;
+            }
+            executed += count;
+            int pc = emulator.getPC();
+            if (pc < 0 || pc >= size) {
+                break;
+            }
+            addressCycles[pc] += count;
+            samples++;
+
+            // 呼び出し履歴を葉から根へたどる
+            int depth = 0;
+            int function = functionIds[pc];
+            stack[depth++] = function;
+            int lcl = emulator.peek(1);
+            while (depth < MAX_DEPTH && !functionNames.get(function).equals(BOOTSTRAP)
+                    && lcl >= 5 && lcl < Emulator.SCREEN) {
+                int returnAddress = emulator.peek(lcl - 5);
+                if (returnAddress < 1 || returnAddress > size) {
+                    break;
+                }
+                // 戻りアドレスの直前は呼び出し元の call のジャンプ命令
+                // (戻りアドレス自体は次の関数の先頭と同じ位置になることがある)
+                function = functionIds[returnAddress - 1];
+                stack[depth++] = function;
+                lcl = emulator.peek(lcl - 4);
+            }
+            Frame frame = root;
+            for (int i = depth - 1; i >= 0; i--) {
+                frame = frame.child(stack[i]);
+            }
+            frame.self += count;
+        }
+        totalCycles = executed;
+        return executed;
+    }
+
+    /**
+     * ROMアドレスごとのコマンドと関数を求める
+     */
+    private void prepare(int size) {
+        entries = new int[size];
+        commands = new String[size];
+        functionIds = new int[size];
+        returns = new boolean[size];
+        calls = new boolean[size];
+        routines = new boolean[size];
+        functionEntries = new int[size];
+        Arrays.fill(functionEntries, -1);
+        addressCycles = new long[size];
+        root = new Frame(-1, null);
+        samples = 0;
+
+        String[] entryCommands = new String[map.size()];
+        for (int entry = 0; entry < map.size(); entry++) {
+            entryCommands[entry] = commandType(entry);
+            int start = map.getStart(entry);
+            if (entryCommands[entry].equals("function") && start < size) {
+                functionEntries[start] = functionId(map.getFunction(entry));
+            }
+        }
+        for (int address = 0; address < size; address++) {
+            int entry = map.find(address);
+            entries[address] = entry;
+            commands[address] = entry == -1 ? BOOTSTRAP : entryCommands[entry];
+            // 共通ルーチンは呼び出し元の関数の中で実行するので、関数名 (コマンドの種類) は使わない
+            boolean generated = entry == -1 || map.getFile(entry).isEmpty();
+            functionIds[address] = functionId(generated ? "" : map.getFunction(entry));
+            routines[address] = generated && entry != -1 && !map.getFunction(entry).isEmpty();
+            returns[address] = commands[address].equals("return");
+            calls[address] = commands[address].equals("call") || commands[address].equals(BOOTSTRAP);
+        }
+    }
+
+    private int functionAt(int address) {
+        return address >= 0 && address < functionIds.length ? functionIds[address] : functionId("");
+    }
+
+    private int functionId(String function) {
+        String name = function.isEmpty() ? BOOTSTRAP : function;
+        Integer id = functionIndexes.get(name);
+        if (id == null) {
+            id = functionNames.size();
+            functionNames.add(name);
+            functionIndexes.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * エントリのVMコマンドの種類 (push/pop は区画を含める)
+     */
+    private String commandType(int entry) {
+        String file = map.getFile(entry);
+        if (file.isEmpty()) {
+            return map.getFunction(entry).isEmpty() ? BOOTSTRAP : map.getFunction(entry);
+        }
+        String text = vmLine(file, map.getLine(entry));
+        if (text == null) {
+            return file;
+        }
+        String[] words = text.split("\\s+");
+        if ((words[0].equals("push") || words[0].equals("pop")) && words.length > 1) {
+            return words[0] + " " + words[1];
+        }
+        return words[0];
+    }
+
+    /**
+     * .vm の行 (コメントと前後の空白を除いたもの)
+     */
+    private String vmLine(String file, int line) {
+        List<String> lines = vmSources.computeIfAbsent(file, name -> {
+            try {
+                return Files.readAllLines(Paths.get(vmDirectory.getPath(), name), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return Collections.emptyList();
+            }
+        });
+        if (line < 1 || line > lines.size()) {
+            return null;
+        }
+        String text = lines.get(line - 1);
+        int comment = text.indexOf("//");
+        if (comment != -1) {
+            text = text.substring(0, comment);
+        }
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    // ----- 結果 -----
+
+    /**
+     * 実行した命令数
+     */
+    public long getTotalCycles() {
+        return totalCycles;
+    }
+
+    /**
+     * 記録した標本の数 (計数の場合は命令数と同じ)
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * ROMアドレスごとの命令数
+     */
+    public long[] getAddressCycles() {
+        return addressCycles;
+    }
+
+    /**
+     * コマンドの種類ごとの命令数 (多い順)
+     */
+    public Map<String, Long> getCommandCycles() {
+        Map<String, Long> cycles = new HashMap<>();
+        for (int address = 0; address < addressCycles.length; address++) {
+            if (addressCycles[address] != 0) {
+                cycles.merge(commands[address], addressCycles[address], Long::sum);
+            }
+        }
+        return sortByValue(cycles);
+    }
+
+    /**
+     * VMの行ごとの命令数 (多い順、"ファイル:行 コマンド" をキーとする)
+     */
+    public Map<String, Long> getLineCycles() {
+        Map<String, Long> cycles = new HashMap<>();
+        for (int address = 0; address < addressCycles.length; address++) {
+            int entry = entries[address];
+            if (addressCycles[address] != 0 && entry != -1) {
+                String key = map.getFile(entry).isEmpty()
+                        ? (map.getFunction(entry).isEmpty() ? BOOTSTRAP : SHARED + " " + map.getFunction(entry))
+                        : map.getFile(entry) + ":" + map.getLine(entry) + " " + vmLineOrEmpty(entry);
+                cycles.merge(key, addressCycles[address], Long::sum);
+            }
+        }
+        return sortByValue(cycles);
+    }
+
+    private String vmLineOrEmpty(int entry) {
+        String text = vmLine(map.getFile(entry), map.getLine(entry));
+        return text == null ? "" : text;
+    }
+
+    /**
+     * 関数ごとの自己命令数 (その関数の中で実行した命令数、多い順)
+     */
+    public Map<String, Long> getSelfCycles() {
+        Map<String, Long> cycles = new HashMap<>();
+        walk(root, (frame, active) -> {
+            if (frame.self != 0) {
+                cycles.merge(functionNames.get(frame.function), frame.self, Long::sum);
+            }
+        });
+        return sortByValue(cycles);
+    }
+
+    /**
+     * 関数ごとの累積命令数 (その関数から呼び出した関数を含む、多い順)
+     * 再帰呼び出しで同じ関数が履歴に複数回現れても1回だけ数えます。
+     */
+    public Map<String, Long> getInclusiveCycles() {
+        Map<String, Long> cycles = new HashMap<>();
+        walk(root, (frame, active) -> {
+            if (frame.self == 0) {
+                return;
+            }
+            for (int function : active.keySet()) {
+                cycles.merge(functionNames.get(function), frame.self, Long::sum);
+            }
+        });
+        return sortByValue(cycles);
+    }
+
+    /**
+     * collapsed stack 形式の各行 ("根;...;葉" → 命令数)
+     */
+    public Map<String, Long> getFoldedStacks() {
+        // 深い再帰でもJavaのスタックを使い切らないよう、明示的なスタックでたどる
+        Map<String, Long> stacks = new LinkedHashMap<>();
+        Deque<Iterator<Frame>> pending = new ArrayDeque<>();
+        Deque<String> paths = new ArrayDeque<>();
+        pending.push(root.children.values().iterator());
+        paths.push("");
+        while (!pending.isEmpty()) {
+            Iterator<Frame> siblings = pending.peek();
+            if (!siblings.hasNext()) {
+                pending.pop();
+                paths.pop();
+                continue;
+            }
+            Frame frame = siblings.next();
+            String prefix = paths.peek();
+            String name = functionNames.get(frame.function);
+            String path = prefix.isEmpty() ? name : prefix + ";" + name;
+            if (frame.self != 0) {
+                stacks.put(path, frame.self);
+            }
+            pending.push(frame.children.values().iterator());
+            paths.push(path);
+        }
+        return stacks;
+    }
+
+    /**
+     * collapsed stack 形式で書き出す (flamegraph.pl などにそのまま渡せる)
+     */
+    public void writeFolded(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        for (Map.Entry<String, Long> stack : getFoldedStacks().entrySet()) {
+            out.println(stack.getKey() + " " + stack.getValue());
+        }
+        out.flush();
+    }
+
+    private interface Visitor {
+        void visit(Frame frame, Map<Integer, Integer> active);
+    }
+
+    /**
+     * 呼び出しの木をたどる (active は根からの履歴にある関数と出現回数)
+     */
+    private static void walk(Frame root, Visitor visitor) {
+        Map<Integer, Integer> active = new HashMap<>();
+        Deque<Iterator<Frame>> pending = new ArrayDeque<>();
+        Deque<Frame> frames = new ArrayDeque<>();
+        pending.push(root.children.values().iterator());
+        frames.push(root);
+        while (!pending.isEmpty()) {
+            Iterator<Frame> siblings = pending.peek();
+            if (!siblings.hasNext()) {
+                pending.pop();
+                Frame frame = frames.pop();
+                if (frame != root && active.merge(frame.function, -1, Integer::sum) == 0) {
+                    active.remove(frame.function);
+                }
+                continue;
+            }
+            Frame frame = siblings.next();
+            active.merge(frame.function, 1, Integer::sum);
+            visitor.visit(frame, active);
+            pending.push(frame.children.values().iterator());
+            frames.push(frame);
+        }
+    }
+
+    private static Map<String, Long> sortByValue(Map<String, Long> values) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(values.entrySet());
+        sorted.sort((x, y) -> Long.compare(y.getValue(), x.getValue()));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : sorted) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 表を表示する (上位 limit 件)
+     */
+    private static void printTable(String title, Map<String, Long> values, long total, int limit) {
+        System.out.println("\n" + title);
+        int count = 0;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            if (count++ == limit) {
+                break;
+            }
+            System.out.printf("%14d %6.2f%%  %s%n", entry.getValue(),
+                    100.0 * entry.getValue() / Math.max(1, total), entry.getKey());
+        }
+    }
+
+    /**
+     * メインメソッド
+     * 使用法: java emu.Profiler [--sample 間隔] [--cycles 最大命令数] [--vm-dir ディレクトリ] [--folded 出力] <ROMファイル>
+     * ソースマップは ROMファイル名 + ".map" (Hack --source-map の出力) を読みます。
+     */
+    public static void main(String[] args) {
+        int interval = 0;
+        long maxCycles = 100_000_000L;
+        String vmDirectory = null;
+        String foldedFile = null;
+        int argIndex = 0;
+        try {
+            while (argIndex < args.length - 1 && args[argIndex].startsWith("--")) {
+                switch (args[argIndex]) {
+                    case "--sample":
+                        interval = Integer.parseInt(args[++argIndex]);
+                        break;
+                    case "--cycles":
+                        maxCycles = Long.parseLong(args[++argIndex]);
+                        break;
+                    case "--vm-dir":
+                        vmDirectory = args[++argIndex];
+                        break;
+                    case "--folded":
+                        foldedFile = args[++argIndex];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("不明なオプション: " + args[argIndex]);
+                }
+                argIndex++;
+            }
+        } catch (RuntimeException e) {
+            argIndex = -1;
+        }
+        if (argIndex < 0 || args.length - argIndex != 1) {
+            System.err.println("使用法: java emu.Profiler [--sample 間隔] [--cycles 最大命令数] [--vm-dir ディレクトリ] [--folded 出力] <ROMファイル>");
+            System.exit(1);
+        }
+
+        String romFile = args[argIndex];
+        try {
+            File mapFile = new File(romFile + ".map");
+            if (!mapFile.exists()) {
+                System.err.println("エラー: ソースマップ " + mapFile + " がありません (VMTranslator と Hack を --source-map 付きで実行してください)");
+                System.exit(1);
+            }
+            File directory = vmDirectory != null ? new File(vmDirectory) : new File(romFile).getAbsoluteFile().getParentFile();
+            Profiler profiler = new Profiler(SourceMap.read(mapFile.getPath()), directory);
+
+            Emulator emulator = interval > 0 ? new JitEmulator() : new Emulator();
+            emulator.load(romFile);
+            long start = System.nanoTime();
+            long executed = interval > 0 ? profiler.sample(emulator, maxCycles, interval) : profiler.profile(emulator, maxCycles);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("実行した命令: %d (%s), %.1f ms, %s%n", executed,
+                    emulator.isHalted() ? "停止" : "PC=" + emulator.getPC(), elapsed / 1e6,
+                    interval > 0 ? "標本 " + profiler.getSamples() + " 個 (" + interval + " 命令ごと)" : "全命令を計数");
+            printTable("コマンドごとの命令数", profiler.getCommandCycles(), executed, 30);
+            printTable("関数ごとの自己命令数", profiler.getSelfCycles(), executed, 30);
+            printTable("関数ごとの累積命令数", profiler.getInclusiveCycles(), executed, 30);
+            printTable("VMの行ごとの命令数", profiler.getLineCycles(), executed, 20);
+
+            if (foldedFile != null) {
+                try (Writer writer = Files.newBufferedWriter(Paths.get(foldedFile), StandardCharsets.UTF_8)) {
+                    profiler.writeFolded(writer);
+                }
+                System.out.println("\ncollapsed stack: " + foldedFile);
+            }
+        } catch (IOException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
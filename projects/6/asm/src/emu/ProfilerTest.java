@@ -0,0 +1,328 @@
+package emu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.StreamSupport;
+
+import asm.hack.Hack;
+import asm.hack.SourceMap;
+
+/**
+ * ProfilerTest.java - Profilerクラスのテスト
+ *
+ * VMトランスレータと同じ形の call/return を持つ小さなプログラムと、そのソースマップと .vm を組み立てて使います。
+ *   Main.main: Main.f を2回呼んで戻る
+ *   Main.f:    push constant 7 / pop temp 0 / return
+ * 関数の先頭のラベルに戻るループと、共通ルーチンの return のテストでは、別のプログラムを組み立て直します。
+ */
+public class ProfilerTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    // 組み立てたプログラム
+    private static final List<String> asm = new ArrayList<>();
+    private static final List<String> vm = new ArrayList<>();
+    private static SourceMap map = new SourceMap();
+    private static int romAddress = 0;
+    private static int labelCount = 0;
+
+    public static void main(String[] args) {
+        System.out.println("===== Profiler クラステスト開始 =====");
+
+        File directory = new File("profilerTest");
+        try {
+            buildProgram();
+            directory.mkdirs();
+            Files.write(new File(directory, "Main.vm").toPath(), vm, StandardCharsets.UTF_8);
+            int[] words = StreamSupport.intStream(
+                    new Hack().words(String.join("\n", asm) + "\n"), false).toArray();
+
+            testProfile(words, directory);
+            testSample(words, directory);
+            testLoopAtEntry(directory);
+            testSharedReturn(directory);
+        } catch (IOException e) {
+            testCase("テストの準備", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            new File(directory, "Main.vm").delete();
+            directory.delete();
+        }
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 計数のテスト
+     */
+    private static void testProfile(int[] words, File directory) {
+        System.out.println("\n----- 計数のテスト -----");
+
+        Emulator emulator = new Emulator();
+        emulator.load(words);
+        Profiler profiler = new Profiler(map, directory);
+        long executed = profiler.profile(emulator, 10_000);
+        testCase("停止まで実行", emulator.isHalted(), true);
+        testCase("全命令数", profiler.getTotalCycles(), executed);
+        testCase("エミュレータの命令数", emulator.getCycles(), executed);
+
+        Map<String, Long> commands = profiler.getCommandCycles();
+        testCase("push constant (7命令 x 2回)", commands.get("push constant"), 14L);
+        testCase("pop temp (5命令 x 2回)", commands.get("pop temp"), 10L);
+        testCase("call (2回)", commands.get("call"), 2L * CALL_LENGTH);
+        testCase("return (3回)", commands.get("return"), 3L * RETURN_LENGTH);
+        testCase("コマンドの合計", sum(commands), executed);
+
+        Map<String, Long> self = profiler.getSelfCycles();
+        testCase("Main.f の自己命令数", self.get("Main.f"), 2L * (7 + 5 + RETURN_LENGTH));
+        testCase("自己命令数の合計", sum(self), executed);
+        Map<String, Long> inclusive = profiler.getInclusiveCycles();
+        testCase("Main.main の累積命令数", inclusive.get("Main.main"), self.get("Main.main") + self.get("Main.f"));
+        testCase("ブートストラップの累積命令数", inclusive.get(Profiler.BOOTSTRAP), executed);
+
+        Map<String, Long> stacks = profiler.getFoldedStacks();
+        testCase("呼び出し履歴", stacks.keySet().toString(),
+                "[(bootstrap), (bootstrap);Main.main, (bootstrap);Main.main;Main.f]");
+        StringWriter folded = new StringWriter();
+        profiler.writeFolded(folded);
+        testCase("collapsed stack 形式",
+                folded.toString().contains("(bootstrap);Main.main;Main.f " + self.get("Main.f") + System.lineSeparator()), true);
+
+        testCase("VMの行ごとの命令数", profiler.getLineCycles().get("Main.vm:6 push constant 7"), 14L);
+    }
+
+    /**
+     * 標本のテスト - 標本はその時点で次に実行する命令の位置を記録する
+     */
+    private static void testSample(int[] words, File directory) {
+        System.out.println("\n----- 標本のテスト -----");
+
+        Emulator exact = new Emulator();
+        exact.load(words);
+        Profiler counting = new Profiler(map, directory);
+        counting.profile(exact, 10_000);
+
+        JitEmulator emulator = new JitEmulator();
+        emulator.setCompileThreshold(0);
+        emulator.load(words);
+        Profiler profiler = new Profiler(map, directory);
+        long executed = profiler.sample(emulator, 10_000, 1);
+        testCase("標本の数", profiler.getSamples(), executed);
+        testCase("標本の命令数", executed, counting.getTotalCycles());
+        // push constant の2〜7命令目と、Main.f へのジャンプの直後 (push constant の1命令目) の位置 x 2回
+        testCase("コマンドごとの命令数", profiler.getCommandCycles().get("push constant"), 14L);
+
+        // RAM上のフレームから求めた呼び出し履歴 (関数の本体の中では計数と一致する)
+        Map<String, Long> stacks = profiler.getFoldedStacks();
+        testCase("フレームをたどった呼び出し履歴", stacks.containsKey("(bootstrap);Main.main;Main.f"), true);
+
+        // 間隔を空けても全命令数は変わらない
+        emulator = new JitEmulator();
+        emulator.load(words);
+        profiler = new Profiler(map, directory);
+        testCase("間隔7の命令数", profiler.sample(emulator, 10_000, 7), executed);
+        testCase("間隔7の標本の数", profiler.getSamples(), (executed + 6) / 7);
+    }
+
+    /**
+     * 関数の先頭のラベルに戻るループのテスト - goto/if-goto で関数の先頭に戻っても呼び出しとして数えない
+     * (OSの Sys.halt も function の直後に label がある)
+     */
+    private static void testLoopAtEntry(File directory) throws IOException {
+        System.out.println("\n----- 関数の先頭へのループのテスト -----");
+
+        reset();
+        // ブートストラップ: SP=256、ループの回数 R6=3 として Main.loop を呼ぶ
+        command("", "", "@256", "D=A", "@SP", "M=D", "@3", "D=A", "@R6", "M=D");
+        call("", "", "Main.loop");
+        command("", "", "(HALT)", "@HALT", "0;JMP");
+        command("Main.loop", "function Main.loop 0", "(Main.loop)");
+        command("Main.loop", "label LOOP", "(Main.loop$LOOP)");
+        command("Main.loop", "if-goto LOOP", "@R6", "MD=M-1", "@Main.loop$LOOP", "D;JGT");
+        ret("Main.loop");
+        int[] words = writeProgram(directory);
+
+        Emulator emulator = new Emulator();
+        emulator.load(words);
+        Profiler profiler = new Profiler(map, directory);
+        long executed = profiler.profile(emulator, 10_000);
+        testCase("停止まで実行", emulator.isHalted(), true);
+        testCase("if-goto (4命令 x 3回)", profiler.getCommandCycles().get("if-goto"), 12L);
+        testCase("ループで呼び出しが増えない", profiler.getFoldedStacks().keySet().toString(),
+                "[(bootstrap), (bootstrap);Main.loop]");
+        testCase("Main.loop の累積命令数は自己命令数", profiler.getInclusiveCycles().get("Main.loop"),
+                profiler.getSelfCycles().get("Main.loop"));
+        testCase("自己命令数の合計", sum(profiler.getSelfCycles()), executed);
+    }
+
+    /**
+     * 共通ルーチンの return のテスト - return は @$$RETURN / 0;JMP で、ルーチンはファイル名が空、関数名が "return" の
+     * エントリ。ルーチンの命令は return と呼び出された関数に数え、ルーチンの最後のジャンプで呼び出し元に戻る
+     */
+    private static void testSharedReturn(File directory) throws IOException {
+        System.out.println("\n----- 共通ルーチンの return のテスト -----");
+
+        reset();
+        command("", "", "@256", "D=A", "@SP", "M=D");
+        call("", "", "Main.f");
+        command("", "", "(HALT)", "@HALT", "0;JMP");
+        command("Main.f", "function Main.f 0", "(Main.f)");
+        command("Main.f", "push constant 7", "@7", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        command("Main.f", "pop temp 0", "@SP", "AM=M-1", "D=M", "@R5", "M=D");
+        command("Main.f", "return", "@$$RETURN", "0;JMP");
+        routine("return", "$$RETURN", RETURN_LINES);
+        int[] words = writeProgram(directory);
+
+        Emulator emulator = new Emulator();
+        emulator.load(words);
+        Profiler profiler = new Profiler(map, directory);
+        long executed = profiler.profile(emulator, 10_000);
+        testCase("停止まで実行", emulator.isHalted(), true);
+        testCase("return (呼び出し側 + ルーチン)", profiler.getCommandCycles().get("return"), 2L + RETURN_LENGTH);
+        testCase("ブートストラップ", profiler.getCommandCycles().get(Profiler.BOOTSTRAP), executed - (7 + 5 + 2 + RETURN_LENGTH));
+        testCase("ルーチンの命令は呼び出された関数の自己命令数", profiler.getSelfCycles().get("Main.f"),
+                7L + 5 + 2 + RETURN_LENGTH);
+        testCase("呼び出し履歴", profiler.getFoldedStacks().keySet().toString(), "[(bootstrap), (bootstrap);Main.f]");
+        testCase("VMの行ごとの命令数", profiler.getLineCycles().get(Profiler.SHARED + " return"), (long) RETURN_LENGTH);
+    }
+
+    // ----- プログラムの組み立て -----
+
+    /**
+     * 組み立てたプログラムを消して最初から組み立て直す
+     */
+    private static void reset() {
+        asm.clear();
+        vm.clear();
+        map = new SourceMap();
+        romAddress = 0;
+    }
+
+    /**
+     * 組み立てたプログラムの .vm を書き出し、命令語にする
+     */
+    private static int[] writeProgram(File directory) throws IOException {
+        Files.write(new File(directory, "Main.vm").toPath(), vm, StandardCharsets.UTF_8);
+        return StreamSupport.intStream(new Hack().words(String.join("\n", asm) + "\n"), false).toArray();
+    }
+
+    private static final int CALL_LENGTH = 24;
+    private static final int RETURN_LENGTH = 25;
+
+    private static void buildProgram() {
+        // ブートストラップ: SP=256 として Main.main を呼び、戻ったら停止する
+        command("", "", "@256", "D=A", "@SP", "M=D");
+        call("", "", "Main.main");
+        command("", "", "(HALT)", "@HALT", "0;JMP");
+
+        command("Main.main", "function Main.main 0", "(Main.main)");
+        call("Main.main", "call Main.f 0", "Main.f");
+        call("Main.main", "call Main.f 0", "Main.f");
+        ret("Main.main");
+
+        command("Main.f", "function Main.f 0", "(Main.f)");
+        command("Main.f", "push constant 7", "@7", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        command("Main.f", "pop temp 0", "@SP", "AM=M-1", "D=M", "@R5", "M=D");
+        ret("Main.f");
+    }
+
+    /**
+     * call (戻りアドレスとLCLを積み、ARG、THIS、THAT の分の領域を確保し、LCL=SP としてジャンプする)
+     */
+    private static void call(String function, String text, String callee) {
+        String label = "RET" + labelCount++;
+        command(function, text,
+                "@" + label, "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+                "@LCL", "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+                "@3", "D=A", "@SP", "M=D+M",
+                "@SP", "D=M", "@LCL", "M=D",
+                "@" + callee, "0;JMP", "(" + label + ")");
+    }
+
+    /**
+     * return (SP=フレーム-5、LCL=保存したLCL として戻りアドレスへジャンプする)
+     */
+    private static void ret(String function) {
+        command(function, "return", RETURN_LINES);
+    }
+
+    private static final String[] RETURN_LINES = {
+            "@LCL", "D=M", "@R13", "M=D",
+            "@5", "A=D-A", "D=M", "@R14", "M=D",
+            "@R13", "D=M", "@4", "A=D-A", "D=M", "@LCL", "M=D",
+            "@R13", "D=M", "@5", "D=D-A", "@SP", "M=D",
+            "@R14", "A=M", "0;JMP"};
+
+    /**
+     * VMトランスレータの共通ルーチンを追加する (ファイル名を空、関数名をルーチンが実装するコマンドとして記録する)
+     */
+    private static void routine(String commandType, String label, String... lines) {
+        map.add(romAddress, asm.size() + 1, "", 0, commandType);
+        asm.add("(" + label + ")");
+        for (String line : lines) {
+            asm.add(line);
+            romAddress++;
+        }
+    }
+
+    /**
+     * VMコマンド1つ分の命令を追加し、ソースマップに記録する
+     * @param text VMコマンド (空文字列ならブートストラップ)
+     */
+    private static void command(String function, String text, String... lines) {
+        if (text.isEmpty()) {
+            map.add(romAddress, asm.size() + 1, "", 0, "");
+        } else {
+            vm.add(text);
+            map.add(romAddress, asm.size() + 1, "Main.vm", vm.size(), function);
+        }
+        for (String line : lines) {
+            asm.add(line);
+            if (!line.startsWith("(")) {
+                romAddress++;
+            }
+        }
+    }
+
+    private static long sum(Map<String, Long> values) {
+        long total = 0;
+        for (long value : values.values()) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package vm;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteOrder;
+
+import asm.hack.BinaryWriter;
+import asm.hack.DeadCodeEliminator;
+import asm.hack.Hack;
+import asm.hack.HackWriter;
+import asm.hack.RomReader;
+import asm.hack.WordWriter;
+import asm.ir.Program;
+
+/**
+ * VMファイルから .hack (またはバイナリ形式のROM) を1つのプロセスで生成するドライバ
+ *
+ * VMTranslator で中間表現 (Program) に変換し、Hack.assemble(Program) でそのまま命令語にします。
+ * 途中で .asm を書き出して読み直さないので、ラベルの解決もメモリ上の命令列に対して行います。
+ * .asm は --asm を指定した場合だけ書き出します (コメントなし、1要素1行)。
+ */
+public class VMCompiler {
+    private final VMTranslator translator = new VMTranslator();
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+    private boolean eliminateDeadCode = false;
+    private String asmFile;
+
+    // 直前の変換の結果 (命令数と各段階の所要時間)
+    private DeadCodeEliminator eliminator;
+    private int instructionCount;
+    private long translateNanos;
+    private long assembleNanos;
+    private long writeNanos;
+
+    /**
+     * リリースモード (内部ラベルを短い名前にする) で変換するかどうかを設定する
+     */
+    public void setRelease(boolean release) {
+        translator.setRelease(release, false);
+    }
+
+    /**
+     * 比較 (eq/gt/lt) を共通ルーチンの呼び出しにするかどうかを設定する
+     */
+    public void setSharedCompare(boolean sharedCompare) {
+        translator.setSharedCompare(sharedCompare);
+    }
+
+    /**
+     * 直前の変換の比較のROMとサイクル数の比較結果
+     */
+    public String getCompareReport() {
+        return translator.getCompareReport();
+    }
+
+    /**
+     * call/return を共通ルーチンの呼び出しにするかどうかを設定する
+     */
+    public void setSharedCall(boolean sharedCall) {
+        translator.setSharedCall(sharedCall);
+    }
+
+    /**
+     * 直前の変換の call/return のROMとサイクル数の比較結果
+     */
+    public String getCallReport() {
+        return translator.getCallReport();
+    }
+
+    /**
+     * バイナリ形式で出力する場合のバイト順を設定
+     */
+    public void setByteOrder(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * アドレス0から到達できないコードを除去するかどうかを設定する
+     */
+    public void setEliminateDeadCode(boolean eliminateDeadCode) {
+        this.eliminateDeadCode = eliminateDeadCode;
+    }
+
+    /**
+     * 中間表現を .asm としても書き出す場合の出力先 (書き出さない場合は null)
+     */
+    public void setAsmFile(String asmFile) {
+        this.asmFile = asmFile;
+    }
+
+    /**
+     * VMファイルまたはディレクトリを変換し、アセンブルした結果を書き出す
+     * @param inputPath 入力 .vm ファイルまたはディレクトリ
+     * @param outputFile 出力ファイル (.hack はテキスト形式、.bin/.rom はバイナリ形式)
+     * @return 命令語 (ROMアドレス順)
+     */
+    public int[] compile(String inputPath, String outputFile) throws IOException {
+        long start = System.nanoTime();
+        Program program = new Program();
+        translator.translate(inputPath, program);
+        long translated = System.nanoTime();
+
+        int[] words = new Hack().assemble(program);
+        eliminator = null;
+        if (eliminateDeadCode) {
+            eliminator = DeadCodeEliminator.forProgram(program, words);
+            words = eliminator.eliminate();
+        }
+        long assembled = System.nanoTime();
+
+        WordWriter writer = RomReader.isBinary(outputFile)
+                ? new BinaryWriter(outputFile, byteOrder)
+                : new HackWriter(outputFile);
+        writer.write(words, words.length);
+        writer.close();
+        if (asmFile != null) {
+            try (Writer out = new BufferedWriter(new FileWriter(asmFile))) {
+                program.writeAssembly(out);
+            }
+        }
+        long written = System.nanoTime();
+
+        instructionCount = words.length;
+        translateNanos = translated - start;
+        assembleNanos = assembled - translated;
+        writeNanos = written - assembled;
+        return words;
+    }
+
+    /**
+     * 入力に対応する既定の出力ファイル名 (ディレクトリ Prog なら Prog/Prog.hack、Foo.vm なら Foo.hack)
+     */
+    public static String defaultOutputFile(String inputPath) {
+        File input = new File(inputPath);
+        if (input.isDirectory()) {
+            return input.getPath() + File.separator + input.getName() + ".hack";
+        }
+        String name = input.getPath();
+        if (name.endsWith(".vm")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name + ".hack";
+    }
+
+    /**
+     * 直前の変換で除去した結果 (除去しなかった場合は null)
+     */
+    public DeadCodeEliminator getEliminator() {
+        return eliminator;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d 命令 (読み込み・変換 %.1f ms, アセンブル %.1f ms, 書き出し %.1f ms)",
+                instructionCount, translateNanos / 1e6, assembleNanos / 1e6, writeNanos / 1e6);
+    }
+
+    /**
+     * メインメソッド
+     */
+    public static void main(String[] args) {
+        // オプション
+        //   --release             内部ラベルを短い名前にする (シンボルの登録が速くなる)
+        //   --shared-compare      比較 (eq/gt/lt) を共通ルーチンの呼び出しにし、ROMとサイクル数の比較を表示
+        //   --shared-call         call/return を共通ルーチンの呼び出しにし、ROMとサイクル数の比較を表示
+        //   --asm                 中間表現を .asm (出力ファイル名の拡張子を .asm にしたもの) にも書き出す
+        //   --eliminate-dead-code アドレス0から到達できないコードを除去
+        //   --little-endian       バイナリ形式をリトルエンディアンで出力
+        boolean release = false;
+        boolean sharedCompare = false;
+        boolean sharedCall = false;
+        boolean asm = false;
+        boolean eliminateDeadCode = false;
+        boolean littleEndian = false;
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            if (args[argIndex].equals("--release")) {
+                release = true;
+            } else if (args[argIndex].equals("--shared-compare")) {
+                sharedCompare = true;
+            } else if (args[argIndex].equals("--shared-call")) {
+                sharedCall = true;
+            } else if (args[argIndex].equals("--asm")) {
+                asm = true;
+            } else if (args[argIndex].equals("--eliminate-dead-code")) {
+                eliminateDeadCode = true;
+            } else if (args[argIndex].equals("--little-endian")) {
+                littleEndian = true;
+            } else {
+                break;
+            }
+            argIndex++;
+        }
+        int remaining = args.length - argIndex;
+        if (remaining != 1 && remaining != 2) {
+            System.err.println("使用法: java vm.VMCompiler [--release] [--shared-compare] [--shared-call] [--asm] [--eliminate-dead-code] [--little-endian] <入力.vm または ディレクトリ> [出力ファイル (.hack/.bin/.rom)]");
+            System.exit(1);
+        }
+
+        String inputPath = args[argIndex];
+        String outputFile = remaining == 2 ? args[argIndex + 1] : defaultOutputFile(inputPath);
+        VMCompiler compiler = new VMCompiler();
+        compiler.setRelease(release);
+        compiler.setSharedCompare(sharedCompare);
+        compiler.setSharedCall(sharedCall);
+        compiler.setEliminateDeadCode(eliminateDeadCode);
+        if (littleEndian) {
+            compiler.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (asm) {
+            int dot = outputFile.lastIndexOf('.');
+            compiler.setAsmFile((dot > outputFile.lastIndexOf(File.separatorChar) ? outputFile.substring(0, dot) : outputFile) + ".asm");
+        }
+
+        try {
+            compiler.compile(inputPath, outputFile);
+            if (sharedCompare) {
+                System.out.println(compiler.getCompareReport());
+            }
+            if (sharedCall) {
+                System.out.println(compiler.getCallReport());
+            }
+            if (compiler.getEliminator() != null) {
+                System.out.println(compiler.getEliminator());
+            }
+            System.out.println("変換完了: " + outputFile + " - " + compiler);
+        } catch (IOException e) {
+            System.err.println("エラー: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
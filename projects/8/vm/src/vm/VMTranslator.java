@@ -2,6 +2,9 @@ package vm;
 
 import java.io.File;
 import java.io.IOException;
+import asm.hack.SourceMap;
+import asm.ir.Program;
+import asm.optimizer.PeepholeOptimizer;
 import vm.parser.Parser;
 import vm.codewriter.CodeWriter;
 
@@ -13,6 +16,76 @@ public class VMTranslator {
     private Parser parser;
     private CodeWriter codeWriter;
     
+    // ソースマップ (.asm の行 → .vm のファイル・行・関数、出力しない場合は null)
+    private SourceMap sourceMap;
+    private String currentVmFile = "";
+    private String currentFunction = "";
+    
+    // 出力した .asm に適用する覗き穴最適化 (最適化しない場合は null)
+    private PeepholeOptimizer optimizer;
+    
+    // リリースモード (コメントなし、短い内部ラベル) と、ラベル名の対応 (出力 .asm ファイル名 + ".labels") の出力
+    private boolean release = false;
+    private boolean labelMap = false;
+    
+    // 比較 (eq/gt/lt) を共通ルーチンの呼び出しにするかどうか
+    private boolean sharedCompare = false;
+    // call/return を共通ルーチンの呼び出しにするかどうか
+    private boolean sharedCall = false;
+    
+    /**
+     * リリースモードで出力するかどうかを設定する
+     * @param release コメントを出力せず、内部ラベルを短い名前にする場合は true
+     * @param labelMap 短いラベル名と元の名前の対応も出力する場合は true
+     */
+    public void setRelease(boolean release, boolean labelMap) {
+        this.release = release;
+        this.labelMap = release && labelMap;
+    }
+    
+    /**
+     * 比較 (eq/gt/lt) を共通ルーチンの呼び出しにするかどうかを設定する (CodeWriter.setSharedCompare)
+     */
+    public void setSharedCompare(boolean sharedCompare) {
+        this.sharedCompare = sharedCompare;
+    }
+    
+    /**
+     * 直前の変換の比較のROMとサイクル数の比較結果 (CodeWriter.getCompareReport)
+     */
+    public String getCompareReport() {
+        return codeWriter == null ? "" : codeWriter.getCompareReport();
+    }
+    
+    /**
+     * call/return を共通ルーチンの呼び出しにするかどうかを設定する (CodeWriter.setSharedCall)
+     */
+    public void setSharedCall(boolean sharedCall) {
+        this.sharedCall = sharedCall;
+    }
+    
+    /**
+     * 直前の変換の call/return のROMとサイクル数の比較結果 (CodeWriter.getCallReport)
+     */
+    public String getCallReport() {
+        return codeWriter == null ? "" : codeWriter.getCallReport();
+    }
+    
+    /**
+     * 出力した .asm に覗き穴最適化を適用するかどうかを設定する
+     * @param optimizer 使用する最適化 (最適化しない場合は null)
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+    
+    /**
+     * ソースマップ (出力 .asm ファイル名 + ".map") を出力するかどうかを設定する
+     */
+    public void setSourceMap(boolean enabled) {
+        sourceMap = enabled ? new SourceMap() : null;
+    }
+    
     /**
      * 単一のVMファイルをアセンブリコードに変換
      */
@@ -27,24 +100,117 @@ public class VMTranslator {
         // 出力ファイル名を生成
         String asmFilePath = vmFile.getParent() + File.separator + baseName + ".asm";
         
-        // パーサーとコードライターを初期化
-        parser = new Parser(vmFilePath);
+        // コードライターを初期化
         codeWriter = new CodeWriter(asmFilePath);
+        codeWriter.setRelease(release);
+        codeWriter.setSharedCompare(sharedCompare);
+        codeWriter.setSharedCall(sharedCall);
+        
+        // ファイルを変換
+        try {
+            translateVmFile(vmFile);
+            writeSharedRoutines();
+        } finally {
+            // リソースを閉じる
+            codeWriter.close();
+        }
+        finish(asmFilePath);
+    }
+    
+    /**
+     * VMファイルまたはディレクトリを中間表現のプログラムに変換する (.asm を書き出さない)
+     * ディレクトリの場合は translateDirectory と同じくブートストラップコードを先頭に置きます。
+     * ソースマップ、覗き穴最適化、ラベル名の対応は .asm に対する後処理なので適用しません。
+     * @param inputPath 入力 .vm ファイルまたはディレクトリ
+     * @param program 追加先のプログラム
+     */
+    public void translate(String inputPath, Program program) throws IOException {
+        File input = new File(inputPath);
+        SourceMap savedSourceMap = sourceMap;
+        sourceMap = null;
+        codeWriter = new CodeWriter(program);
+        codeWriter.setRelease(release);
+        codeWriter.setSharedCompare(sharedCompare);
+        codeWriter.setSharedCall(sharedCall);
+        try {
+            if (input.isDirectory()) {
+                codeWriter.writeBootstrap();
+                translateVmFiles(input);
+            } else {
+                translateVmFile(input);
+            }
+            writeSharedRoutines();
+        } finally {
+            codeWriter.close();
+            sourceMap = savedSourceMap;
+        }
+    }
+    
+    /**
+     * 共通ルーチンを書き込む
+     * ソースマップでは VMファイルに属さないコード (ファイル名が空) とし、関数名の代わりにルーチンが実装する
+     * VMコマンド ("eq" など) を記録します。先頭の停止ループはブートストラップと同じく空にします。
+     */
+    private void writeSharedRoutines() throws IOException {
+        int line = codeWriter.getLineCount() + 1;
+        codeWriter.writeSharedRoutines();
+        if (sourceMap != null && codeWriter.getLineCount() >= line) {
+            sourceMap.add(line, line, "", 0, "");
+            for (int routine = 0; routine < codeWriter.getRoutineCount(); routine++) {
+                int start = codeWriter.getRoutineLine(routine);
+                sourceMap.add(start, start, "", 0, codeWriter.getRoutineCommand(routine));
+            }
+        }
+    }
+    
+    /**
+     * 1つのVMファイルを現在のコードライターに変換する
+     */
+    private void translateVmFile(File vmFile) throws IOException {
+        // パーサーを初期化
+        parser = new Parser(vmFile.getPath());
         
         // ファイル名を設定（static変数のため）
-        codeWriter.setFileName(vmFilePath);
+        codeWriter.setFileName(vmFile.getPath());
+        currentVmFile = vmFile.getName();
+        currentFunction = "";
         
         // ファイルを変換
         try {
             translateCommands();
         } finally {
-            // リソースを閉じる
-            if (parser != null) {
-                parser.close();
+            parser.close();
+        }
+    }
+    
+    /**
+     * ディレクトリ内の全VMファイルを現在のコードライターに変換する
+     */
+    private void translateVmFiles(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".vm"));
+        if (files != null) {
+            for (File file : files) {
+                translateVmFile(file);
             }
-            if (codeWriter != null) {
-                codeWriter.close();
+        }
+    }
+    
+    /**
+     * 出力した .asm の後処理 - 最適化が有効なら適用し、ソースマップやラベル名の対応が有効なら書き出す
+     */
+    private void finish(String asmFilePath) throws IOException {
+        if (labelMap) {
+            codeWriter.writeLabelMap(asmFilePath + ".labels");
+        }
+        if (optimizer != null) {
+            optimizer.optimize(asmFilePath, asmFilePath);
+        }
+        if (sourceMap != null) {
+            if (optimizer != null) {
+                sourceMap = sourceMap.remapLines(optimizer.getLineMap());
             }
+            sourceMap.write(asmFilePath + ".map");
+            sourceMap = new SourceMap();
         }
     }
     
@@ -57,6 +223,15 @@ public class VMTranslator {
             parser.advance();
             int commandType = parser.commandType();
             
+            if (sourceMap != null) {
+                if (commandType == Parser.C_FUNCTION) {
+                    currentFunction = parser.arg1();
+                }
+                // VMコマンドの出力 (コメント行、リリースモードでは最初の命令) の先頭の行を記録する
+                int asmLine = codeWriter.getLineCount() + 1;
+                sourceMap.add(asmLine, asmLine, currentVmFile, parser.lineNumber(), currentFunction);
+            }
+            
             switch (commandType) {
                 case Parser.C_ARITHMETIC:
                     codeWriter.writeArithmetic(parser.arg1());
@@ -109,40 +284,76 @@ public class VMTranslator {
         
         // コードライターを初期化
         codeWriter = new CodeWriter(asmFilePath);
+        codeWriter.setRelease(release);
+        codeWriter.setSharedCompare(sharedCompare);
+        codeWriter.setSharedCall(sharedCall);
         
         // ブートストラップコードを生成
+        if (sourceMap != null) {
+            sourceMap.add(1, 1, "", 0, "");
+        }
         codeWriter.writeBootstrap();
         
         // ディレクトリ内の全VMファイルを処理
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".vm"));
-        if (files != null) {
-            for (File file : files) {
-                // 各ファイルをパース
-                parser = new Parser(file.getPath());
-                // ファイル名を設定
-                codeWriter.setFileName(file.getPath());
-                // コマンドを変換
-                translateCommands();
-                parser.close();
-            }
-        }
+        translateVmFiles(dir);
+        writeSharedRoutines();
         
         // コードライターを閉じる
         codeWriter.close();
+        finish(asmFilePath);
     }
     
     /**
      * メインメソッド
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("使用法: java vm.VMTranslator <入力.vm または ディレクトリ>");
+        // オプション
+        //   --source-map  ソースマップ (出力 .asm ファイル名 + ".map") も出力
+        //   --optimize    出力した .asm に覗き穴最適化を適用
+        //   --release     コメントを出力せず、内部ラベルを短い名前にする
+        //   --label-map   リリースモードのラベル名の対応 (出力 .asm ファイル名 + ".labels") も出力
+        //   --shared-compare 比較 (eq/gt/lt) を共通ルーチンの呼び出しにし、ROMとサイクル数の比較を表示
+        //   --shared-call call/return を共通ルーチンの呼び出しにし、ROMとサイクル数の比較を表示
+        boolean sourceMap = false;
+        boolean sharedCompare = false;
+        boolean sharedCall = false;
+        boolean optimize = false;
+        boolean release = false;
+        boolean labelMap = false;
+        int argIndex = 0;
+        while (argIndex < args.length - 1 && args[argIndex].startsWith("--")) {
+            if (args[argIndex].equals("--source-map")) {
+                sourceMap = true;
+            } else if (args[argIndex].equals("--optimize")) {
+                optimize = true;
+            } else if (args[argIndex].equals("--release")) {
+                release = true;
+            } else if (args[argIndex].equals("--label-map")) {
+                labelMap = true;
+            } else if (args[argIndex].equals("--shared-compare")) {
+                sharedCompare = true;
+            } else if (args[argIndex].equals("--shared-call")) {
+                sharedCall = true;
+            } else {
+                break;
+            }
+            argIndex++;
+        }
+        if (args.length - argIndex != 1) {
+            System.err.println("使用法: java vm.VMTranslator [--source-map] [--optimize] [--release [--label-map]] [--shared-compare] [--shared-call] <入力.vm または ディレクトリ>");
             System.exit(1);
         }
         
-        String inputPath = args[0];
+        String inputPath = args[argIndex];
         File input = new File(inputPath);
         VMTranslator translator = new VMTranslator();
+        translator.setSourceMap(sourceMap);
+        translator.setRelease(release, labelMap);
+        translator.setSharedCompare(sharedCompare);
+        translator.setSharedCall(sharedCall);
+        if (optimize) {
+            translator.setOptimizer(new PeepholeOptimizer());
+        }
         
         try {
             if (input.isDirectory()) {
@@ -152,6 +363,12 @@ public class VMTranslator {
                 translator.translateFile(inputPath);
                 System.out.println("ファイル変換完了: " + inputPath);
             }
+            if (sharedCompare) {
+                System.out.println(translator.getCompareReport());
+            }
+            if (sharedCall) {
+                System.out.println(translator.getCallReport());
+            }
         } catch (IOException e) {
             System.err.println("エラー: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,324 @@
+package vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import asm.hack.Hack;
+import emu.Emulator;
+
+/**
+ * VMTranslatorTest.java - VMTranslatorクラスのテスト
+ *
+ * 小さなVMプログラムをディレクトリごと変換し (ブートストラップ付き)、アセンブルしてエミュレータで
+ * 停止まで実行し、RAMの値を確かめます。
+ * 共通ルーチンのモード (--shared-compare、--shared-call) のテストでは、同じプログラムを各モードで変換して実行し、
+ * 通常の変換とRAMが同じになることも確かめます。
+ */
+public class VMTranslatorTest {
+    private static int totalTests = 0;
+    private static int passedTests = 0;
+
+    // 停止しないプログラムを打ち切る命令数
+    private static final long MAX_CYCLES = 1_000_000;
+
+    public static void main(String[] args) {
+        System.out.println("===== VMTranslator クラステスト開始 =====");
+
+        testScopedLabels();
+        testSharedCompare();
+        testSharedCall();
+
+        // 結果概要
+        System.out.println("\n===== テスト結果概要 =====");
+        System.out.println("実行: " + totalTests + " テスト");
+        System.out.println("成功: " + passedTests + " テスト");
+        System.out.println("失敗: " + (totalTests - passedTests) + " テスト");
+
+        if (passedTests == totalTests) {
+            System.out.println("全テスト成功！");
+        } else {
+            System.out.println("テスト失敗あり。上記エラーを確認してください。");
+        }
+    }
+
+    /**
+     * 関数の中のラベルのテスト - 別のファイルの関数が同じ名前のラベルを使っても、それぞれの関数の中のラベルに飛ぶ
+     * (OSのファイルの IF_END0 などが衝突しないこと)
+     */
+    private static void testScopedLabels() {
+        System.out.println("\n----- 関数の中のラベルのテスト -----");
+
+        File directory = new File("scopedLabels");
+        try {
+            writeVm(directory, "Sys.vm",
+                    "function Sys.init 0",
+                    "push constant 3",
+                    "call A.f 1",
+                    "pop temp 0",
+                    "push constant 4",
+                    "call B.g 1",
+                    "pop temp 1",
+                    "label END",
+                    "goto END");
+            // goto で SKIP に飛ぶ (飛ばなければ引数を 100 にする)
+            writeVm(directory, "A.vm",
+                    "function A.f 0",
+                    "goto SKIP",
+                    "push constant 100",
+                    "pop argument 0",
+                    "label SKIP",
+                    "push argument 0",
+                    "push constant 1",
+                    "add",
+                    "return");
+            // if-goto で SKIP に飛ぶ (飛ばなければ 999 を返す)
+            writeVm(directory, "B.vm",
+                    "function B.g 0",
+                    "push argument 0",
+                    "if-goto SKIP",
+                    "push constant 999",
+                    "return",
+                    "label SKIP",
+                    "push argument 0",
+                    "push constant 10",
+                    "add",
+                    "return");
+
+            Emulator emulator = run(directory, false, false);
+            testCase("停止まで実行", emulator.isHalted(), true);
+            testCase("A.f の goto SKIP", emulator.peek(5), 4);
+            testCase("B.g の if-goto SKIP", emulator.peek(6), 14);
+        } catch (IOException e) {
+            testCase("関数の中のラベルのテスト", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * 比較の共通ルーチンのテスト - eq/gt/lt の真・偽と、符号の異なる値の比較
+     * 結果は Sys の static 変数 (RAM 16 から) に置きます。
+     */
+    private static void testSharedCompare() {
+        System.out.println("\n----- 比較の共通ルーチンのテスト -----");
+
+        // {x, y, 比較, 期待値 (真は -1、偽は 0)}
+        int[][] cases = {
+            {5, 5, 0, -1}, {5, 3, 0, 0}, {-7, -7, 0, -1}, {-2, 3, 0, 0},
+            {5, 3, 1, -1}, {3, 5, 1, 0}, {4, 4, 1, 0}, {3, -2, 1, -1}, {-2, 3, 1, 0}, {-3, -5, 1, -1},
+            {3, 5, 2, -1}, {5, 3, 2, 0}, {-4, -4, 2, 0}, {-2, 3, 2, -1}, {3, -2, 2, 0}, {-5, -3, 2, -1},
+        };
+        String[] commands = {"eq", "gt", "lt"};
+
+        File directory = new File("sharedCompare");
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add("function Sys.init 0");
+            for (int i = 0; i < cases.length; i++) {
+                pushConstant(lines, cases[i][0]);
+                pushConstant(lines, cases[i][1]);
+                lines.add(commands[cases[i][2]]);
+                lines.add("pop static " + i);
+            }
+            lines.add("label END");
+            lines.add("goto END");
+            writeVm(directory, "Sys.vm", lines.toArray(new String[0]));
+
+            Emulator plain = run(directory, false, false);
+            testCase("停止まで実行", plain.isHalted(), true);
+            for (int i = 0; i < cases.length; i++) {
+                testCase(cases[i][0] + " " + commands[cases[i][2]] + " " + cases[i][1],
+                        plain.peek(16 + i), cases[i][3]);
+            }
+            assertSameState("--shared-compare", plain, run(directory, true, false));
+            assertSameState("--shared-compare --shared-call", plain, run(directory, true, true));
+        } catch (IOException e) {
+            testCase("比較の共通ルーチンのテスト", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * call/return の共通ルーチンのテスト - 引数が 0 個と n 個の呼び出し、入れ子の呼び出しと再帰
+     */
+    private static void testSharedCall() {
+        System.out.println("\n----- call/return の共通ルーチンのテスト -----");
+
+        File directory = new File("sharedCall");
+        try {
+            writeVm(directory, "Sys.vm",
+                    "function Sys.init 0",
+                    "push constant 5",
+                    "call Main.sum 1",
+                    "pop static 0",
+                    "call Main.ten 0",
+                    "pop static 1",
+                    "push constant 1",
+                    "push constant 2",
+                    "push constant 3",
+                    "call Main.mix 3",
+                    "pop static 2",
+                    "label END",
+                    "goto END");
+            writeVm(directory, "Main.vm",
+                    // 引数なし
+                    "function Main.ten 0",
+                    "push constant 10",
+                    "return",
+                    // 再帰: sum(n) = n + sum(n - 1)
+                    "function Main.sum 0",
+                    "push argument 0",
+                    "push constant 1",
+                    "lt",
+                    "if-goto BASE",
+                    "push argument 0",
+                    "push argument 0",
+                    "push constant 1",
+                    "sub",
+                    "call Main.sum 1",
+                    "add",
+                    "return",
+                    "label BASE",
+                    "push constant 0",
+                    "return",
+                    // 入れ子: mix(a, b, c) = add2(a, b) + ten() + c
+                    "function Main.mix 2",
+                    "push argument 0",
+                    "push argument 1",
+                    "call Main.add2 2",
+                    "pop local 0",
+                    "call Main.ten 0",
+                    "pop local 1",
+                    "push local 0",
+                    "push local 1",
+                    "add",
+                    "push argument 2",
+                    "add",
+                    "return",
+                    "function Main.add2 0",
+                    "push argument 0",
+                    "push argument 1",
+                    "add",
+                    "return");
+
+            Emulator plain = run(directory, false, false);
+            testCase("停止まで実行", plain.isHalted(), true);
+            testCase("再帰 sum(5)", plain.peek(16), 15);
+            testCase("引数なし ten()", plain.peek(17), 10);
+            testCase("入れ子 mix(1, 2, 3)", plain.peek(18), 16);
+            testCase("Sys.init に戻った SP", plain.peek(0), 261);
+            assertSameState("--shared-call", plain, run(directory, false, true));
+            assertSameState("--shared-compare --shared-call", plain, run(directory, true, true));
+        } catch (IOException e) {
+            testCase("call/return の共通ルーチンのテスト", "例外発生: " + e.getMessage(), "例外なし");
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    // ----- 変換と実行 -----
+
+    /**
+     * push constant を書き込む (負の値は neg を付ける)
+     */
+    private static void pushConstant(List<String> lines, int value) {
+        lines.add("push constant " + Math.abs(value));
+        if (value < 0) {
+            lines.add("neg");
+        }
+    }
+
+    /**
+     * .vm ファイルを書き込む
+     */
+    private static void writeVm(File directory, String name, String... lines) throws IOException {
+        directory.mkdirs();
+        Files.write(new File(directory, name).toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ディレクトリを変換・アセンブルし、エミュレータで停止まで実行する
+     * @param sharedCompare 比較を共通ルーチンの呼び出しにする場合は true (--shared-compare)
+     * @param sharedCall call/return を共通ルーチンの呼び出しにする場合は true (--shared-call)
+     */
+    private static Emulator run(File directory, boolean sharedCompare, boolean sharedCall) throws IOException {
+        String asmFile = new File(directory, directory.getName() + ".asm").getPath();
+        String hackFile = new File(directory, directory.getName() + ".hack").getPath();
+        VMTranslator translator = new VMTranslator();
+        translator.setSharedCompare(sharedCompare);
+        translator.setSharedCall(sharedCall);
+        translator.translateDirectory(directory.getPath());
+        new Hack().assemble(asmFile, hackFile);
+
+        Emulator emulator = new Emulator();
+        emulator.load(hackFile);
+        emulator.run(MAX_CYCLES);
+        return emulator;
+    }
+
+    /**
+     * 停止した時点のRAMが通常の変換と同じか確かめる
+     * 比べるのはポインタと temp (RAM 0〜12)、static 変数 (RAM 16〜255)、停止した関数 (Sys.init) の
+     * ローカル変数と作業スタック (LCL〜SP-1) です。R13〜R15 は共通ルーチンの作業用で、SP より上に残る
+     * 戻った呼び出しのフレームには命令の位置で変わる戻りアドレスが入るので比べません。
+     */
+    private static void assertSameState(String mode, Emulator expected, Emulator actual) {
+        testCase(mode + " で停止まで実行", actual.isHalted(), true);
+        testCase(mode + " のRAM", Arrays.toString(liveState(actual)), Arrays.toString(liveState(expected)));
+    }
+
+    /**
+     * assertSameState で比べるRAMの値
+     */
+    private static int[] liveState(Emulator emulator) {
+        List<Integer> values = new ArrayList<>();
+        for (int address = 0; address <= 12; address++) {
+            values.add(emulator.peek(address));
+        }
+        for (int address = 16; address <= 255; address++) {
+            values.add(emulator.peek(address));
+        }
+        for (int address = emulator.peek(1); address < emulator.peek(0); address++) {
+            values.add(emulator.peek(address));
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * テスト用ディレクトリとその中のファイルの削除
+     */
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * テストケース実行
+     */
+    private static void testCase(String testName, Object actual, Object expected) {
+        totalTests++;
+        boolean passed = (actual == null && expected == null) ||
+                         (actual != null && actual.equals(expected));
+
+        System.out.print("テスト " + totalTests + ": " + testName + " - ");
+        if (passed) {
+            System.out.println("成功 ✓");
+            passedTests++;
+        } else {
+            System.out.println("失敗 ✗");
+            System.out.println("  期待値: [" + expected + "]");
+            System.out.println("  実際値: [" + actual + "]");
+        }
+    }
+}
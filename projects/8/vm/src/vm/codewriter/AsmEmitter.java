@@ -0,0 +1,162 @@
+package vm.codewriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AsmEmitter.java - アセンブリコードの出力
+ *
+ * 固定の命令列は事前にASCIIのバイト列 (Fragment) にしておき、大きな ByteBuffer にそのまま追加します。
+ * シンボル名は1文字ずつ、数値は桁ごとにバッファに書き込むので、1行ごとの文字列の連結や
+ * 文字コード変換は行いません。バッファが一杯になったときだけ FileChannel にまとめて書き出します。
+ * 出力した行数 (改行の数) を数えます (ソースマップ用)。
+ * CodeWriter が StringBuilder で組み立てたシンボル名やコメントも、1文字ずつそのままバッファにコピーします。
+ */
+final class AsmEmitter implements Emitter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] COMMENT = {'/', '/', ' '};
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // 数値の桁を組み立てる作業領域 (int の最大桁数 + 符号)
+    private final byte[] digits = new byte[11];
+    private int lines = 0;
+
+    /**
+     * 出力ファイルを開く (既存の内容は切り詰める)
+     */
+    AsmEmitter(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(Fragment fragment) throws IOException {
+        reserve(fragment.bytes.length);
+        buffer.put(fragment.bytes);
+        lines += fragment.lines;
+    }
+
+    /**
+     * シンボル名などの文字列を書き込む (改行を含まない ASCII の文字列)
+     */
+    private void write(CharSequence text) throws IOException {
+        int length = text.length();
+        reserve(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * 1文字書き込む
+     */
+    private void put(char c) throws IOException {
+        reserve(1);
+        buffer.put((byte) c);
+    }
+
+    /**
+     * 整数を10進数で書き込む
+     */
+    private void number(int value) throws IOException {
+        int position = digits.length;
+        long remaining = Math.abs((long) value);
+        do {
+            int digit = (int) (remaining % 10);
+            digits[--position] = (byte) ('0' + digit);
+            remaining /= 10;
+        } while (remaining > 0);
+        if (value < 0) {
+            digits[--position] = '-';
+        }
+        reserve(digits.length - position);
+        buffer.put(digits, position, digits.length - position);
+    }
+
+    /**
+     * 改行を書き込む
+     */
+    private void newline() throws IOException {
+        reserve(1);
+        buffer.put((byte) '\n');
+        lines++;
+    }
+
+    @Override
+    public void at(int value) throws IOException {
+        put('@');
+        number(value);
+        newline();
+    }
+
+    @Override
+    public void at(CharSequence symbol) throws IOException {
+        put('@');
+        write(symbol);
+        newline();
+    }
+
+    @Override
+    public void label(CharSequence symbol) throws IOException {
+        put('(');
+        write(symbol);
+        put(')');
+        newline();
+    }
+
+    /**
+     * コメント (// テキスト) を1行書き込む
+     */
+    @Override
+    public void comment(CharSequence text) throws IOException {
+        reserve(COMMENT.length);
+        buffer.put(COMMENT);
+        write(text);
+        newline();
+    }
+
+    @Override
+    public int getLineCount() {
+        return lines;
+    }
+
+    /**
+     * バッファに length バイトの空きを作る (足りなければ書き出す)
+     */
+    private void reserve(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+            if (buffer.remaining() < length) {
+                throw new IOException("出力バッファより長い命令列です: " + length);
+            }
+        }
+    }
+
+    /**
+     * バッファの内容をファイルに書き出す
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 残りを書き出してファイルを閉じる
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -2,111 +2,404 @@ package vm.codewriter;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import asm.ir.Program;
 
 /**
  * VMコマンドをHackアセンブリコードに変換する
+ *
+ * 出力先は Emitter で、テキストの .asm (AsmEmitter) か中間表現の Program (ProgramEmitter) です。
+ * 固定の命令列はクラスの初期化時に Fragment にしておき、シンボル名とコメントだけを使い回す
+ * StringBuilder で組み立てて渡すので、1行ごとに文字列を作りません。
  */
 public class CodeWriter {
-    private FileWriter writer;
+    private Emitter writer;
     private int labelCounter; // ジャンプラベル用カウンタ
     private String currentFileName; // 現在のファイル名
 
+    // リリースモード (コメントを出力せず、内部ラベルを短い名前にする)
+    private boolean release = false;
+    private int shortLabelCounter = 0;
+    // 短い名前の順に並べた元の名前 (1行に1つ、リリースモードのみ)
+    private final StringBuilder labelNames = new StringBuilder();
+    private String currentFunctionName = ""; // 現在の関数名 (label/goto/if-goto のスコープ)
+    // 比較の共通ルーチン (eq/gt/lt を呼び出し側4命令 + 演算子ごとに1つのルーチンにする)
+    private boolean sharedCompare = false;
+    private final int[] compareSites = new int[3];
+    // call/return の共通ルーチン (呼び出し側8命令 + 引数の数ごとの入口、return は2命令)
+    private boolean sharedCall = false;
+    private int callSites = 0;
+    private int returnSites = 0;
+    private final BitSet callArgCounts = new BitSet();
+    private boolean sharedRoutinesWritten = false;
+    // 共通ルーチンの先頭の行と、そのルーチンが実装するVMコマンド (ソースマップ用)
+    private final List<Integer> routineLines = new ArrayList<>();
+    private final List<String> routineCommands = new ArrayList<>();
+    // シンボル名とコメントを組み立てる作業領域 (出力先に渡すたびに使い回す)
+    private final StringBuilder text = new StringBuilder(64);
+
     // コマンドタイプ定数
     public static final int C_ARITHMETIC = 0;
     public static final int C_PUSH = 1;
     public static final int C_POP = 2;
 
+    // スタック操作の命令列
+    private static final String INC_SP = "@SP\nM=M+1\n";
+    private static final String DEC_SP = "@SP\nM=M-1\nA=M\n";
+    private static final String PUSH_D = "@SP\nA=M\nM=D\n" + INC_SP;
+    private static final String POP_TO_D = DEC_SP + "D=M\n";
+
+    // 算術・論理コマンド
+    private static final Fragment ADD = Fragment.of(POP_TO_D + DEC_SP + "M=M+D\n" + INC_SP);
+    private static final Fragment SUB = Fragment.of(POP_TO_D + DEC_SP + "M=M-D\n" + INC_SP);
+    private static final Fragment NEG = Fragment.of(DEC_SP + "M=-M\n" + INC_SP);
+    private static final Fragment AND = Fragment.of(POP_TO_D + DEC_SP + "M=M&D\n" + INC_SP);
+    private static final Fragment OR = Fragment.of(POP_TO_D + DEC_SP + "M=M|D\n" + INC_SP);
+    private static final Fragment NOT = Fragment.of(DEC_SP + "M=!M\n" + INC_SP);
+
+    // 比較 (左オペランド - 右オペランド を計算し、条件に応じて -1 または 0 を格納する)
+    private static final Fragment COMPARE = Fragment.of(POP_TO_D + DEC_SP + "D=M-D\n");
+    private static final Fragment JEQ = Fragment.of("D;JEQ\n");
+    private static final Fragment JGT = Fragment.of("D;JGT\n");
+    private static final Fragment JLT = Fragment.of("D;JLT\n");
+    private static final Fragment STORE_FALSE = Fragment.of("@SP\nA=M\nM=0\n");
+    private static final Fragment STORE_TRUE = Fragment.of("@SP\nA=M\nM=-1\n");
+    private static final Fragment INCREMENT_SP = Fragment.of(INC_SP);
+
+    // 比較の共通ルーチン (演算子は eq, gt, lt の順)
+    // 呼び出し側: @戻りラベル / D=A / @$$EQ / 0;JMP / (戻りラベル)
+    // ルーチン: 戻りアドレスをR13に保存し、左オペランドの位置に真 (-1) を格納してから、
+    // 条件が成り立たなければ偽 (0) に書き換えて戻る
+    private static final int EQ = 0;
+    private static final int GT = 1;
+    private static final int LT = 2;
+    private static final String[] COMPARE_ROUTINES = {"$$EQ", "$$GT", "$$LT"};
+    private static final String[] COMPARE_COMMANDS = {"eq", "gt", "lt"};
+    private static final Fragment[] COMPARE_JUMPS = {JEQ, JGT, JLT};
+    private static final Fragment[] COMPARE_CALLS = {
+            Fragment.of("D=A\n@$$EQ\n0;JMP\n"),
+            Fragment.of("D=A\n@$$GT\n0;JMP\n"),
+            Fragment.of("D=A\n@$$LT\n0;JMP\n")};
+    private static final Fragment COMPARE_ENTRY = Fragment.of(
+            "@R13\nM=D\n@SP\nAM=M-1\nD=M\nA=A-1\nD=M-D\nM=-1\n");
+    private static final Fragment COMPARE_FALSE = Fragment.of("@SP\nA=M-1\nM=0\n");
+    private static final Fragment COMPARE_RETURN = Fragment.of("@R13\nA=M\n0;JMP\n");
+    // 共通ルーチンの後に置く停止ループ (最後のVMコマンドからルーチンに落ち込まないようにする)
+    private static final String HALT = "$$HALT";
+
+    // push/pop
+    private static final Fragment PUSH_A = Fragment.of("D=A\n" + PUSH_D);
+    private static final Fragment PUSH_M = Fragment.of("D=M\n" + PUSH_D);
+    private static final Fragment PUSH_INDEXED = Fragment.of("A=D+A\nD=M\n" + PUSH_D);
+    private static final Fragment PUSH_THIS = Fragment.of("@THIS\nD=M\n" + PUSH_D);
+    private static final Fragment PUSH_THAT = Fragment.of("@THAT\nD=M\n" + PUSH_D);
+    private static final Fragment POP = Fragment.of(POP_TO_D);
+    private static final Fragment POP_THIS = Fragment.of(POP_TO_D + "@THIS\nM=D\n");
+    private static final Fragment POP_THAT = Fragment.of(POP_TO_D + "@THAT\nM=D\n");
+    private static final Fragment STORE_M = Fragment.of("M=D\n");
+    private static final Fragment POP_INDEXED = Fragment.of(
+            "D=D+A\n@R13\nM=D\n" + POP_TO_D + "@R13\nA=M\nM=D\n");
+
+    // セグメントのベースアドレスをDレジスタに読み込む
+    private static final Fragment LOCAL_BASE = Fragment.of("@LCL\nD=M\n");
+    private static final Fragment ARGUMENT_BASE = Fragment.of("@ARG\nD=M\n");
+    private static final Fragment THIS_BASE = Fragment.of("@THIS\nD=M\n");
+    private static final Fragment THAT_BASE = Fragment.of("@THAT\nD=M\n");
+    private static final Fragment TEMP_BASE = Fragment.of("@5\nD=A\n");
+
+    // プログラムフロー
+    private static final Fragment JMP = Fragment.of("0;JMP\n");
+    private static final Fragment JNE = Fragment.of("D;JNE\n");
+
+    // 関数呼び出し
+    private static final Fragment PUSH_ZERO = Fragment.of("@0\nD=A\n" + PUSH_D);
+    // 呼び出し元のLCL, ARG, THIS, THATをプッシュし、ARG = SP - 5 - 引数の数 の計算を始める
+    private static final String PUSH_FRAME =
+            "@LCL\nD=M\n" + PUSH_D
+          + "@ARG\nD=M\n" + PUSH_D
+          + "@THIS\nD=M\n" + PUSH_D
+          + "@THAT\nD=M\n" + PUSH_D
+          + "@SP\nD=M\n@5\nD=D-A\n";
+    private static final Fragment SAVE_FRAME = Fragment.of(PUSH_FRAME);
+    // ARG を設定し、LCL = SP とする
+    private static final Fragment SET_ARG_LCL = Fragment.of(
+            "D=D-A\n@ARG\nM=D\n"
+          + "@SP\nD=M\n@LCL\nM=D\n");
+    private static final Fragment RETURN = Fragment.of(
+            // フレームをR13に保存（フレーム = LCL）
+            "@LCL\nD=M\n@R13\nM=D\n"
+            // リターンアドレスをR14に保存（リターンアドレス = *(フレーム-5)）
+          + "@5\nA=D-A\nD=M\n@R14\nM=D\n"
+            // 戻り値を引数0の位置に配置
+          + POP_TO_D + "@ARG\nA=M\nM=D\n"
+            // SPを引数の次の位置に設定（SP = ARG+1）
+          + "@ARG\nD=M+1\n@SP\nM=D\n"
+            // THAT, THIS, ARG, LCL を復元（*(フレーム-1) 〜 *(フレーム-4)）
+          + "@R13\nD=M\n@1\nA=D-A\nD=M\n@THAT\nM=D\n"
+          + "@R13\nD=M\n@2\nA=D-A\nD=M\n@THIS\nM=D\n"
+          + "@R13\nD=M\n@3\nA=D-A\nD=M\n@ARG\nM=D\n"
+          + "@R13\nD=M\n@4\nA=D-A\nD=M\n@LCL\nM=D\n"
+            // リターンアドレスにジャンプ
+          + "@R14\nA=M\n0;JMP\n");
+    // call/return の共通ルーチン (フレームの形は標準と同じ)
+    // 呼び出し側: @関数 / D=A / @R13 / M=D / @戻りラベル / D=A / @$$CALL.引数の数 / 0;JMP / (戻りラベル)
+    // 入口 ($$CALL.n): 戻りアドレスをR15に保存し、引数の数をDに入れて本体にジャンプ
+    // 本体 ($$CALL): 引数の数をR14に保存し、戻りアドレスとLCL, ARG, THIS, THATをプッシュして
+    // ARG = SP - 5 - R14、LCL = SP としてからR13の関数にジャンプする
+    // return は @$$RETURN / 0;JMP で、$$RETURN はインライン展開と同じ命令列
+    private static final String CALL_ROUTINE = "$$CALL";
+    private static final String RETURN_ROUTINE = "$$RETURN";
+    private static final Fragment CALL_SAVE_CALLEE = Fragment.of("D=A\n@R13\nM=D\n");
+    private static final Fragment LOAD_ADDRESS = Fragment.of("D=A\n");
+    private static final Fragment CALL_ENTRY = Fragment.of("@R15\nM=D\n");
+    private static final Fragment CALL_BODY = Fragment.of(
+            "@R14\nM=D\n@R15\nD=M\n" + PUSH_D + PUSH_FRAME
+          + "@R14\nD=D-M\n@ARG\nM=D\n"
+          + "@SP\nD=M\n@LCL\nM=D\n"
+          + "@R13\nA=M\n0;JMP\n");
+    private static final Fragment BOOTSTRAP = Fragment.of("@256\nD=A\n@SP\nM=D\n");
+
     /**
      * 出力ファイルを開き、書き込む準備をする
      */
     public CodeWriter(String filename) throws IOException {
-        writer = new FileWriter(filename);
+        writer = new AsmEmitter(filename);
+        labelCounter = 0;
+    }
+
+    /**
+     * 中間表現のプログラムに命令を追加する準備をする
+     * コメントは追加しません。結果は Hack.assemble(Program) でそのまま命令語にできます。
+     * @param program 追加先のプログラム
+     */
+    public CodeWriter(Program program) {
+        writer = new ProgramEmitter(program);
         labelCounter = 0;
     }
 
+    /**
+     * リリースモードを設定する
+     * リリースモードではVMコマンドのコメントを出力せず、比較と call の内部ラベル (TRUEn、ENDn、関数名$ret.n) を
+     * "$" と36進数の短い名前にします。.asm が小さくなり、アセンブラの字句解析とシンボルの登録が速くなります。
+     * 元の名前は writeLabelMap で別ファイルに書き出せます。
+     */
+    public void setRelease(boolean release) {
+        this.release = release;
+    }
+
+    /**
+     * 比較 (eq/gt/lt) を共通ルーチンの呼び出しにするかどうかを設定する
+     * 呼び出し側は戻りアドレスをDレジスタに入れてルーチンにジャンプする4命令になり、インライン展開 (20命令) より
+     * ROMが小さくなります。その代わり1回の比較ごとに数サイクル増えます (getCompareReport)。
+     * ルーチンは使った演算子の分だけ、出力の最後 (writeSharedRoutines) に停止ループの後に置きます。
+     */
+    public void setSharedCompare(boolean sharedCompare) {
+        this.sharedCompare = sharedCompare;
+    }
+
+    /**
+     * call/return を共通ルーチンの呼び出しにするかどうかを設定する
+     * call は呼び出す関数をR13、戻りアドレスをDレジスタに入れて引数の数ごとの入口にジャンプする8命令、
+     * return はルーチンにジャンプする2命令になります (インライン展開では49命令と51命令)。
+     * フレームの形 (戻りアドレス、LCL, ARG, THIS, THAT) は変わらないので、インライン展開した関数とも混在できます。
+     * ルーチンは比較の共通ルーチンと同じく出力の最後 (writeSharedRoutines) に置きます。ROMとサイクル数の比較は getCallReport。
+     */
+    public void setSharedCall(boolean sharedCall) {
+        this.sharedCall = sharedCall;
+    }
+
+    /**
+     * 内部ラベルを割り当てる (リリースモードでは短い名前の番号を割り当て、元の名前を記録する)
+     * 短い名前は "$" で始まるので、VMの関数名やラベル、static変数と衝突しない
+     * @return internalLabel に渡す番号
+     */
+    private int newInternalLabel(String name, String suffix, int counter) {
+        if (!release) {
+            return counter;
+        }
+        labelNames.append(name).append(suffix).append(counter).append('\n');
+        return shortLabelCounter++;
+    }
+
+    /**
+     * 作業領域を空にして返す
+     */
+    private StringBuilder text() {
+        text.setLength(0);
+        return text;
+    }
+
+    /**
+     * 内部ラベルの名前を追加する (元の名前は 名前 + 接尾辞 + 番号)
+     */
+    private StringBuilder internalLabel(String name, String suffix, int label) {
+        StringBuilder symbol = text();
+        if (release) {
+            symbol.append('$');
+            appendBase36(symbol, label);
+        } else {
+            symbol.append(name).append(suffix).append(label);
+        }
+        return symbol;
+    }
+
+    /**
+     * 0以上の整数を36進数 (小文字) で追加する
+     */
+    private static void appendBase36(StringBuilder symbol, int value) {
+        int start = symbol.length();
+        do {
+            symbol.append(Character.forDigit(value % 36, 36));
+            value /= 36;
+        } while (value > 0);
+        // 下の桁から追加したので反転する
+        for (int i = start, j = symbol.length() - 1; i < j; i++, j--) {
+            char c = symbol.charAt(i);
+            symbol.setCharAt(i, symbol.charAt(j));
+            symbol.setCharAt(j, c);
+        }
+    }
+
+    /**
+     * VMコマンドのコメントを書き込む (リリースモードでは書き込まない)
+     */
+    private void comment(String command) throws IOException {
+        if (!release) {
+            writer.comment(command);
+        }
+    }
+
+    private void comment(String command, String arg1) throws IOException {
+        if (!release) {
+            writer.comment(text().append(command).append(' ').append(arg1));
+        }
+    }
+
+    private void comment(String command, String arg1, int arg2) throws IOException {
+        if (!release) {
+            writer.comment(text().append(command).append(' ').append(arg1).append(' ').append(arg2));
+        }
+    }
+
+    /**
+     * 短いラベル名と元の名前の対応を書き出す (1行に「短い名前 元の名前」)
+     * @param filename 出力ファイル
+     */
+    public void writeLabelMap(String filename) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename))) {
+            int label = 0;
+            int start = 0;
+            for (int end = labelNames.indexOf("\n"); end >= 0; end = labelNames.indexOf("\n", start)) {
+                out.println("$" + Integer.toString(label++, 36) + " " + labelNames.substring(start, end));
+                start = end + 1;
+            }
+        }
+    }
+
+    /**
+     * これまでに出力した行数を返す (次に出力する行の行番号は この値 + 1)
+     */
+    public int getLineCount() {
+        return writer.getLineCount();
+    }
+
     /**
      * 与えられた算術コマンドをアセンブリコードに変換し、書き込む
      */
     public void writeArithmetic(String command) throws IOException {
         // VMコマンドのコメントを追加
-        writer.write("// " + command + "\n");
-
-        if (command.equals("add")) {
-            // スタックから2つの値をポップして足し、結果をプッシュ
-            popToD();
-            decrementSP();
-            writer.write("M=M+D\n");
-            incrementSP();
-        } else if (command.equals("sub")) {
-            // スタックから2つの値をポップして引き、結果をプッシュ
-            popToD();
-            decrementSP();
-            writer.write("M=M-D\n");
-            incrementSP();
-        } else if (command.equals("neg")) {
-            // スタックトップの値を反転
-            decrementSP();
-            writer.write("M=-M\n");
-            incrementSP();
-        } else if (command.equals("eq") || command.equals("gt") || command.equals("lt")) {
-            // 比較操作
-            String trueLabel = "TRUE" + labelCounter;
-            String endLabel = "END" + labelCounter;
-            labelCounter++;
-
-            // 右オペランドをDレジスタにポップ
-            popToD();
-
-            // 左オペランドのアドレスを取得（SPを減らす）
-            decrementSP();
-
-            // 左オペランド - 右オペランドを計算
-            writer.write("D=M-D\n");
-
-            // 条件に応じてジャンプ
-            writer.write("@" + trueLabel + "\n");
-            if (command.equals("eq")) {
-                writer.write("D;JEQ\n"); // 等しい場合
-            } else if (command.equals("gt")) {
-                writer.write("D;JGT\n"); // より大きい場合
-            } else if (command.equals("lt")) {
-                writer.write("D;JLT\n"); // より小さい場合
-            }
+        comment(command);
+
+        switch (command) {
+            case "add":
+                // スタックから2つの値をポップして足し、結果をプッシュ
+                writer.write(ADD);
+                break;
+            case "sub":
+                // スタックから2つの値をポップして引き、結果をプッシュ
+                writer.write(SUB);
+                break;
+            case "neg":
+                // スタックトップの値を反転
+                writer.write(NEG);
+                break;
+            case "eq":
+                writeCompare(EQ); // 等しい場合
+                break;
+            case "gt":
+                writeCompare(GT); // より大きい場合
+                break;
+            case "lt":
+                writeCompare(LT); // より小さい場合
+                break;
+            case "and":
+                // 論理AND
+                writer.write(AND);
+                break;
+            case "or":
+                // 論理OR
+                writer.write(OR);
+                break;
+            case "not":
+                // 論理NOT
+                writer.write(NOT);
+                break;
+            default:
+                break;
+        }
+    }
 
-            // 条件が偽の場合
-            writer.write("@SP\n");
-            writer.write("A=M\n");
-            writer.write("M=0\n"); // 偽（0）を格納
-            writer.write("@" + endLabel + "\n");
-            writer.write("0;JMP\n");
-
-            // 条件が真の場合
-            writer.write("(" + trueLabel + ")\n");
-            writer.write("@SP\n");
-            writer.write("A=M\n");
-            writer.write("M=-1\n"); // 真（-1）を格納
-
-            // 終了
-            writer.write("(" + endLabel + ")\n");
-            incrementSP();
-        } else if (command.equals("and")) {
-            // 論理AND
-            popToD();
-            decrementSP();
-            writer.write("M=M&D\n");
-            incrementSP();
-        } else if (command.equals("or")) {
-            // 論理OR
-            popToD();
-            decrementSP();
-            writer.write("M=M|D\n");
-            incrementSP();
-        } else if (command.equals("not")) {
-            // 論理NOT
-            decrementSP();
-            writer.write("M=!M\n");
-            incrementSP();
+    /**
+     * 比較操作 - 条件が成り立てば真 (-1)、成り立たなければ偽 (0) をプッシュ
+     * @param operator EQ、GT、LT のいずれか
+     */
+    private void writeCompare(int operator) throws IOException {
+        compareSites[operator]++;
+        if (!sharedCompare) {
+            writeCompare(COMPARE_JUMPS[operator]);
+            return;
         }
+        int returnLabel = newInternalLabel("CMP", "", labelCounter);
+        labelCounter++;
+
+        // 戻りアドレスをDレジスタに入れて共通ルーチンにジャンプし、ルーチンから戻りラベルに戻る
+        writer.at(internalLabel("CMP", "", returnLabel));
+        writer.write(COMPARE_CALLS[operator]);
+        writer.label(internalLabel("CMP", "", returnLabel));
+    }
+
+    /**
+     * 比較をインライン展開する
+     * @param jump 左オペランド - 右オペランド に対する条件ジャンプ
+     */
+    private void writeCompare(Fragment jump) throws IOException {
+        int trueLabel = newInternalLabel("TRUE", "", labelCounter);
+        int endLabel = newInternalLabel("END", "", labelCounter);
+        labelCounter++;
+
+        // 右オペランドをDレジスタにポップし、左オペランド - 右オペランドを計算
+        writer.write(COMPARE);
+
+        // 条件に応じてジャンプ
+        writer.at(internalLabel("TRUE", "", trueLabel));
+        writer.write(jump);
+
+        // 条件が偽の場合
+        writer.write(STORE_FALSE);
+        writer.at(internalLabel("END", "", endLabel));
+        writer.write(JMP);
+
+        // 条件が真の場合
+        writer.label(internalLabel("TRUE", "", trueLabel));
+        writer.write(STORE_TRUE);
+
+        // 終了
+        writer.label(internalLabel("END", "", endLabel));
+        writer.write(INCREMENT_SP);
     }
 
     /**
@@ -115,185 +408,281 @@ public class CodeWriter {
     public void writePushPop(int command, String segment, int index) throws IOException {
         if (command == C_PUSH) {
             // VMコマンドのコメントを追加
-            writer.write("// push " + segment + " " + index + "\n");
+            comment("push", segment, index);
 
             if (segment.equals("constant")) {
                 // 定数をプッシュ
-                writer.write("@" + index + "\n");
-                writer.write("D=A\n");
-                pushD();
+                writer.at(index);
+                writer.write(PUSH_A);
                 return;
             }
 
             if (segment.equals("pointer")) {
                 if (index == 0) {
                     // thisの挙動
-                    writer.write("@THIS\n");
-                    writer.write("D=M\n");
-                    pushD();
+                    writer.write(PUSH_THIS);
                 } else if (index == 1) {
                     // thatの挙動
-                    writer.write("@THAT\n");
-                    writer.write("D=M\n");
-                    pushD();
+                    writer.write(PUSH_THAT);
                 }
-
                 return;
             }
 
-            // constant以外の実装
-            if (segment.equals("local")) {
-                // ローカル変数の値をプッシュ
-                writer.write("@LCL\n");
-                writer.write("D=M\n");
-
-            } else if (segment.equals("argument")) {
-                // 引数の値をプッシュ
-                writer.write("@ARG\n");
-                writer.write("D=M\n");
-
-            } else if (segment.equals("this")) {
-                // thisセグメントの値をプッシュ
-                writer.write("@THIS\n");
-                writer.write("D=M\n");
-
-            } else if (segment.equals("that")) {
-                // thatセグメントの値をプッシュ
-                writer.write("@THAT\n");
-                writer.write("D=M\n");
-
-            } else if (segment.equals("temp")) {
-                // tempセグメントの値をプッシュ
-                writer.write("@5\n");
-                writer.write("D=A\n");
-
-            } else if (segment.equals("static")) {
+            if (segment.equals("static")) {
                 // staticはクラス名.インデックスという形式のシンボルを使用
-                writer.write("@" + currentFileName + "." + index + "\n");
-                writer.write("D=M\n");
-                pushD();
+                writeStatic(index);
+                writer.write(PUSH_M);
                 return;
             }
-            writer.write("@" + index + "\n");
-            writer.write("A=D+A\n");
-            writer.write("D=M\n");
-            pushD();
+
+            // constant以外の実装 (ベースアドレス + インデックスの値をプッシュ)
+            writeBase(segment);
+            writer.at(index);
+            writer.write(PUSH_INDEXED);
 
         } else if (command == C_POP) {
             // VMコマンドのコメントを追加
-            writer.write("// pop " + segment + " " + index + "\n");
+            comment("pop", segment, index);
 
             if (segment.equals("pointer")) {
                 if (index == 0) {
                     // thisの挙動
-                    popToD();
-                    writer.write("@THIS\n");
-                    writer.write("M=D\n");
+                    writer.write(POP_THIS);
                 } else if (index == 1) {
                     // thatの挙動
-                    popToD();
-                    writer.write("@THAT\n");
-                    writer.write("M=D\n");
+                    writer.write(POP_THAT);
                 }
                 return;
             }
 
-            // 1. ポップ先のアドレスを計算
-            if (segment.equals("local")) {
-                // ローカル変数のベースアドレスを取得
-                writer.write("@LCL\n");
-                writer.write("D=M\n");
-            } else if (segment.equals("argument")) {
-                // 引数のベースアドレスを取得
-                writer.write("@ARG\n");
-                writer.write("D=M\n");
-            } else if (segment.equals("this")) {
-                // thisセグメントのベースアドレスを取得
-                writer.write("@THIS\n");
-                writer.write("D=M\n");
-            } else if (segment.equals("that")) {
-                // thatセグメントのベースアドレスを取得
-                writer.write("@THAT\n");
-                writer.write("D=M\n");
-            } else if (segment.equals("temp")) {
-                // tempセグメントのベースアドレスは固定値5
-                writer.write("@5\n");
-                writer.write("D=A\n");
-            } else if (segment.equals("static")) {
+            if (segment.equals("static")) {
                 // staticはクラス名.インデックスという形式のシンボルを使用
-                popToD();
-                writer.write("@" + currentFileName + "." + index + "\n");
-                writer.write("M=D\n");
+                writer.write(POP);
+                writeStatic(index);
+                writer.write(STORE_M);
                 return;
             }
 
-            // インデックスを加算してアドレスを計算
-            writer.write("@" + index + "\n");
-            writer.write("D=D+A\n");
-            // アドレス情報を一時的にR13に保存
-            writer.write("@R13\n");
-            writer.write("M=D\n");
+            // 1. ポップ先のアドレス (ベースアドレス + インデックス) をR13に保存し、
+            // 2. スタックからポップした値を 3. 計算したアドレスに格納
+            writeBase(segment);
+            writer.at(index);
+            writer.write(POP_INDEXED);
+        }
+    }
 
-            // 2. スタックからポップした値をDレジスタに取得
-            popToD();
+    /**
+     * セグメントのベースアドレスをDレジスタに読み込む (tempのベースアドレスは固定値5)
+     */
+    private void writeBase(String segment) throws IOException {
+        switch (segment) {
+            case "local":
+                writer.write(LOCAL_BASE);
+                break;
+            case "argument":
+                writer.write(ARGUMENT_BASE);
+                break;
+            case "this":
+                writer.write(THIS_BASE);
+                break;
+            case "that":
+                writer.write(THAT_BASE);
+                break;
+            case "temp":
+                writer.write(TEMP_BASE);
+                break;
+            default:
+                break;
+        }
+    }
 
-            // 3. 計算したアドレスに値を格納
-            writer.write("@R13\n");
-            writer.write("A=M\n");
-            writer.write("M=D\n");
+    /**
+     * static変数のA命令 (@クラス名.インデックス) を書き込む
+     */
+    private void writeStatic(int index) throws IOException {
+        writer.at(text().append(currentFileName).append('.').append(index));
+    }
+
+    /**
+     * 共通ルーチン (比較、call/return) を書き込む (共通ルーチンを使う設定で、対象のコマンドが1つ以上ある場合のみ)
+     * 直前のコードから落ち込まないように停止ループを先に置きます。2回目以降の呼び出しでは何もしません。
+     * 呼び出さなければ close で書き込みます。
+     */
+    public void writeSharedRoutines() throws IOException {
+        boolean compares = sharedCompare && compareSites[EQ] + compareSites[GT] + compareSites[LT] > 0;
+        boolean calls = sharedCall && callSites + returnSites > 0;
+        if (sharedRoutinesWritten || (!compares && !calls)) {
+            return;
+        }
+        sharedRoutinesWritten = true;
+        comment("shared routines");
+        writer.label(HALT);
+        writer.at(HALT);
+        writer.write(JMP);
+        if (compares) {
+            writeCompareRoutines();
+        }
+        if (calls) {
+            writeCallRoutines();
         }
     }
 
     /**
-     * 出力ファイルを閉じる
+     * 使った演算子の比較ルーチンを書き込む
      */
-    public void close() throws IOException {
-        if (writer != null) {
-            writer.close();
+    private void writeCompareRoutines() throws IOException {
+        for (int operator = EQ; operator <= LT; operator++) {
+            if (compareSites[operator] == 0) {
+                continue;
+            }
+            String routine = COMPARE_ROUTINES[operator];
+            String returnLabel = routine + ".RETURN";
+            beginRoutine(COMPARE_COMMANDS[operator]);
+            writer.label(routine);
+            writer.write(COMPARE_ENTRY);
+            writer.at(returnLabel);
+            writer.write(COMPARE_JUMPS[operator]);
+            writer.write(COMPARE_FALSE);
+            writer.label(returnLabel);
+            writer.write(COMPARE_RETURN);
         }
     }
 
-    // ヘルパーメソッド
+    /**
+     * call の入口 (使った引数の数ごと) と本体、return のルーチンを書き込む
+     */
+    private void writeCallRoutines() throws IOException {
+        for (int numArgs = callArgCounts.nextSetBit(0); numArgs >= 0; numArgs = callArgCounts.nextSetBit(numArgs + 1)) {
+            beginRoutine("call");
+            writer.label(text().append(CALL_ROUTINE).append('.').append(numArgs));
+            writer.write(CALL_ENTRY);
+            writer.at(numArgs);
+            writer.write(LOAD_ADDRESS);
+            writer.at(CALL_ROUTINE);
+            writer.write(JMP);
+        }
+        if (callSites > 0) {
+            beginRoutine("call");
+            writer.label(CALL_ROUTINE);
+            writer.write(CALL_BODY);
+        }
+        if (returnSites > 0) {
+            beginRoutine("return");
+            writer.label(RETURN_ROUTINE);
+            writer.write(RETURN);
+        }
+    }
 
-    // スタックポインタをインクリメント
-    private void incrementSP() throws IOException {
-        writer.write("@SP\n");
-        writer.write("M=M+1\n");
+    /**
+     * 共通ルーチンの先頭の行を記録する
+     * @param command ルーチンが実装するVMコマンド
+     */
+    private void beginRoutine(String command) {
+        routineLines.add(writer.getLineCount() + 1);
+        routineCommands.add(command);
     }
 
-    // スタックポインタをデクリメント
-    private void decrementSP() throws IOException {
-        writer.write("@SP\n");
-        writer.write("M=M-1\n");
-        writer.write("A=M\n");
+    /**
+     * 書き込んだ共通ルーチンの数 (停止ループを除く)
+     */
+    public int getRoutineCount() {
+        return routineLines.size();
     }
 
-    // Dレジスタをスタックにプッシュ
-    private void pushD() throws IOException {
-        writer.write("@SP\n");
-        writer.write("A=M\n");
-        writer.write("M=D\n");
-        incrementSP();
+    /**
+     * 共通ルーチンの先頭の行 (ラベルの行)
+     */
+    public int getRoutineLine(int routine) {
+        return routineLines.get(routine);
     }
 
-    // スタックからポップしてDレジスタに格納
-    private void popToD() throws IOException {
-        decrementSP();
-        writer.write("D=M\n");
+    /**
+     * 共通ルーチンが実装するVMコマンド ("eq" など、プロファイラのコマンドの種類になる)
+     */
+    public String getRoutineCommand(int routine) {
+        return routineCommands.get(routine);
+    }
+
+    /**
+     * 比較のROMの語数と実行サイクル数を、インライン展開と共通ルーチンで比べた結果を返す
+     * サイクル数は1回の比較で実行する命令数 (条件が成り立つ場合 / 成り立たない場合)
+     */
+    public String getCompareReport() {
+        int sites = 0;
+        int routines = 0;
+        for (int count : compareSites) {
+            sites += count;
+            routines += count > 0 ? 1 : 0;
+        }
+        // インライン: 比較、条件ジャンプ、偽 (または真) の格納、END へのジャンプ (偽のみ)、SPを進める
+        int inlineWords = COMPARE.instructions + 2 + STORE_FALSE.instructions + 2 + STORE_TRUE.instructions
+                + INCREMENT_SP.instructions;
+        int inlineTrue = COMPARE.instructions + 2 + STORE_TRUE.instructions + INCREMENT_SP.instructions;
+        int inlineFalse = COMPARE.instructions + 2 + STORE_FALSE.instructions + 2 + INCREMENT_SP.instructions;
+        // 共通ルーチン: 呼び出し側 (@戻りラベル + 3命令)、ルーチン (入口、条件ジャンプ、偽の格納、戻り)
+        int callWords = 1 + COMPARE_CALLS[EQ].instructions;
+        int routineWords = COMPARE_ENTRY.instructions + 2 + COMPARE_FALSE.instructions + COMPARE_RETURN.instructions;
+        int sharedTrue = callWords + COMPARE_ENTRY.instructions + 2 + COMPARE_RETURN.instructions;
+        int sharedFalse = sharedTrue + COMPARE_FALSE.instructions;
+
+        int before = sites * inlineWords;
+        int after = sites * callWords + routines * routineWords + (routines > 0 ? 1 + JMP.instructions : 0);
+        return String.format("比較 (eq/gt/lt): %d 箇所, ROM %d -> %d 語 (%+d), 1回あたり %+d サイクル (真) / %+d サイクル (偽)",
+                sites, before, after, after - before, sharedTrue - inlineTrue, sharedFalse - inlineFalse);
+    }
+
+    /**
+     * call/return のROMの語数と実行サイクル数を、インライン展開と共通ルーチンで比べた結果を返す
+     * 停止ループは比較の共通ルーチンと共有するので、比較の共通ルーチンを使う場合はそちらで数えます。
+     */
+    public String getCallReport() {
+        int entries = callArgCounts.cardinality();
+        // インライン: @戻りラベル、戻りアドレスとフレームのプッシュ、@引数の数、ARG と LCL の設定、@関数、ジャンプ
+        int inlineCall = 1 + PUSH_A.instructions + SAVE_FRAME.instructions + 1 + SET_ARG_LCL.instructions
+                + 1 + JMP.instructions;
+        int inlineReturn = RETURN.instructions;
+        // 共通ルーチン: 呼び出し側 (@関数、R13への保存、@戻りラベル、D=A、@入口、ジャンプ)、
+        // 入口 (R15への保存、@引数の数、D=A、@本体、ジャンプ)、本体
+        int callWords = 1 + CALL_SAVE_CALLEE.instructions + 1 + LOAD_ADDRESS.instructions + 1 + JMP.instructions;
+        int entryWords = CALL_ENTRY.instructions + 1 + LOAD_ADDRESS.instructions + 1 + JMP.instructions;
+        int returnWords = 1 + JMP.instructions;
+        int callCycles = callWords + entryWords + CALL_BODY.instructions;
+        int returnCycles = returnWords + RETURN.instructions;
+
+        int before = callSites * inlineCall + returnSites * inlineReturn;
+        int after = callSites * callWords + entries * entryWords + (callSites > 0 ? CALL_BODY.instructions : 0)
+                + returnSites * returnWords + (returnSites > 0 ? RETURN.instructions : 0);
+        boolean sharesHalt = sharedCompare && compareSites[EQ] + compareSites[GT] + compareSites[LT] > 0;
+        if (callSites + returnSites > 0 && !sharesHalt) {
+            after += 1 + JMP.instructions;
+        }
+        return String.format("呼び出し (call/return): call %d 箇所, return %d 箇所, ROM %d -> %d 語 (%+d), 1回あたり %+d サイクル (call) / %+d サイクル (return)",
+                callSites, returnSites, before, after, after - before, callCycles - inlineCall, returnCycles - inlineReturn);
+    }
+
+    /**
+     * 出力ファイルを閉じる
+     */
+    public void close() throws IOException {
+        if (writer != null) {
+            writeSharedRoutines();
+            writer.close();
+        }
     }
 
     /**
      * 現在のファイル名を設定する
      */
     public void setFileName(String fileName) {
+        currentFunctionName = "";
         // パスからファイル名部分だけを抽出（拡張子なし）
         int slashIndex = fileName.lastIndexOf('/');
         int dotIndex = fileName.lastIndexOf('.');
-        
+
         if (slashIndex == -1) {
             slashIndex = fileName.lastIndexOf('\\');
         }
-        
+
         if (dotIndex == -1) {
             currentFileName = fileName.substring(slashIndex + 1);
         } else {
@@ -305,43 +694,53 @@ public class CodeWriter {
      * labelコマンドを実装する
      */
     public void writeLabel(String label) throws IOException {
-        writer.write("// label " + label + "\n");
-        writer.write("(" + label + ")\n");
+        comment("label", label);
+        writer.label(scopedLabel(label));
     }
 
     /**
      * gotoコマンドを実装する
      */
     public void writeGoto(String label) throws IOException {
-        writer.write("// goto " + label + "\n");
-        writer.write("@" + label + "\n");
-        writer.write("0;JMP\n");
+        comment("goto", label);
+        writer.at(scopedLabel(label));
+        writer.write(JMP);
     }
 
     /**
      * if-gotoコマンドを実装する
      */
     public void writeIf(String label) throws IOException {
-        writer.write("// if-goto " + label + "\n");
-        popToD();
-        writer.write("@" + label + "\n");
-        writer.write("D;JNE\n");
+        comment("if-goto", label);
+        writer.write(POP);
+        writer.at(scopedLabel(label));
+        writer.write(JNE);
+    }
+
+    /**
+     * 関数の中のラベルを "関数名$ラベル" にする
+     * 別の関数 (OSのファイルなど) の同名ラベルと衝突しないようにするため。関数の外ではそのまま使う
+     */
+    private CharSequence scopedLabel(String label) {
+        if (currentFunctionName.isEmpty()) {
+            return label;
+        }
+        return text().append(currentFunctionName).append('$').append(label);
     }
 
     /**
      * functionコマンドを実装する
      */
     public void writeFunction(String functionName, int numLocals) throws IOException {
-        writer.write("// function " + functionName + " " + numLocals + "\n");
-        
+        comment("function", functionName, numLocals);
+        currentFunctionName = functionName;
+
         // 関数ラベルを宣言
-        writer.write("(" + functionName + ")\n");
-        
+        writer.label(functionName);
+
         // ローカル変数を0で初期化
         for (int i = 0; i < numLocals; i++) {
-            writer.write("@0\n");
-            writer.write("D=A\n");
-            pushD();
+            writer.write(PUSH_ZERO);
         }
     }
 
@@ -349,143 +748,67 @@ public class CodeWriter {
      * callコマンドを実装する
      */
     public void writeCall(String functionName, int numArgs) throws IOException {
-        writer.write("// call " + functionName + " " + numArgs + "\n");
-        
-        String returnLabel = functionName + "$ret." + labelCounter;
+        comment("call", functionName, numArgs);
+
+        int returnLabel = newInternalLabel(functionName, "$ret.", labelCounter);
         labelCounter++;
-        
+        callSites++;
+        callArgCounts.set(numArgs);
+
+        if (sharedCall) {
+            // 呼び出す関数をR13、戻りアドレスをDレジスタに入れて、引数の数の入口から共通ルーチンにジャンプ
+            writer.at(functionName);
+            writer.write(CALL_SAVE_CALLEE);
+            writer.at(internalLabel(functionName, "$ret.", returnLabel));
+            writer.write(LOAD_ADDRESS);
+            writer.at(text().append(CALL_ROUTINE).append('.').append(numArgs));
+            writer.write(JMP);
+            writer.label(internalLabel(functionName, "$ret.", returnLabel));
+            return;
+        }
+
         // リターンアドレスをプッシュ
-        writer.write("@" + returnLabel + "\n");
-        writer.write("D=A\n");
-        pushD();
-        
-        // 呼び出し元のLCL, ARG, THIS, THATをプッシュ
-        writer.write("@LCL\n");
-        writer.write("D=M\n");
-        pushD();
-        
-        writer.write("@ARG\n");
-        writer.write("D=M\n");
-        pushD();
-        
-        writer.write("@THIS\n");
-        writer.write("D=M\n");
-        pushD();
-        
-        writer.write("@THAT\n");
-        writer.write("D=M\n");
-        pushD();
-        
-        // ARG = SP - 5 - numArgs
-        writer.write("@SP\n");
-        writer.write("D=M\n");
-        writer.write("@5\n");
-        writer.write("D=D-A\n");
-        writer.write("@" + numArgs + "\n");
-        writer.write("D=D-A\n");
-        writer.write("@ARG\n");
-        writer.write("M=D\n");
-        
-        // LCL = SP
-        writer.write("@SP\n");
-        writer.write("D=M\n");
-        writer.write("@LCL\n");
-        writer.write("M=D\n");
-        
-        // 関数にジャンプ
-        writeGoto(functionName);
-        
+        writer.at(internalLabel(functionName, "$ret.", returnLabel));
+        writer.write(PUSH_A);
+
+        // 呼び出し元のLCL, ARG, THIS, THATをプッシュし、ARG = SP - 5 - numArgs、LCL = SP とする
+        writer.write(SAVE_FRAME);
+        writer.at(numArgs);
+        writer.write(SET_ARG_LCL);
+
+        // 関数にジャンプ (関数名はスコープを付けない)
+        comment("goto", functionName);
+        writer.at(functionName);
+        writer.write(JMP);
+
         // リターンラベル
-        writer.write("(" + returnLabel + ")\n");
-    
+        writer.label(internalLabel(functionName, "$ret.", returnLabel));
     }
 
     /**
      * returnコマンドを実装する
      */
     public void writeReturn() throws IOException {
-        writer.write("// return\n");
-        
-        // フレームをR13に保存（フレーム = LCL）
-        writer.write("@LCL\n");
-        writer.write("D=M\n");
-        writer.write("@R13\n");
-        writer.write("M=D\n");
-        
-        // リターンアドレスをR14に保存（リターンアドレス = *(フレーム-5)）
-        writer.write("@5\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@R14\n");
-        writer.write("M=D\n");
-        
-        // 戻り値を引数0の位置に配置
-        popToD();
-        writer.write("@ARG\n");
-        writer.write("A=M\n");
-        writer.write("M=D\n");
-        
-        // SPを引数の次の位置に設定（SP = ARG+1）
-        writer.write("@ARG\n");
-        writer.write("D=M+1\n");
-        writer.write("@SP\n");
-        writer.write("M=D\n");
-        
-        // THATを復元（THAT = *(フレーム-1)）
-        writer.write("@R13\n");
-        writer.write("D=M\n");
-        writer.write("@1\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@THAT\n");
-        writer.write("M=D\n");
-        
-        // THISを復元（THIS = *(フレーム-2)）
-        writer.write("@R13\n");
-        writer.write("D=M\n");
-        writer.write("@2\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@THIS\n");
-        writer.write("M=D\n");
-        
-        // ARGを復元（ARG = *(フレーム-3)）
-        writer.write("@R13\n");
-        writer.write("D=M\n");
-        writer.write("@3\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@ARG\n");
-        writer.write("M=D\n");
-        
-        // LCLを復元（LCL = *(フレーム-4)）
-        writer.write("@R13\n");
-        writer.write("D=M\n");
-        writer.write("@4\n");
-        writer.write("A=D-A\n");
-        writer.write("D=M\n");
-        writer.write("@LCL\n");
-        writer.write("M=D\n");
-        
-        // リターンアドレスにジャンプ
-        writer.write("@R14\n");
-        writer.write("A=M\n");
-        writer.write("0;JMP\n");
+        comment("return");
+        returnSites++;
+        if (sharedCall) {
+            writer.at(RETURN_ROUTINE);
+            writer.write(JMP);
+        } else {
+            writer.write(RETURN);
+        }
     }
 
     /**
      * ブートストラップコードを生成する
      */
     public void writeBootstrap() throws IOException {
-        writer.write("// Bootstrap code\n");
-        
+        comment("Bootstrap code");
+
         // SPを256に初期化
-        writer.write("@256\n");
-        writer.write("D=A\n");
-        writer.write("@SP\n");
-        writer.write("M=D\n");
-        
+        writer.write(BOOTSTRAP);
+
         // Sys.initを呼び出す
         writeCall("Sys.init", 0);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package vm.codewriter;
+
+import java.io.IOException;
+
+/**
+ * Emitter.java - CodeWriter の出力先
+ *
+ * テキストの .asm に書き込む AsmEmitter と、中間表現 (Program) に追加する ProgramEmitter があります。
+ * シンボル名とコメントは CharSequence で受け取るので、CodeWriter は使い回す StringBuilder で組み立てて渡せます
+ * (呼び出しから戻った後は内容を参照しないこと)。
+ */
+interface Emitter {
+    /**
+     * 事前に符号化した命令列を出力する
+     */
+    void write(Fragment fragment) throws IOException;
+
+    /**
+     * A命令 (@値) を出力する
+     */
+    void at(int value) throws IOException;
+
+    /**
+     * A命令 (@シンボル) を出力する
+     */
+    void at(CharSequence symbol) throws IOException;
+
+    /**
+     * ラベル定義 ((シンボル)) を出力する
+     */
+    void label(CharSequence symbol) throws IOException;
+
+    /**
+     * コメントを1行出力する (出力先によっては捨てる)
+     */
+    void comment(CharSequence text) throws IOException;
+
+    /**
+     * これまでに出力した行数 (ソースマップ用)
+     */
+    int getLineCount();
+
+    /**
+     * 出力を終える
+     */
+    void close() throws IOException;
+}
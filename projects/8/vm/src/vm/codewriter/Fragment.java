@@ -0,0 +1,79 @@
+package vm.codewriter;
+
+import asm.code.Code;
+import asm.ir.Program;
+
+/**
+ * Fragment.java - 事前に符号化した固定の命令列
+ *
+ * クラスの初期化時に1回だけ作り、2つの形で保持します。
+ * - テキストの .asm に書き込むASCIIのバイト列と行数
+ * - 中間表現 (Program) に追加する要素の種類・値・シンボル名 (C命令は命令語にしておく)
+ * どちらの出力先でも、VMコマンドごとにニーモニックを組み立てたり解析したりしません。
+ */
+final class Fragment {
+    final byte[] bytes;
+    final int lines;
+    // 命令数 (ラベルを除く、ROMの語数)
+    final int instructions;
+
+    // 中間表現の要素 (値は定数または命令語、シンボルのA命令とラベルは symbols に名前)
+    final byte[] types;
+    final int[] values;
+    final String[] symbols;
+
+    private Fragment(byte[] bytes, String[] lineTexts) {
+        this.bytes = bytes;
+        this.lines = lineTexts.length;
+        this.types = new byte[lines];
+        this.values = new int[lines];
+        this.symbols = new String[lines];
+        int instructions = 0;
+
+        Code code = new Code();
+        for (int i = 0; i < lines; i++) {
+            String line = lineTexts[i];
+            if (line.startsWith("@")) {
+                String symbol = line.substring(1);
+                if (Character.isDigit(symbol.charAt(0))) {
+                    types[i] = Program.A_CONSTANT;
+                    values[i] = Integer.parseInt(symbol);
+                } else {
+                    types[i] = Program.A_SYMBOL;
+                    symbols[i] = symbol;
+                }
+            } else if (line.startsWith("(")) {
+                types[i] = Program.LABEL;
+                symbols[i] = line.substring(1, line.length() - 1);
+            } else {
+                // dest=comp;jump
+                int equals = line.indexOf('=');
+                int semicolon = line.indexOf(';');
+                String dest = equals < 0 ? "" : line.substring(0, equals);
+                String comp = line.substring(equals + 1, semicolon < 0 ? line.length() : semicolon);
+                String jump = semicolon < 0 ? "" : line.substring(semicolon + 1);
+                types[i] = Program.C_INSTRUCTION;
+                values[i] = Code.cInstruction(code.compBits(comp), code.destBits(dest), code.jumpBits(jump));
+            }
+            if (types[i] != Program.LABEL) {
+                instructions++;
+            }
+        }
+        this.instructions = instructions;
+    }
+
+    /**
+     * 命令列を符号化する (ASCII のみ、1行1命令で各行を改行で終える)
+     */
+    static Fragment of(String text) {
+        if (!text.isEmpty() && !text.endsWith("\n")) {
+            throw new IllegalArgumentException("命令列は改行で終わる必要があります: " + text);
+        }
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        String[] lineTexts = text.isEmpty() ? new String[0] : text.split("\n");
+        return new Fragment(bytes, lineTexts);
+    }
+}
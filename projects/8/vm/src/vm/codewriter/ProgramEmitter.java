@@ -0,0 +1,66 @@
+package vm.codewriter;
+
+import asm.ir.Program;
+
+/**
+ * ProgramEmitter.java - 中間表現への出力
+ *
+ * 命令をテキストにせず、Program に直接追加します。Hack.assemble(Program) でそのまま命令語にできます。
+ * コメントは捨てます。行数は Program の要素数 (ラベルを含む) なので、ソースマップの行番号は
+ * Program.writeAssembly で書き出した .asm の行番号と一致します。
+ */
+final class ProgramEmitter implements Emitter {
+    private final Program program;
+
+    ProgramEmitter(Program program) {
+        this.program = program;
+    }
+
+    @Override
+    public void write(Fragment fragment) {
+        for (int i = 0; i < fragment.lines; i++) {
+            switch (fragment.types[i]) {
+                case Program.A_CONSTANT:
+                    program.addConstant(fragment.values[i]);
+                    break;
+                case Program.A_SYMBOL:
+                    program.addSymbol(fragment.symbols[i]);
+                    break;
+                case Program.LABEL:
+                    program.addLabel(fragment.symbols[i]);
+                    break;
+                default:
+                    program.addCompute(fragment.values[i]);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void at(int value) {
+        program.addConstant(value);
+    }
+
+    @Override
+    public void at(CharSequence symbol) {
+        program.addSymbol(symbol);
+    }
+
+    @Override
+    public void label(CharSequence symbol) {
+        program.addLabel(symbol);
+    }
+
+    @Override
+    public void comment(CharSequence text) {
+    }
+
+    @Override
+    public int getLineCount() {
+        return program.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -12,6 +12,14 @@ public class Parser {
     private String currentCommand;
     private String currentLine;
     private boolean hasMoreLines;
+    // 読み込んだ行数と、先読みした行・現在のコマンドの行番号 (1から)
+    private int linesRead = 0;
+    private int currentLineNumber = 0;
+    private int commandLineNumber = 0;
+    // 現在のコマンドを空白で区切った結果 (advance で1回だけ区切る)
+    private int currentType = -1;
+    private String currentArg1;
+    private String currentArg2;
     
     // コマンドタイプ
     public static final int C_ARITHMETIC = 0;
@@ -47,6 +55,8 @@ public class Parser {
     public void advance() throws IOException {
         if (currentLine != null && !currentLine.isEmpty()) {
             currentCommand = currentLine;
+            commandLineNumber = currentLineNumber;
+            splitCommand();
         }
         readNextLine();
     }
@@ -59,6 +69,7 @@ public class Parser {
         
         while (true) {
             String line = reader.readLine();
+            linesRead++;
             
             if (line == null) {
                 hasMoreLines = false;
@@ -74,11 +85,47 @@ public class Parser {
             
             if (!line.isEmpty()) {
                 currentLine = line;
+                currentLineNumber = linesRead;
                 return;
             }
         }
     }
     
+    /**
+     * 現在のコマンドの行番号を返す (1から)
+     */
+    public int lineNumber() {
+        return commandLineNumber;
+    }
+    
+    /**
+     * 現在のコマンドを空白で区切り、種類と引数を求める
+     * 正規表現の split を使わず、コマンドごとに1回だけ走査する
+     */
+    private void splitCommand() {
+        String[] fields = new String[3];
+        int count = 0;
+        int length = currentCommand.length();
+        int i = 0;
+        while (i < length && count < fields.length) {
+            while (i < length && Character.isWhitespace(currentCommand.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(currentCommand.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                fields[count++] = currentCommand.substring(start, i);
+            }
+        }
+
+        currentType = commandType(fields[0]);
+        // C_ARITHMETICの場合、最初の引数はコマンド自体
+        currentArg1 = currentType == C_ARITHMETIC ? fields[0] : fields[1];
+        currentArg2 = fields[2];
+    }
+
     /**
      * 現在のコマンドの種類を返す
      */
@@ -86,39 +133,30 @@ public class Parser {
         if (currentCommand == null) {
             return -1;
         }
-        
-        String[] parts = currentCommand.split("\\s+");
-        String command = parts[0];
-        
-        if (command.equals("push")) {
-            return C_PUSH;
-        } else if (command.equals("pop")) {
-            return C_POP;
-        } else if (command.equals("label")) {
-            return C_LABEL;
-        } else if (command.equals("goto")) {
-            return C_GOTO;
-        } else if (command.equals("if-goto")) {
-            return C_IF;
-        } else if (command.equals("function")) {
-            return C_FUNCTION;
-        } else if (command.equals("call")) {
-            return C_CALL;
-        } else if (command.equals("return")) {
-            return C_RETURN;
-        } else if (isArithmeticCommand(command)) {
-            return C_ARITHMETIC;
-        }
-        
-        return -1;
+        return currentType;
     }
-    
-    private boolean isArithmeticCommand(String command) {
-        return command.equals("add") || command.equals("sub") || 
-               command.equals("neg") || command.equals("eq") || 
-               command.equals("gt") || command.equals("lt") || 
-               command.equals("and") || command.equals("or") || 
-               command.equals("not");
+
+    private static int commandType(String command) {
+        switch (command) {
+            case "push":     return C_PUSH;
+            case "pop":      return C_POP;
+            case "label":    return C_LABEL;
+            case "goto":     return C_GOTO;
+            case "if-goto":  return C_IF;
+            case "function": return C_FUNCTION;
+            case "call":     return C_CALL;
+            case "return":   return C_RETURN;
+            case "add":
+            case "sub":
+            case "neg":
+            case "eq":
+            case "gt":
+            case "lt":
+            case "and":
+            case "or":
+            case "not":      return C_ARITHMETIC;
+            default:         return -1;
+        }
     }
     
     /**
@@ -126,16 +164,7 @@ public class Parser {
      * C_ARITHMETICの場合、コマンド自体（add, subなど）が返される
      */
     public String arg1() {
-        if (commandType() == C_ARITHMETIC) {
-            return currentCommand.split("\\s+")[0];
-        }
-        
-        String[] parts = currentCommand.split("\\s+");
-        if (parts.length >= 2) {
-            return parts[1];
-        }
-        
-        return null;
+        return currentArg1;
     }
     
     /**
@@ -143,9 +172,8 @@ public class Parser {
      * C_PUSH、C_POPコマンドで使用される
      */
     public int arg2() {
-        String[] parts = currentCommand.split("\\s+");
-        if (parts.length >= 3) {
-            return Integer.parseInt(parts[2]);
+        if (currentArg2 != null) {
+            return Integer.parseInt(currentArg2);
         }
         
         return -1;
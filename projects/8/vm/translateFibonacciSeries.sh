@@ -4,7 +4,7 @@
 mkdir -p bin
 
 # VMトランスレータをコンパイル
-javac -d bin src/vm/parser/Parser.java src/vm/codewriter/CodeWriter.java src/vm/VMTranslator.java
+javac -d bin -sourcepath src:../../6/asm/src src/vm/parser/Parser.java src/vm/codewriter/CodeWriter.java src/vm/VMTranslator.java
 
 # SimpleAdd.vmを変換
 java -cp bin vm.VMTranslator ../ProgramFlow/FibonacciSeries/FibonacciSeries.vm
@@ -4,7 +4,7 @@
 mkdir -p bin
 
 # VMトランスレータをコンパイル
-javac -d bin src/vm/parser/Parser.java src/vm/codewriter/CodeWriter.java src/vm/VMTranslator.java
+javac -d bin -sourcepath src:../../6/asm/src src/vm/parser/Parser.java src/vm/codewriter/CodeWriter.java src/vm/VMTranslator.java
 
 # ディレクトリ全体を変換（Class1.vmとClass2.vmとSys.vmを含む）
 java -cp bin vm.VMTranslator ../FunctionCalls/StaticsTest